@@ -11,17 +11,33 @@ public class Earthquake {
      * STATE m indicate they are variables of the class
      */
 
+    /** USGS event id of the earthquake (i.e. "us10004u1y") */
+    private String mId;
+
     /** Magnitude for the earthquake */
     private double mMagnitude;
 
-    private double mMagnitudeColor;
-
     /** Time of the earthquake */
     private long mTimeInMilliseconds;
 
     /** URL for the earthquake */
     private String mUrl;
 
+    /** When USGS last updated the event, in milliseconds from the Epoch, or 0 if not known */
+    private long mUpdatedTime;
+
+    /** True if USGS has deleted the event (only reported when asked for deleted events) */
+    private boolean mDeleted;
+
+    /** Latitude of the epicenter in degrees, or NaN if not known */
+    private double mLatitude;
+
+    /** Longitude of the epicenter in degrees, or NaN if not known */
+    private double mLongitude;
+
+    /** Depth of the hypocenter in kilometers, or NaN if not known */
+    private double mDepth;
+
     /**
      * CONSTRUCTOR
      * Create a new Earthquake object.
@@ -34,15 +50,89 @@ public class Earthquake {
      *
      */
     public Earthquake(double magnitude, String location, long timeInMilliseconds, String url) {
+        this("", magnitude, location, timeInMilliseconds, url);
+    }
+
+    /**
+     * Create a new Earthquake object that knows its USGS event id.
+     *
+     * @param id is the USGS event id of the earthquake.
+     * @param magnitude is the magnitude for the earthquake.
+     * @param location     is the most close city/town of the earthquake.
+     * @param timeInMilliseconds is the time in milliseconds (from the Epoch) when the earthquake
+     *        happened.
+     * @param url for each earthquake
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      String url) {
+        this(id, magnitude, location, timeInMilliseconds, url, 0, false);
+    }
+
+    /**
+     * Create a new Earthquake object that also knows when USGS last updated it, and whether
+     * USGS has deleted it.
+     *
+     * @param updatedTime is the time in milliseconds (from the Epoch) of the last update of the
+     *        event, or 0 if it is not known.
+     * @param deleted is true if the event has been deleted by USGS.
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      String url, long updatedTime, boolean deleted) {
+        this(id, magnitude, location, timeInMilliseconds, url, updatedTime, deleted,
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Create a new Earthquake object that also knows where it happened, from the GeoJSON
+     * "geometry.coordinates" of the event.
+     *
+     * @param latitude is the latitude of the epicenter in degrees, or NaN if not known.
+     * @param longitude is the longitude of the epicenter in degrees, or NaN if not known.
+     * @param depth is the depth of the hypocenter in kilometers, or NaN if not known.
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      String url, long updatedTime, boolean deleted, double latitude,
+                      double longitude, double depth) {
+        mId = id;
         mMagnitude = magnitude;
         mLocation = location;
         mTimeInMilliseconds = timeInMilliseconds;
         mUrl = url;
+        mUpdatedTime = updatedTime;
+        mDeleted = deleted;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
+    }
 
+    /**
+     * Create a new Earthquake object that keeps its location and url in parts, so the parts
+     * can be shared with other earthquakes (see {@link EarthquakeStringPool}).
+     *
+     * @param locationOffset is the offset part of the location, separator included
+     *        ("5km N of "), or null if the location has none.
+     * @param primaryLocation is the primary part of the location ("Cairo, Egypt").
+     * @param urlPrefix is the url up to and including its last '/'.
+     * @param urlSuffix is the rest of the url, which for USGS is the event id.
+     */
+    Earthquake(String id, double magnitude, String locationOffset, String primaryLocation,
+               long timeInMilliseconds, String urlPrefix, String urlSuffix, long updatedTime,
+               boolean deleted, double latitude, double longitude, double depth) {
+        this(id, magnitude, null, timeInMilliseconds, null, updatedTime, deleted, latitude,
+                longitude, depth);
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mUrlPrefix = urlPrefix;
+        mUrlSuffix = urlSuffix;
     }
 
     /** METHODS */
 
+    /** Get the USGS event id of the earthquake, or "" if it is not known */
+    public String getId() {
+        return mId;
+    }
+
     /** Get the magnitude  of the earthquake */
     public double getMagnitude() {
         return mMagnitude;
@@ -58,9 +148,18 @@ public class Earthquake {
 //        return mMagnitudeColor;
 //    }
 
-    /** Location of the earthquake */
+    /** Location of the earthquake, when it is not kept in parts */
     private String mLocation;
 
+    /**
+     * Parts of the location and url, or null when they are kept whole. Parts are shared with
+     * other earthquakes, so a large list holds each place name and url prefix only once.
+     */
+    private String mLocationOffset;
+    private String mPrimaryLocation;
+    private String mUrlPrefix;
+    private String mUrlSuffix;
+
     /** Get the date of the earthquake */
     public long getTimeInMilliseconds() {
         return mTimeInMilliseconds;
@@ -68,12 +167,83 @@ public class Earthquake {
 
     /** Get the url  of the earthquake */
     public String getUrl() {
-        return mUrl;
+        return mUrlPrefix != null ? mUrlPrefix.concat(mUrlSuffix) : mUrl;
+    }
+
+    /** Returns the url up to and including its last '/' */
+    String getUrlPrefix() {
+        if (mUrlPrefix != null) {
+            return mUrlPrefix;
+        }
+        String url = getUrl();
+        return url != null ? url.substring(0, url.lastIndexOf('/') + 1) : null;
+    }
+
+    /** Returns the url after its last '/', which for USGS is the event id */
+    String getUrlSuffix() {
+        if (mUrlPrefix != null) {
+            return mUrlSuffix;
+        }
+        String url = getUrl();
+        return url != null ? url.substring(url.lastIndexOf('/') + 1) : null;
     }
 
     /** Returns the location of the earthquake */
     public String getLocation() {
-        return mLocation;
+        if (mPrimaryLocation == null) {
+            return mLocation;
+        }
+        return mLocationOffset == null
+                ? mPrimaryLocation : mLocationOffset.concat(mPrimaryLocation);
+    }
+
+    /**
+     * Returns the offset part of the location, separator included ("5km N of "), or null if
+     * the location has none ("Pacific-Antarctic Ridge").
+     */
+    public String getLocationOffset() {
+        if (mPrimaryLocation != null) {
+            return mLocationOffset;
+        }
+        String location = getLocation();
+        return location != null ? EarthquakeFormatter.getLocationOffset(location) : null;
+    }
+
+    /**
+     * Returns the primary part of the location ("Cairo, Egypt"), which is the whole location
+     * if it has no offset.
+     */
+    public String getPrimaryLocation() {
+        if (mPrimaryLocation != null) {
+            return mPrimaryLocation;
+        }
+        String location = getLocation();
+        return location != null ? EarthquakeFormatter.getPrimaryLocation(location) : null;
+    }
+
+    /** Get when USGS last updated the earthquake, or 0 if it is not known */
+    public long getUpdatedTime() {
+        return mUpdatedTime;
+    }
+
+    /** Returns true if USGS has deleted the earthquake */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    /** Get the latitude of the epicenter in degrees, or NaN if it is not known */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /** Get the longitude of the epicenter in degrees, or NaN if it is not known */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /** Get the depth of the hypocenter in kilometers, or NaN if it is not known */
+    public double getDepth() {
+        return mDepth;
     }
 }
 
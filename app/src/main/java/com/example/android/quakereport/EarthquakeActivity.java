@@ -22,30 +22,58 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
-import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
 
 // (B) public class EarthquakeActivity extends AppCompatActivity {
-public class EarthquakeActivity extends AppCompatActivity implements LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity implements LoaderCallbacks<Boolean> {
 
     private static final String LOG_TAG = EarthquakeActivity.class.getName();
 
-    /**
-     * URL for earthquake data from the USGS dataset
-     */
-    private static final String USGS_REQUEST_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&eventtype=earthquake&orderby=time&minmag=6&limit=10";
-
     /**
      * Constant value for the earthquake loader ID. We can choose any integer.
      * This really only comes into play if you're using multiple loaders.
      */
     private static final int EARTHQUAKE_LOADER_ID = 1;
 
+    /**
+     * Loader ID of the first page of the list. The pages after it take the IDs after it, so
+     * keep this above every other loader ID.
+     */
+    private static final int FIRST_PAGE_LOADER_ID = 100;
+
+    /** Largest size (in bytes) of the earthquakes cached on disk */
+    private static final long DISK_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
+    /** File name of the earthquake database */
+    private static final String DATABASE_NAME = "earthquakes.db";
+
+    /** How long (in milliseconds) cached earthquakes are shown without asking USGS */
+    private static final long DISK_CACHE_TTL_MS = 5 * 60 * 1000;
+
+    /** Largest number of earthquakes kept in memory, over all cached requests */
+    private static final int MEMORY_CACHE_MAX_EARTHQUAKES = EarthquakeQuery.MAX_EVENTS_PER_REQUEST;
+
+    /** How often (in milliseconds) the earthquakes are refreshed while the activity is shown */
+    private static final long REFRESH_INTERVAL_MS = 15 * 60 * 1000;
+
+    /** Smallest magnitude kept in sync with USGS */
+    private static final double SYNC_MIN_MAGNITUDE = 6;
+
+    /** Length (in milliseconds) of the rolling window kept in sync with USGS: 30 days */
+    private static final long SYNC_WINDOW_MS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Decides when USGS is asked again. It is static so it outlives the activity: coming back
+     * to the activity within the refresh interval shows the last result without a download.
+     * Every refresh after the first only asks for what was added, updated or deleted since
+     * the one before, and writes it to the database, deletions included.
+     */
+    private static EarthquakeRefreshScheduler sRefreshScheduler;
+
     // When we get to the onPostExecute() method, we need to update the ListView. The only way to
     // update the contents of the list is to update the data set within the EarthquakeAdapter.
     // To access and modify the instance of the EarthquakeAdapter, we need to make it a global
@@ -56,6 +84,13 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
      */
     private EarthquakeAdapter mAdapter;
 
+    /**
+     * Reads the rows of the list from the database a page at a time. The loader of
+     * {@link #EARTHQUAKE_LOADER_ID} only downloads the earthquakes and writes them there; the
+     * pages that are showing are loaded again whenever that changes the database.
+     */
+    private EarthquakePager mPager;
+
     // Then we update all references to the adapter to use the mAdapter variable name.
 
 
@@ -68,23 +103,56 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Time the fetch, parse and bind steps in debug builds; the dump goes to the log when
+        // the activity stops.
+        EarthquakeMetrics.setEnabled(BuildConfig.DEBUG);
+
+        // Keep parsed responses on disk, so the list can be shown right away on the next start.
+        if (QueryUtils.getDiskCache() == null) {
+            QueryUtils.setDiskCache(new EarthquakeDiskCache(new File(getCacheDir(), "earthquakes"),
+                    DISK_CACHE_MAX_BYTES, DISK_CACHE_TTL_MS));
+        }
+        // And keep them in memory too, so opening the list again needs no parsing at all.
+        if (QueryUtils.getMemoryCache() == null) {
+            QueryUtils.setMemoryCache(new EarthquakeMemoryCache(MEMORY_CACHE_MAX_EARTHQUAKES,
+                    DISK_CACHE_TTL_MS));
+        }
+        // Write every downloaded earthquake to the database, which the list is read from.
+        // The database file is only opened on first use, on a loader thread.
+        if (QueryUtils.getDatabase() == null) {
+            QueryUtils.setDatabase(new EarthquakeDatabase(
+                    new SqliteDatabaseConnection(getDatabasePath(DATABASE_NAME))));
+        }
+
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        earthquakeListView.setLayoutManager(new LinearLayoutManager(this));
 
         // Create a new adapter that takes an empty list of earthquakes as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
+        mAdapter = new EarthquakeAdapter(this, new EarthquakeStore());
 
-        // Set the adapter on the {@link ListView}
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         earthquakeListView.setAdapter(mAdapter);
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
+        // Show every stored earthquake, newest first, reading only the pages near the rows on
+        // screen. What was stored by earlier runs shows up straight away, before any download.
+        mPager = new EarthquakePager(this, getLoaderManager(), null, FIRST_PAGE_LOADER_ID);
+        mPager.setDatabase(QueryUtils.getDatabase());
+        mAdapter.setPager(mPager);
+        mPager.start();
+
+        // Set an item click listener on the adapter, which sends an intent to a web browser
         // to open a website with more information about the selected earthquake.
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter.setOnEarthquakeClickListener(new EarthquakeAdapter.OnEarthquakeClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
+            public void onEarthquakeClick(int position) {
                 // Find the current earthquake that was clicked on
                 Earthquake currentEarthquake = mAdapter.getItem(position);
+                if (currentEarthquake == null) {
+                    // Its page is still loading.
+                    return;
+                }
 
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri earthquakeUri = Uri.parse(currentEarthquake.getUrl());
@@ -110,21 +178,66 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
     }
 
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
-        // Create a new loader for the given URL
-        return new EarthquakeLoader(this, USGS_REQUEST_URL);
+    protected void onStart() {
+        super.onStart();
+        // Keep the data warm while the activity is visible. A periodic refresh with new data
+        // writes it to the database, which updates the list.
+        getRefreshScheduler().start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        getRefreshScheduler().stop();
+        if (EarthquakeMetrics.isEnabled()) {
+            Log.d(LOG_TAG, "Metrics:\n" + EarthquakeMetrics.snapshot());
+        }
     }
 
     @Override
-    public void onLoadFinished
-            (Loader<List<Earthquake>> loader, List<Earthquake> earthquakes) {
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            mAdapter.addAll(earthquakes);
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Once the list is out of sight, or the system runs low on memory, the buffers kept
+        // for the next download are not worth their megabytes. A new buffer is cheap to make.
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            EarthquakeBufferPool.getShared().clear();
+        }
+    }
+
+    /** Returns the refresh scheduler of the USGS request, creating it if needed */
+    private static synchronized EarthquakeRefreshScheduler getRefreshScheduler() {
+        if (sRefreshScheduler == null) {
+            // The engine moves the window along on every sync; this one is only its first.
+            long now = System.currentTimeMillis();
+            EarthquakeSyncEngine syncEngine = new EarthquakeSyncEngine(
+                    new EarthquakeQuery(now - SYNC_WINDOW_MS, now, SYNC_MIN_MAGNITUDE, Double.NaN),
+                    SYNC_WINDOW_MS);
+            sRefreshScheduler = new EarthquakeRefreshScheduler(
+                    EarthquakeRefreshScheduler.forSyncEngine(syncEngine), REFRESH_INTERVAL_MS);
         }
+        return sRefreshScheduler;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Destroy the page loaders, which would otherwise keep calling back into this
+        // activity's pager. The next activity reads its pages again, which is quick.
+        mPager.stop();
+    }
+
+    @Override
+    public Loader<Boolean> onCreateLoader(int i, Bundle bundle) {
+        // Create a new loader that syncs through the scheduler, so that re-entering the
+        // activity does not download the same data again. The sync writes to the database,
+        // so the loader returns nothing but whether it worked.
+        return new EarthquakeSyncLoader(this, getRefreshScheduler());
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Boolean> loader, Boolean synced) {
+        // Nothing to do here: the download was written to the database, which reloads the
+        // pages of the list that changed.
     }
 
     /**
@@ -150,9 +263,8 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
     /// We need onLoadFinished(), where we'll do exactly what we did in onPostExecute(),
     // and use the earthquake data to update our UI - by updating the dataset in the adapter
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
-        // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+    public void onLoaderReset(Loader<Boolean> loader) {
+        // The list shows the database rather than the loader's data, so it stays as it is.
     }
 }
 
@@ -1,264 +1,277 @@
 package com.example.android.quakereport;
 
 import android.app.Activity;
-import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.List;
 import android.graphics.drawable.GradientDrawable;
 
 
 /*
-     * {@link EarthquakeAdapter} is an {@link ArrayAdapter} that can provide the layout for each list
-     * based on a data source, which is a list of {@link Earthquake} objects.
+     * {@link EarthquakeAdapter} is a {@link RecyclerView.Adapter} that can provide the layout for
+     * each list item based on a data source, which is an {@link EarthquakeStore} of earthquakes.
+     *
+     * For queries too big to hold at once, {@link #setPager(EarthquakePager)} switches the
+     * adapter to showing the pages of an {@link EarthquakePager} instead of a store. A page that
+     * is loaded again is diffed against the one it replaces, so only the inserted, removed and
+     * changed rows are rebound and the scroll position is kept. The pages also bring the
+     * formatted texts and colors of every row, so binding a row only assigns them.
      * */
-    public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+    public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
+
+    /**
+     * Receives clicks on the list items.
+     */
+    public interface OnEarthquakeClickListener {
+        void onEarthquakeClick(int position);
+    }
+
+    /** The context used to inflate the layout file */
+    private final Activity mContext;
+
+    /** The earthquakes to display */
+    private EarthquakeStore mStore;
 
     /**
-     * The part of the location string from the USGS service that we use to determine
-     * whether or not there is a location offset present ("5km N of Cairo, Egypt").
+     * True while {@link #mStore} is owned by this adapter and can be appended to, false
+     * while it is a store handed in by the loader (which must not be changed).
      */
-    private static final String LOCATION_SEPARATOR = " of ";
+    private boolean mOwnsStore;
+
+    /** Listener for clicks on the list items, or null */
+    private OnEarthquakeClickListener mClickListener;
+
+    /**
+     * Builds the row models of stores handed in without them. Those rows are formatted on the
+     * main thread the first time they are shown.
+     */
+    private final EarthquakeRowModelFactory mRowModelFactory;
+
+    /** Row model of each position, or null where it still has to be built */
+    private EarthquakeRowModel[] mRows;
+
+    /** Pages to show instead of {@link #mStore}, or null */
+    private EarthquakePager mPager;
+
+    /** Shown for the rows of pages that are not in memory (yet) */
+    private final EarthquakeRowModel mPlaceholderRow;
 
         /**
          * CONSTRUCTOR - Constructs/Create a new {@Link EarthquakeAdapter} object.
          *
          * @param context     The current context. Used to inflate the layout file.
-         * @param earthquakes A List of earthquake objects to display in a list.
+         * @param earthquakes The store of earthquakes to display in a list.
          */
-        public EarthquakeAdapter(Activity context, ArrayList<Earthquake> earthquakes) {
-            super(context, 0, earthquakes);
+        public EarthquakeAdapter(Activity context, EarthquakeStore earthquakes) {
+            mContext = context;
+            mStore = earthquakes;
+            mRowModelFactory = new EarthquakeRowModelFactory(context);
+            mRows = new EarthquakeRowModel[earthquakes.size()];
+            mPlaceholderRow = mRowModelFactory.createPlaceholder();
         }
 
-        /**
-         * * METHOD - GETVIEW
-         * Provides a view for an AdapterView (ListView, GridView, etc.)
-         *
-         * Returns a list item view that displays information about the earthquake at the given position
-         * in the list of earthquakes.
-         *
-         * @param position    The position in the list of data that should be displayed in the
-         *                    list item view.
-         * @param convertView The recycled view to populate.
-         * @param parent      The parent ViewGroup that is used for inflation.
-         * @return The View for the position in the AdapterView.
-         */
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            // // Check if there is an existing list item view (called convertView) that we can
-            // reuse, otherwise, if convertView is null, then inflate a new list item layout.
-            View listItemView = convertView;
-            if (listItemView == null) {
-                listItemView = LayoutInflater.from(getContext()).inflate(
-                        R.layout.earthquake_list_item, parent, false);
-            }
-
-            // Get the {@link Earthquake} object located at this position in the list
-            Earthquake currentEarthquake = getItem(position);
-
-            // // Find the TextView with view ID magnitude
-            TextView magnitudeView = (TextView) listItemView.findViewById(R.id.magnitude_text_view);
-
-            // Format the magnitude to show 1 decimal place
-            String formattedMagnitude = formatMagnitude(currentEarthquake.getMagnitude());
-            // Display the magnitude of the current earthquake in that TextView
-            magnitudeView.setText(formattedMagnitude);
-
-//          // Get the mag from the current Earthquake object and set this text on the magnitud TextView
-//          magnitudTextView.setText(String.valueOf(new Double(currentEarthquake.getMagnitude())));
-
-            // TODO: If you add the above code to your app, you’ll see an error in Android Studio
-            // mentioning that it doesn’t recognize the method getMagnitudeColor() because it will
-            // be your job to define this method!
-
-            // Set the proper background color on the magnitude circle.
-            // Fetch the background from the TextView, which is a GradientDrawable.
-            GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
-
-            // Get the appropriate background color based on the current earthquake magnitude
-            int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
-
-            // Set the color on the magnitude circle
-            magnitudeCircle.setColor(magnitudeColor);
-
-            // Steps Lesson 21.
-            // Get the original location string from the Earthquake object,
-            // which can be in the format of "5km N of Cairo, Egypt" or "Pacific-Antarctic Ridge".
-            String originalLocation = currentEarthquake.getLocation();
-
-            // If the original location string (i.e. "5km N of Cairo, Egypt") contains
-            // a primary location (Cairo, Egypt) and a location offset (5km N of that city)
-            // then store the primary location separately from the location offset in 2 Strings,
-            // so they can be displayed in 2 TextViews.
-            String primaryLocation;
-            String locationOffset;
-
-            // In the String array, the 0th element of the array is “74km NW” and the 1st element
-            // of the array is “Rumoi, Japan”. Note that we also add the “ of “ text back to
-            // the 0th element of the array, so the locationOffset will say “74km NW of “.
-
-            // There is still the issue that some location Strings don’t have a location offset.
-            // Hence, we should check if the original location String contains the
-            // LOCATION_SEPARATOR first, before we decide to split the string with that separator.
-            // If there is no LOCATION_SEPARATOR in the original location String, then we can
-            // assume that we should we use the “Near the” text as the location offset, and just
-            // use the original location String as the primary location.
-
-            // Check whether the originalLocation string contains the " of " text
-            if (originalLocation.contains(LOCATION_SEPARATOR)) {
-                // Split the string into different parts (as an array of Strings)
-                // based on the " of " text. We expect an array of 2 Strings, where
-                // the first String will be "5km N" and the second String will be "Cairo, Egypt".
-                String[] parts = originalLocation.split(LOCATION_SEPARATOR);
-                // Location offset should be "5km N " + " of " --> "5km N of"
-                locationOffset = parts[0] + LOCATION_SEPARATOR;
-                // Primary location should be "Cairo, Egypt"
-                primaryLocation = parts[1];
-            } else {
-                // Otherwise, there is no " of " text in the originalLocation string.
-                // Hence, set the default location offset to say "Near the".
-                locationOffset = getContext().getString(R.string.near_the);
-                // The primary location will be the full location string "Pacific-Antarctic Ridge".
-                primaryLocation = originalLocation;
-            }
-            // Once we have the 2 separate Strings, we can display them in the 2 TextViews in
-            // the list item layout.
-
-            // Find the TextView with view ID location
-            TextView primaryLocationView = (TextView) listItemView.findViewById(R.id.primary_location);
-            primaryLocationView.setText(primaryLocation);
-
-            // Find the TextView with view ID location offset
-            TextView locationOffsetView = (TextView) listItemView.findViewById(R.id.location_offset);
-            // Display the location offset of the current earthquake in that TextView
-            locationOffsetView.setText(locationOffset);
-            // TODO: fin de los cambios.
-
-            // Create a new Date object from the time in milliseconds of the earthquake
-            Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
-
-            // Find the TextView with view ID date
-            TextView dateTextView = (TextView) listItemView.findViewById(R.id.date_text_view);
-            // Format the date string (i.e. "Mar 3, 1984")
-            String formattedDate = formatDate(dateObject);
-            // Display the date of the current earthquake in that TextView
-            dateTextView.setText(formattedDate);
-
-            // Find the TextView with view ID time
-            TextView timeView = (TextView) listItemView.findViewById(R.id.time);
-            // Format the time string (i.e. "4:30PM")
-            String formattedTime = formatTime(dateObject);
-            // Display the time of the current earthquake in that TextView
-            timeView.setText(formattedTime);
-
-            // Return the whole list item layout so that it can be shown in the ListView
-            return listItemView;
+    /** Returns the context the adapter was created with */
+    public Activity getContext() {
+        return mContext;
+    }
 
-        }
+    /** Set the listener for clicks on the list items */
+    public void setOnEarthquakeClickListener(OnEarthquakeClickListener listener) {
+        mClickListener = listener;
+    }
 
     /**
-     * Return the color for the magnitude circle based on the intensity of the earthquake.
-     *
-     * @param magnitude of the earthquake
+     * Show the rows of the pager instead of a store, or go back to an empty store with null.
+     * The pager loads the pages as the rows get shown. Handing the adapter a store or
+     * earthquakes afterwards leaves paging mode.
      */
-    private int getMagnitudeColor(double magnitude) {
-        int magnitudeColorResourceId;
-
-        // floor” of the decimal magnitude value. This means finding the closest integer
-        // less than the decimal value. The floor of the value 1.2 would be the integer 1.
-        int magnitudeFloor = (int) Math.floor(magnitude);
-
-        // Once we have the magnitude in an integer form (stored in the magnitudeFloor
-        // variable), we can write a switch statement that performs different logic based
-        // on the magnitudeFloor value.
-        switch (magnitudeFloor) {
-
-            //  we set the value of the magnitudeColorResourceId variable to be one of the
-            // color resources that we defined the colors.xml file.
-            case 0:
-            case 1:
-                magnitudeColorResourceId = R.color.magnitude1;
-                break;
-            case 2:
-                magnitudeColorResourceId = R.color.magnitude2;
-                break;
-            case 3:
-                magnitudeColorResourceId = R.color.magnitude3;
-                break;
-            case 4:
-                magnitudeColorResourceId = R.color.magnitude4;
-                break;
-            case 5:
-                magnitudeColorResourceId = R.color.magnitude5;
-                break;
-            case 6:
-                magnitudeColorResourceId = R.color.magnitude6;
-                break;
-            case 7:
-                magnitudeColorResourceId = R.color.magnitude7;
-                break;
-            case 8:
-                magnitudeColorResourceId = R.color.magnitude8;
-                break;
-            case 9:
-                magnitudeColorResourceId = R.color.magnitude9;
-                break;
-            default:
-                magnitudeColorResourceId = R.color.magnitude10plus;
-                break;
+    public void setPager(EarthquakePager pager) {
+        detachPager();
+        mPager = pager;
+        if (pager != null) {
+            pager.setListener(new EarthquakePager.Listener() {
+                @Override
+                public void onRowsLoaded(int positionStart, int itemCount) {
+                    notifyItemRangeChanged(positionStart, itemCount);
+                }
+
+                @Override
+                public void onPageChanged(int positionStart, EarthquakeDiff diff) {
+                    diff.dispatchTo(EarthquakeAdapter.this, positionStart);
+                }
+
+                @Override
+                public void onRowsAdded(int oldCount, int newCount) {
+                    notifyItemRangeInserted(oldCount, newCount - oldCount);
+                }
+
+                @Override
+                public void onRowsRemoved(int oldCount, int newCount) {
+                    notifyItemRangeRemoved(newCount, oldCount - newCount);
+                }
+            });
         }
-                //Once we find the right color resource ID, we still have one more step to convert
-                //  it into an actual color value.
+        swapStore(null);
+    }
 
-                // Remember that color resource IDs just point to the resource we defined, but
-                // not the value of the color. For example, R.layout.earthquake_list_item is a
-                // reference to tell us where the layout is located. It’s just a number, not
-                // the full XML layout.
+    /** Stop listening to the pager, if any, and go back to showing the store */
+    private void detachPager() {
+        if (mPager != null) {
+            mPager.setListener(null);
+            mPager = null;
+        }
+    }
 
-                // For example, R.layout.earthquake_list_item is a reference to tell us where the
-                // layout is located. It’s just a number, not the full XML layout.
+    /** Replace the displayed earthquakes with the given store, redrawing every row */
+    public void swapStore(EarthquakeStore store) {
+        if (store != null) {
+            detachPager();
+        }
+        mStore = store != null ? store : new EarthquakeStore();
+        mOwnsStore = store == null;
+        mRows = new EarthquakeRowModel[mStore.size()];
+        notifyDataSetChanged();
+    }
 
-                // You can call ContextCompat getColor() to convert the color resource ID into an
-                // actual integer color value, and return the result as the return value of the
-                // getMagnitudeColor() helper method.
-                return ContextCompat.getColor(getContext(), magnitudeColorResourceId);
-            }
+    /** Remove every earthquake from the list */
+    public void clear() {
+        swapStore(null);
+    }
 
     /**
-     * Return the formatted magnitude string showing 1 decimal place (i.e. "3.2")
-     * from a decimal magnitude value.
+     * Append the given earthquakes to the list, with their row models (in the same order), or
+     * null to build those when the rows are shown.
      */
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
+    public void addAll(List<Earthquake> earthquakes, List<EarthquakeRowModel> rows) {
+        detachPager();
+        int oldSize = mStore.size();
+        if (!mOwnsStore) {
+            // Never change a store we were handed: copy it into one of our own first.
+            EarthquakeStore store = new EarthquakeStore(mStore.size() + earthquakes.size());
+            for (int i = 0; i < mStore.size(); i++) {
+                store.add(mStore.get(i));
+            }
+            mStore = store;
+            mOwnsStore = true;
+        }
+        mStore.addAll(earthquakes);
+        // The earlier positions still hold the same earthquakes, so keep their row models.
+        mRows = Arrays.copyOf(mRows, mStore.size());
+        if (rows != null) {
+            for (int i = 0; i < rows.size(); i++) {
+                mRows[oldSize + i] = rows.get(i);
+            }
+        }
+        notifyItemRangeInserted(oldSize, earthquakes.size());
     }
 
-            /**
-     * Return the formatted date string (i.e. "Mar 3, 1984") from a Date object.
-     */
-    private String formatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
-        return dateFormat.format(dateObject);
+    @Override
+    public int getItemCount() {
+        return mPager != null ? mPager.getCount() : mStore.size();
     }
 
     /**
-     * Return the formatted date string (i.e. "4:30 PM") from a Date object.
+     * Returns the earthquake at the given position as a new {@link Earthquake} object, or null
+     * if it is on a page that is not in memory. Only meant for one-off lookups such as a click,
+     * not for binding rows.
      */
-    private String formatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
+    public Earthquake getItem(int position) {
+        return mPager != null ? mPager.getItem(position) : mStore.get(position);
     }
 
+    /**
+     * Inflate a new list item layout and find its TextViews once.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(getContext()).inflate(
+                R.layout.earthquake_list_item, parent, false);
+        return new ViewHolder(listItemView);
     }
 
+        /**
+         * * METHOD - BIND
+         * Displays the information about the earthquake at the given position in the list of
+         * earthquakes, in a recycled list item view.
+         *
+         * Binding a row allocates nothing and formats nothing: the TextViews were found once
+         * in the {@link ViewHolder}, and the texts and magnitude colour of every earthquake
+         * were prepared in its {@link EarthquakeRowModel}, normally by the loader.
+         *
+         * @param holder   The views of the list item to populate.
+         * @param position The position in the list of data that should be displayed in the
+         *                 list item view.
+         */
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            long start = EarthquakeMetrics.start();
+            EarthquakeRowModel row;
+            if (mPager != null) {
+                // Let the pager load this page, and the next one, if it has not already.
+                mPager.onPositionShown(position);
+                row = mPager.getRow(position);
+                if (row == null) {
+                    row = mPlaceholderRow;
+                }
+            } else if ((row = mRows[position]) == null) {
+                // This store came without row models: build this one now, once.
+                row = mRowModelFactory.create(mStore, position);
+                mRows[position] = row;
+            }
+
+            // Display the magnitude (1 decimal place) of the current earthquake
+            holder.magnitudeView.setText(row.getMagnitudeText());
+
+            // Set the proper background color on the magnitude circle, based on the current
+            // earthquake magnitude.
+            holder.magnitudeCircle.setColor(row.getMagnitudeColor());
 
+            // The USGS location ("5km N of Cairo, Egypt") split at the " of " text, with
+            // "Near the" as the offset when there is none ("Pacific-Antarctic Ridge").
+            holder.locationOffsetView.setText(row.getLocationOffsetText());
+            holder.primaryLocationView.setText(row.getPrimaryLocation());
 
+            // Display the date ("Mar 3, 1984") and time ("4:30 PM") of the current earthquake
+            holder.dateView.setText(row.getDateText());
+            holder.timeView.setText(row.getTimeText());
+            EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_BIND, start);
+        }
+
+    /**
+     * Holds the views of one list item, so they are only looked up once per row view.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magnitudeView;
+        final GradientDrawable magnitudeCircle;
+        final TextView locationOffsetView;
+        final TextView primaryLocationView;
+        final TextView dateView;
+        final TextView timeView;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            magnitudeView = (TextView) listItemView.findViewById(R.id.magnitude_text_view);
+            // The background of the magnitude TextView is a GradientDrawable.
+            magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
+            locationOffsetView = (TextView) listItemView.findViewById(R.id.location_offset);
+            primaryLocationView = (TextView) listItemView.findViewById(R.id.primary_location);
+            dateView = (TextView) listItemView.findViewById(R.id.date_text_view);
+            timeView = (TextView) listItemView.findViewById(R.id.time);
+            listItemView.setOnClickListener(this);
+        }
 
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (mClickListener != null && position != RecyclerView.NO_POSITION) {
+                mClickListener.onEarthquakeClick(position);
+            }
+        }
+    }
 
+    }
@@ -0,0 +1,145 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link EarthquakeBufferPool} keeps the byte buffers whole responses are read into, so one
+ * fetch after another reuses the same memory instead of allocating (and later collecting) a
+ * new buffer the size of a response every time.
+ *
+ * {@link #readFully(InputStream, int)} reads a response straight into the array behind a pooled
+ * buffer: the bytes are not decoded, split into lines or copied on the way. Whoever reads a
+ * buffer hands it back with {@link #release(ByteBuffer)} once done with its bytes, and must not
+ * touch it afterwards.
+ *
+ * The pool keeps at most a given number of bytes; a buffer released when the pool is full is
+ * left to the garbage collector. This is plain Java, so it also runs on a desktop JVM. It is
+ * thread safe.
+ */
+public final class EarthquakeBufferPool {
+
+    /** Default number of bytes kept: enough for a couple of large responses */
+    public static final int DEFAULT_MAX_POOLED_BYTES = 16 * 1024 * 1024;
+
+    /** Smallest buffer handed out, which holds a response of about a hundred features */
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    /** Pool shared by the whole process */
+    private static EarthquakeBufferPool sShared;
+
+    private final int mMaxPooledBytes;
+
+    /** Buffers ready to be handed out, oldest first */
+    private final List<ByteBuffer> mFree = new ArrayList<>();
+
+    /** Total capacity of the buffers in {@link #mFree} */
+    private int mPooledBytes;
+
+    /** Returns the pool shared by the whole process, creating it if needed */
+    public static synchronized EarthquakeBufferPool getShared() {
+        if (sShared == null) {
+            sShared = new EarthquakeBufferPool(DEFAULT_MAX_POOLED_BYTES);
+        }
+        return sShared;
+    }
+
+    /**
+     * Create an empty pool.
+     *
+     * @param maxPooledBytes most bytes kept for reuse
+     */
+    public EarthquakeBufferPool(int maxPooledBytes) {
+        mMaxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Returns an empty buffer of at least the given capacity, backed by an array: the smallest
+     * pooled one that is large enough, or a new one.
+     */
+    public synchronized ByteBuffer acquire(int minCapacity) {
+        int best = -1;
+        for (int i = 0; i < mFree.size(); i++) {
+            int capacity = mFree.get(i).capacity();
+            if (capacity >= minCapacity
+                    && (best < 0 || capacity < mFree.get(best).capacity())) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return ByteBuffer.allocate(Math.max(minCapacity, MIN_BUFFER_SIZE));
+        }
+        ByteBuffer buffer = mFree.remove(best);
+        mPooledBytes -= buffer.capacity();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Hand a buffer back for reuse. Nothing may read or write it afterwards. Does nothing if
+     * the buffer is null.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasArray() || buffer.capacity() > mMaxPooledBytes) {
+            return;
+        }
+        // Make room by dropping the oldest buffers.
+        while (mPooledBytes + buffer.capacity() > mMaxPooledBytes) {
+            mPooledBytes -= mFree.remove(0).capacity();
+        }
+        mFree.add(buffer);
+        mPooledBytes += buffer.capacity();
+    }
+
+    /** Returns the number of bytes kept for reuse */
+    public synchronized int getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /** Drop every pooled buffer, for example when the system is low on memory */
+    public synchronized void clear() {
+        mFree.clear();
+        mPooledBytes = 0;
+    }
+
+    /**
+     * Read the whole stream into a pooled buffer and return it flipped: its bytes run from 0
+     * to its limit, at {@link ByteBuffer#arrayOffset()} in its array. Hand it back with
+     * {@link #release(ByteBuffer)} when done.
+     *
+     * @param expectedLength the length of the stream if known (from a Content-Length header),
+     *                       or -1; it only sizes the first buffer
+     */
+    public ByteBuffer readFully(InputStream inputStream, int expectedLength)
+            throws IOException {
+        // One byte more than expected, so reaching the end does not need a larger buffer.
+        ByteBuffer buffer = acquire(expectedLength >= 0 ? expectedLength + 1 : MIN_BUFFER_SIZE);
+        try {
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = acquire(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    release(buffer);
+                    buffer = larger;
+                }
+                int read = inputStream.read(buffer.array(),
+                        buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    break;
+                }
+                buffer.position(buffer.position() + read);
+                // Stop soon after the load is cancelled.
+                EarthquakeLoadExecutor.throwIfInterrupted();
+            }
+        } catch (IOException | RuntimeException e) {
+            release(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
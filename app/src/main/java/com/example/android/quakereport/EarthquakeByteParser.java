@@ -0,0 +1,810 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Parser that reads {@link Earthquake}s straight out of the UTF-8 bytes of a USGS GeoJSON
+ * response, without decoding the response into chars or Strings first.
+ *
+ * It walks the bytes the way {@link EarthquakeStreamParser} walks its JsonReader:
+ * "features[].properties" plus "geometry.coordinates" and "id", skipping everything else. The
+ * numbers are decoded straight from the bytes, and the three Strings (id, place and url) of a
+ * feature are only decoded once its earthquake is built, sharing repeated parts through an
+ * {@link EarthquakeStringPool}. The earthquakes do not keep the buffer, so it can be reused as
+ * soon as the parse returns (see {@link EarthquakeBufferPool}).
+ *
+ * {@link #parseLazily} does not decode the Strings at all, but returns {@link LazyEarthquake}s
+ * that remember their byte ranges and decode them on first use, so only the earthquakes that
+ * are looked at cost String allocations. Their escapes are checked while parsing, so a
+ * malformed one still fails the parse. The buffer must then not be changed afterwards.
+ *
+ * A large response can be parsed on several threads at once: a quick pass over the bytes finds
+ * where each feature starts (only looking at quotes and brackets), then the features are split
+ * into runs that are parsed at the same time. The earthquakes come out in the same order either
+ * way.
+ *
+ * This is plain Java, so it also runs (and can be benchmarked) on a desktop JVM.
+ */
+public final class EarthquakeByteParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] FEATURES = bytes("features");
+    private static final byte[] PROPERTIES = bytes("properties");
+    private static final byte[] GEOMETRY = bytes("geometry");
+    private static final byte[] COORDINATES = bytes("coordinates");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] MAG = bytes("mag");
+    private static final byte[] PLACE = bytes("place");
+    private static final byte[] TIME = bytes("time");
+    private static final byte[] URL = bytes("url");
+    private static final byte[] UPDATED = bytes("updated");
+    private static final byte[] STATUS = bytes("status");
+    private static final byte[] DELETED = bytes("deleted");
+
+    /** Start (inclusive) and end (exclusive) of the bytes of a missing String */
+    static final int MISSING = -1;
+
+    /** Powers of ten that are exact doubles, for the fast path of {@link #readDouble()} */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Default number of threads a response is parsed on */
+    public static final int DEFAULT_THREAD_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Fewest features worth handing to another thread */
+    private static final int MIN_FEATURES_PER_CHUNK = 256;
+
+    /** Pool the chunks of large responses are parsed on, grown as needed */
+    private static EarthquakeLoadExecutor sChunkExecutor;
+
+    private final byte[] mBuffer;
+    private int mPos;
+    private final int mEnd;
+
+    /** Pool the Strings are decoded into, or null to leave them to {@link LazyEarthquake} */
+    private final EarthquakeStringPool mStringPool;
+
+    /** Where each feature starts, filled by {@link #findFeatures()} */
+    private int[] mFeatureStarts;
+    private int mFeatureCount;
+
+    /** Byte range of the last string read, between its quotes */
+    private int mStringStart;
+    private int mStringEnd;
+
+    /** The fields of the feature being read, reused from feature to feature */
+    private double mMagnitude;
+    private int mLocationStart;
+    private int mLocationEnd;
+    private long mTime;
+    private int mUrlStart;
+    private int mUrlEnd;
+    private long mUpdated;
+    private boolean mDeleted;
+    private final double[] mCoordinates = new double[3];
+
+    private EarthquakeByteParser(byte[] buffer, int offset, int length,
+                                 EarthquakeStringPool stringPool) {
+        mBuffer = buffer;
+        mStringPool = stringPool;
+        mPos = offset;
+        mEnd = offset + length;
+    }
+
+    /**
+     * Parse the whole response and return the list of {@link Earthquake}s it contains.
+     */
+    public static List<Earthquake> parse(byte[] buffer, int offset, int length)
+            throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        parse(buffer, offset, length, earthquakes);
+        return earthquakes;
+    }
+
+    /**
+     * Parse the response and add an {@link Earthquake} to the list for every feature. If the
+     * JSON is malformed, the earthquakes parsed before the problem stay in the list.
+     *
+     * @return the number of earthquakes added
+     * @throws IOException if the bytes are not the JSON we expect
+     */
+    public static int parse(byte[] buffer, int offset, int length, List<Earthquake> earthquakes)
+            throws IOException {
+        return new EarthquakeByteParser(buffer, offset, length,
+                EarthquakeStringPool.getShared()).readResponse(earthquakes);
+    }
+
+    /**
+     * Parse the response on up to {@code threadCount} threads, the calling thread being one of
+     * them, and add an {@link Earthquake} to the list for every feature, in order. A response
+     * too small to be worth splitting is parsed on the calling thread only. If the JSON is
+     * malformed, the earthquakes before the problem stay in the list, as with
+     * {@link #parse(byte[], int, int, List)}.
+     *
+     * @return the number of earthquakes added
+     * @throws IOException if the bytes are not the JSON we expect
+     */
+    public static int parse(byte[] buffer, int offset, int length, List<Earthquake> earthquakes,
+                            int threadCount) throws IOException {
+        return parse(buffer, offset, length, earthquakes, threadCount,
+                EarthquakeStringPool.getShared());
+    }
+
+    /**
+     * Like {@link #parse(byte[], int, int, List, int)}, but the Strings are left undecoded in
+     * the buffer until the earthquakes are asked for them (see {@link LazyEarthquake}). The
+     * earthquakes keep the buffer, which must be left as it is and not handed back to a
+     * {@link EarthquakeBufferPool}.
+     */
+    public static int parseLazily(byte[] buffer, int offset, int length,
+                                  List<Earthquake> earthquakes, int threadCount)
+            throws IOException {
+        return parseWithPool(buffer, offset, length, earthquakes, threadCount, null);
+    }
+
+    /**
+     * Like {@link #parse(byte[], int, int, List, int)}, sharing the repeated parts of the
+     * Strings through the given pool rather than the shared one.
+     */
+    public static int parse(byte[] buffer, int offset, int length, List<Earthquake> earthquakes,
+                            int threadCount, EarthquakeStringPool stringPool)
+            throws IOException {
+        if (stringPool == null) {
+            throw new NullPointerException("stringPool == null");
+        }
+        return parseWithPool(buffer, offset, length, earthquakes, threadCount, stringPool);
+    }
+
+    /**
+     * Parse on up to {@code threadCount} threads, decoding the Strings through the pool, or
+     * lazily if it is null.
+     */
+    private static int parseWithPool(byte[] buffer, int offset, int length,
+                                     List<Earthquake> earthquakes, int threadCount,
+                                     EarthquakeStringPool stringPool) throws IOException {
+        if (threadCount <= 1) {
+            return new EarthquakeByteParser(buffer, offset, length, stringPool)
+                    .readResponse(earthquakes);
+        }
+        EarthquakeByteParser finder = new EarthquakeByteParser(buffer, offset, length,
+                stringPool);
+        IOException findError = null;
+        try {
+            finder.findFeatures();
+        } catch (IOException e) {
+            // Still parse the features found before the problem, like the sequential path.
+            findError = e;
+        }
+        final int[] starts = finder.mFeatureStarts;
+        int featureCount = finder.mFeatureCount;
+        int chunkCount = Math.max(1,
+                Math.min(threadCount, featureCount / MIN_FEATURES_PER_CHUNK));
+
+        // Each chunk puts its earthquakes at the index of their feature, so the order is kept
+        // without merging anything.
+        final Earthquake[] results = new Earthquake[featureCount];
+        final int[] parsed = new int[chunkCount];
+        List<Future<Void>> futures = new ArrayList<>(chunkCount - 1);
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            final int index = chunk;
+            final int from = chunkStart(chunk, chunkCount, featureCount);
+            final int to = chunkStart(chunk + 1, chunkCount, featureCount);
+            final EarthquakeByteParser parser =
+                    new EarthquakeByteParser(buffer, offset, length, stringPool);
+            futures.add(getChunkExecutor(chunkCount - 1).submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    parser.readFeatures(starts, from, to, results, parsed, index);
+                    return null;
+                }
+            }));
+        }
+
+        // Parse the first chunk here, then wait for the others.
+        IOException[] errors = new IOException[chunkCount];
+        try {
+            new EarthquakeByteParser(buffer, offset, length, stringPool).readFeatures(starts, 0,
+                    chunkStart(1, chunkCount, featureCount), results, parsed, 0);
+        } catch (IOException e) {
+            errors[0] = e;
+        }
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            Future<Void> future = futures.get(chunk - 1);
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                for (Future<Void> other : futures) {
+                    other.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Cancelled");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    errors[chunk] = (IOException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw cause instanceof RuntimeException
+                            ? (RuntimeException) cause : new RuntimeException(cause);
+                }
+            }
+        }
+
+        // Add the earthquakes in order, up to the first problem.
+        int count = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int from = chunkStart(chunk, chunkCount, featureCount);
+            for (int i = from; i < from + parsed[chunk]; i++) {
+                if (results[i] != null) {
+                    earthquakes.add(results[i]);
+                    count++;
+                }
+            }
+            if (errors[chunk] != null) {
+                throw errors[chunk];
+            }
+        }
+        if (findError != null) {
+            throw findError;
+        }
+        return count;
+    }
+
+    /** Returns the index of the first feature of the chunk */
+    private static int chunkStart(int chunk, int chunkCount, int featureCount) {
+        return (int) ((long) featureCount * chunk / chunkCount);
+    }
+
+    /**
+     * Returns the pool the chunks are parsed on, with at least the given number of threads.
+     */
+    private static synchronized EarthquakeLoadExecutor getChunkExecutor(int threadCount) {
+        if (sChunkExecutor == null) {
+            // Never drop a chunk: the parse waits for every one of them.
+            sChunkExecutor = new EarthquakeLoadExecutor(threadCount, Integer.MAX_VALUE);
+        } else if (sChunkExecutor.getMaximumPoolSize() < threadCount) {
+            sChunkExecutor.setMaximumPoolSize(threadCount);
+            sChunkExecutor.setCorePoolSize(threadCount);
+        }
+        return sChunkExecutor;
+    }
+
+    private int readResponse(List<Earthquake> earthquakes) throws IOException {
+        int count = 0;
+        expect('{');
+        while (nextMember()) {
+            if (nameIs(FEATURES) && peek() == '[') {
+                mPos++;
+                while (nextElement()) {
+                    // Stop soon after the load is cancelled.
+                    EarthquakeLoadExecutor.throwIfInterrupted();
+                    Earthquake earthquake = readFeature();
+                    if (earthquake != null) {
+                        earthquakes.add(earthquake);
+                        count++;
+                    }
+                }
+            } else {
+                skipValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Walk the response like {@link #readResponse(List)}, but only note where each feature
+     * starts in {@link #mFeatureStarts}, skipping over the features without reading them. If
+     * the JSON is malformed, the starts found before the problem are kept.
+     */
+    private void findFeatures() throws IOException {
+        mFeatureStarts = new int[256];
+        mFeatureCount = 0;
+        expect('{');
+        while (nextMember()) {
+            if (nameIs(FEATURES) && peek() == '[') {
+                mPos++;
+                while (nextElement()) {
+                    if (mFeatureCount == mFeatureStarts.length) {
+                        mFeatureStarts = Arrays.copyOf(mFeatureStarts, mFeatureCount * 2);
+                    }
+                    mFeatureStarts[mFeatureCount++] = mPos;
+                    skipContainer();
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    /**
+     * Read the features starting at {@code starts[from]} to {@code starts[to - 1]} into the
+     * same indexes of {@code results}, counting the features read in {@code parsed[chunk]}.
+     */
+    private void readFeatures(int[] starts, int from, int to, Earthquake[] results,
+                              int[] parsed, int chunk) throws IOException {
+        for (int i = from; i < to; i++) {
+            // Stop soon after the load is cancelled.
+            EarthquakeLoadExecutor.throwIfInterrupted();
+            mPos = starts[i];
+            results[i] = readFeature();
+            parsed[chunk]++;
+        }
+    }
+
+    /**
+     * Read a single feature object, returning null if it has no "properties".
+     */
+    private Earthquake readFeature() throws IOException {
+        // USGS puts the "id" after the "properties", so collect everything before building
+        // the earthquake.
+        boolean hasProperties = false;
+        int idStart = MISSING;
+        int idEnd = MISSING;
+        mCoordinates[0] = Double.NaN;
+        mCoordinates[1] = Double.NaN;
+        mCoordinates[2] = Double.NaN;
+        expect('{');
+        while (nextMember()) {
+            int next = peek();
+            if (nameIs(PROPERTIES) && next == '{') {
+                readProperties();
+                hasProperties = true;
+            } else if (nameIs(ID) && next == '"') {
+                readString();
+                idStart = mStringStart;
+                idEnd = mStringEnd;
+            } else if (nameIs(GEOMETRY) && next == '{') {
+                readCoordinates();
+            } else {
+                skipValue();
+            }
+        }
+        if (!hasProperties) {
+            return null;
+        }
+        if (mStringPool == null) {
+            checkEscapes(mBuffer, idStart, idEnd);
+            checkEscapes(mBuffer, mLocationStart, mLocationEnd);
+            checkEscapes(mBuffer, mUrlStart, mUrlEnd);
+            return new LazyEarthquake(mBuffer, idStart, idEnd, mMagnitude, mLocationStart,
+                    mLocationEnd, mTime, mUrlStart, mUrlEnd, mUpdated, mDeleted,
+                    mCoordinates[1], mCoordinates[0], mCoordinates[2]);
+        }
+        return mStringPool.newEarthquake(decode(mBuffer, idStart, idEnd), mMagnitude,
+                decode(mBuffer, mLocationStart, mLocationEnd), mTime,
+                decode(mBuffer, mUrlStart, mUrlEnd), mUpdated, mDeleted, mCoordinates[1],
+                mCoordinates[0], mCoordinates[2]);
+    }
+
+    /**
+     * Read the "properties" object of a feature, keeping only mag, place, time, url, updated
+     * and whether the status is "deleted".
+     */
+    private void readProperties() throws IOException {
+        mMagnitude = 0;
+        mLocationStart = MISSING;
+        mLocationEnd = MISSING;
+        mTime = 0;
+        mUrlStart = MISSING;
+        mUrlEnd = MISSING;
+        mUpdated = 0;
+        mDeleted = false;
+        expect('{');
+        while (nextMember()) {
+            int next = peek();
+            if (next == 'n') {
+                skipValue();
+            } else if (nameIs(MAG)) {
+                mMagnitude = readDouble();
+            } else if (nameIs(PLACE) && next == '"') {
+                readString();
+                mLocationStart = mStringStart;
+                mLocationEnd = mStringEnd;
+            } else if (nameIs(TIME)) {
+                mTime = readLong();
+            } else if (nameIs(URL) && next == '"') {
+                readString();
+                mUrlStart = mStringStart;
+                mUrlEnd = mStringEnd;
+            } else if (nameIs(UPDATED)) {
+                mUpdated = readLong();
+            } else if (nameIs(STATUS) && next == '"') {
+                readString();
+                mDeleted = stringIs(DELETED);
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    /**
+     * Read the "geometry" object of a feature into {@link #mCoordinates} as longitude,
+     * latitude and depth, leaving NaN where missing.
+     */
+    private void readCoordinates() throws IOException {
+        expect('{');
+        while (nextMember()) {
+            if (nameIs(COORDINATES) && peek() == '[') {
+                mPos++;
+                for (int i = 0; nextElement(); i++) {
+                    int next = peek();
+                    if (i < mCoordinates.length && (next == '-' || (next >= '0' && next <= '9'))) {
+                        mCoordinates[i] = readDouble();
+                    } else {
+                        skipValue();
+                    }
+                }
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    /**
+     * Move to the next member of the object being read and read its name, or past the end
+     * of the object. Returns false at the end of the object.
+     */
+    private boolean nextMember() throws IOException {
+        int next = peek();
+        if (next == ',') {
+            mPos++;
+            next = peek();
+        }
+        if (next == '}') {
+            mPos++;
+            return false;
+        }
+        readString();
+        expect(':');
+        return true;
+    }
+
+    /**
+     * Move to the next element of the array being read, or past the end of the array.
+     * Returns false at the end of the array.
+     */
+    private boolean nextElement() throws IOException {
+        int next = peek();
+        if (next == ',') {
+            mPos++;
+            next = peek();
+        }
+        if (next == ']') {
+            mPos++;
+            return false;
+        }
+        return true;
+    }
+
+    /** Skip whitespace and return the next byte, without consuming it */
+    private int peek() throws IOException {
+        while (mPos < mEnd) {
+            byte b = mBuffer[mPos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+            mPos++;
+        }
+        throw new IOException("Unexpected end of the JSON response");
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        mPos++;
+    }
+
+    /** Read a string and remember its byte range in {@link #mStringStart} and {@link #mStringEnd} */
+    private void readString() throws IOException {
+        expect('"');
+        mStringStart = mPos;
+        while (mPos < mEnd) {
+            byte b = mBuffer[mPos];
+            if (b == '"') {
+                mStringEnd = mPos++;
+                return;
+            }
+            // Skip the escaped character, which may be a quote.
+            mPos += b == '\\' ? 2 : 1;
+        }
+        throw new IOException("Unterminated string in the JSON response");
+    }
+
+    /** Returns true if the last string read (a member name, usually) is the given one */
+    private boolean nameIs(byte[] name) {
+        return stringIs(name);
+    }
+
+    private boolean stringIs(byte[] value) {
+        if (mStringEnd - mStringStart != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (mBuffer[mStringStart + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Skip the next value, whatever it is */
+    private void skipValue() throws IOException {
+        int next = peek();
+        if (next == '"') {
+            readString();
+        } else if (next == '{') {
+            mPos++;
+            while (nextMember()) {
+                skipValue();
+            }
+        } else if (next == '[') {
+            mPos++;
+            while (nextElement()) {
+                skipValue();
+            }
+        } else {
+            // A number, true, false or null.
+            int start = mPos;
+            skipLiteral();
+            if (mPos == start) {
+                throw syntaxError("Unexpected character");
+            }
+        }
+    }
+
+    /**
+     * Move past the next value quickly, only looking at quotes, escapes and brackets: whether
+     * the value is well-formed is left to whoever reads it.
+     */
+    private void skipContainer() throws IOException {
+        int next = peek();
+        if (next != '{' && next != '[') {
+            skipValue();
+            return;
+        }
+        int depth = 0;
+        while (mPos < mEnd) {
+            byte b = mBuffer[mPos++];
+            if (b == '"') {
+                while (true) {
+                    if (mPos >= mEnd) {
+                        throw new IOException("Unterminated string in the JSON response");
+                    }
+                    byte c = mBuffer[mPos++];
+                    if (c == '"') {
+                        break;
+                    }
+                    if (c == '\\') {
+                        mPos++;
+                    }
+                }
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return;
+            }
+        }
+        throw new IOException("Unexpected end of the JSON response");
+    }
+
+    /** Move past a number or literal */
+    private void skipLiteral() {
+        while (mPos < mEnd) {
+            byte b = mBuffer[mPos];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r'
+                    || b == '\t') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    /** Read a number as a long, truncating a fractional one */
+    private long readLong() throws IOException {
+        peek();
+        int start = mPos;
+        boolean negative = mBuffer[mPos] == '-';
+        if (negative) {
+            mPos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (mPos < mEnd && mBuffer[mPos] >= '0' && mBuffer[mPos] <= '9') {
+            value = value * 10 + (mBuffer[mPos++] - '0');
+            digits++;
+        }
+        if (digits == 0 || digits > 18 || isNumberPart()) {
+            // Not a plain integer that fits: let the JDK deal with it.
+            mPos = start;
+            return (long) readDouble();
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Read a number as a double. Numbers with at most 15 significant digits and no exponent,
+     * which is all USGS sends, are computed as an exact integer divided by an exact power of
+     * ten, which is correctly rounded just like {@link Double#parseDouble(String)}.
+     */
+    private double readDouble() throws IOException {
+        peek();
+        int start = mPos;
+        boolean negative = mBuffer[mPos] == '-';
+        if (negative) {
+            mPos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        while (mPos < mEnd) {
+            byte b = mBuffer[mPos];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (inFraction) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+            mPos++;
+        }
+        if (digits > 0 && digits <= 15 && !isNumberPart()) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        mPos = start;
+        skipLiteral();
+        try {
+            return Double.parseDouble(new String(mBuffer, start, mPos - start, UTF_8));
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number");
+        }
+    }
+
+    /** Returns true if the number being read goes on (with an exponent, for example) */
+    private boolean isNumberPart() {
+        if (mPos >= mEnd) {
+            return false;
+        }
+        byte b = mBuffer[mPos];
+        return b == 'e' || b == 'E' || b == '.' || b == '+' || b == '-';
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at byte " + mPos + " of the JSON response");
+    }
+
+    /**
+     * Decode the UTF-8 bytes of a JSON string (without its quotes), resolving its escapes.
+     * A missing string decodes to "".
+     *
+     * @throws IOException if an escape is unknown, or is not followed by four hex digits
+     */
+    static String decode(byte[] buffer, int start, int end) throws IOException {
+        if (start == MISSING) {
+            return "";
+        }
+        int backslash = indexOf(buffer, start, end, (byte) '\\');
+        if (backslash < 0) {
+            return new String(buffer, start, end - start, UTF_8);
+        }
+        StringBuilder decoded = new StringBuilder(end - start);
+        int run = start;
+        while (backslash >= 0) {
+            decoded.append(new String(buffer, run, backslash - run, UTF_8));
+            // Surrogate pairs come as two unicode escapes, which append the two halves.
+            decoded.append(unescape(buffer, backslash, end));
+            run = backslash + escapeLength(buffer, backslash);
+            backslash = indexOf(buffer, run, end, (byte) '\\');
+        }
+        decoded.append(new String(buffer, run, end - run, UTF_8));
+        return decoded.toString();
+    }
+
+    /**
+     * Check the escapes of a JSON string the way {@link #decode} reads them, without decoding
+     * anything, so a lazy decode later on cannot fail.
+     *
+     * @throws IOException if an escape is unknown, or is not followed by four hex digits
+     */
+    private static void checkEscapes(byte[] buffer, int start, int end) throws IOException {
+        if (start == MISSING) {
+            return;
+        }
+        int backslash = indexOf(buffer, start, end, (byte) '\\');
+        while (backslash >= 0) {
+            unescape(buffer, backslash, end);
+            backslash = indexOf(buffer, backslash + escapeLength(buffer, backslash), end,
+                    (byte) '\\');
+        }
+    }
+
+    /**
+     * Returns the character the escape starting with the backslash at {@code backslash}
+     * stands for. The string ends at {@code end}.
+     */
+    private static char unescape(byte[] buffer, int backslash, int end) throws IOException {
+        if (backslash + 1 >= end) {
+            throw new IOException("Unterminated escape in the JSON response");
+        }
+        int escape = buffer[backslash + 1];
+        switch (escape) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                return decodeHex(buffer, backslash + 2, end);
+            case '"':
+            case '\\':
+            case '/':
+                // These stand for the character itself.
+                return (char) escape;
+            default:
+                throw new IOException("Unknown escape \\" + (char) escape
+                        + " in the JSON response");
+        }
+    }
+
+    /** Returns the number of bytes of the escape starting at {@code backslash}, checked already */
+    private static int escapeLength(byte[] buffer, int backslash) {
+        return buffer[backslash + 1] == 'u' ? 6 : 2;
+    }
+
+    /**
+     * Returns the character of the four hex digits of a unicode escape, which start at
+     * {@code start} and must end by {@code end}.
+     */
+    private static char decodeHex(byte[] buffer, int start, int end) throws IOException {
+        if (end - start < 4) {
+            throw new IOException("Truncated \\u escape in the JSON response");
+        }
+        int value = 0;
+        for (int i = start; i < start + 4; i++) {
+            // Bytes outside ASCII are negative, which is no digit either.
+            int digit = Character.digit(buffer[i], 16);
+            if (digit < 0) {
+                throw new IOException("Malformed \\u escape in the JSON response");
+            }
+            value = value << 4 | digit;
+        }
+        return (char) value;
+    }
+
+    private static int indexOf(byte[] buffer, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] bytes(String ascii) {
+        return ascii.getBytes(UTF_8);
+    }
+}
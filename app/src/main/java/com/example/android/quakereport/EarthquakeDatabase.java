@@ -0,0 +1,430 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link EarthquakeDatabase} keeps earthquakes in an SQLite table keyed by USGS event id, so
+ * they outlive the process, and answers the list's queries from it one page at a time.
+ *
+ * The table has indexes on time, magnitude and latitude/longitude, which cover the filters of
+ * an {@link EarthquakeQuery}. Earthquakes go in with {@link #upsert(List)}, which writes a
+ * whole response in one transaction through prepared statements: a later revision updates the
+ * stored earthquake in place, a deletion removes it, and a revision that is stored already is
+ * not written at all (which is most of them when the same query is refreshed).
+ *
+ * The SQL goes through a {@link Connection}, so the same code runs on Android
+ * ({@link SqliteDatabaseConnection}) and on a desktop JVM with a JDBC SQLite driver. The
+ * connection is opened and the table created on first use, so create this on any thread but
+ * use it on a background thread. Calls are serialized, so reads wait for a running upsert.
+ */
+public class EarthquakeDatabase implements Closeable {
+
+    /** Version of the schema, bumped whenever it changes; older tables are dropped */
+    static final int SCHEMA_VERSION = 1;
+
+    static final String TABLE = "earthquakes";
+
+    /** Columns, in the order they are bound and read */
+    static final String COLUMNS =
+            "id, magnitude, location, time, url, updated, latitude, longitude, depth";
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_MAGNITUDE = 1;
+    private static final int COLUMN_LOCATION = 2;
+    private static final int COLUMN_TIME = 3;
+    private static final int COLUMN_URL = 4;
+    private static final int COLUMN_LATITUDE = 6;
+    private static final int COLUMN_LONGITUDE = 7;
+    private static final int COLUMN_DEPTH = 8;
+
+    /**
+     * The revision (updated time) stored for an id, or -1 if the earthquake is not stored.
+     * This only reads the primary key index, so an earthquake whose revision is stored already
+     * is skipped without binding, or even decoding, its Strings (see {@link LazyEarthquake}).
+     */
+    private static final String SELECT_UPDATED = "SELECT coalesce(max(updated), -1) FROM "
+            + TABLE + " WHERE id = ?1";
+
+    /** Not a revision: what {@link #SELECT_UPDATED} returns for an earthquake not stored */
+    private static final long NOT_STORED = -1;
+
+    /**
+     * Update a stored earthquake to a later revision. It changes nothing if the stored one is
+     * the same revision or a later one (for example when an old cached response is written
+     * after a fresh one). Without an updated time (0) there is no telling which revision is
+     * newer, so the earthquake is always written.
+     */
+    private static final String UPDATE = "UPDATE " + TABLE + " SET magnitude = ?2,"
+            + " location = ?3, time = ?4, url = ?5, updated = ?6, latitude = ?7,"
+            + " longitude = ?8, depth = ?9 WHERE id = ?1 AND (updated < ?6 OR ?6 = 0)";
+
+    /**
+     * Insert an earthquake that is not stored yet; does nothing if it is stored already. This
+     * is cheaper than INSERT OR REPLACE, which deletes and re-inserts the row and so rewrites
+     * every index entry of it.
+     */
+    private static final String INSERT = "INSERT OR IGNORE INTO " + TABLE + " (" + COLUMNS
+            + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9)";
+
+    private static final String DELETE = "DELETE FROM " + TABLE + " WHERE id = ?1";
+
+    /**
+     * Told after earthquakes were written or removed. Called on the thread that changed the
+     * database.
+     */
+    public interface OnChangeListener {
+        void onDatabaseChanged(EarthquakeDatabase database);
+    }
+
+    /**
+     * A connection to an SQLite database. Statement parameters are numbered from 1 and row
+     * columns from 0, as on Android.
+     */
+    public interface Connection extends Closeable {
+
+        /** Run a statement that returns nothing */
+        void execute(String sql) throws IOException;
+
+        /** Run a query that returns a single number, such as a count */
+        long queryLong(String sql, String[] args) throws IOException;
+
+        void beginTransaction() throws IOException;
+
+        /** Mark the transaction as successful, so {@link #endTransaction()} commits it */
+        void setTransactionSuccessful() throws IOException;
+
+        /** Commit the transaction if it was marked successful, otherwise roll it back */
+        void endTransaction() throws IOException;
+
+        /** Compile a statement to run many times with different parameters */
+        Statement compileStatement(String sql) throws IOException;
+
+        /** Run a query; the caller must close the returned rows */
+        Rows query(String sql, String[] args) throws IOException;
+    }
+
+    /**
+     * A compiled statement. Parameters stay bound until they are bound again.
+     */
+    public interface Statement extends Closeable {
+
+        void bindString(int index, String value) throws IOException;
+
+        void bindDouble(int index, double value) throws IOException;
+
+        void bindLong(int index, long value) throws IOException;
+
+        void bindNull(int index) throws IOException;
+
+        /** Run the statement with the parameters bound */
+        void execute() throws IOException;
+
+        /**
+         * Run an INSERT, UPDATE or DELETE with the parameters bound; returns the rows it
+         * changed
+         */
+        int executeUpdateDelete() throws IOException;
+
+        /** Run a query that returns one row of a single number, with the parameters bound */
+        long simpleQueryForLong() throws IOException;
+    }
+
+    /**
+     * The rows of a query, read forwards once.
+     */
+    public interface Rows extends Closeable {
+
+        /** Move to the next row; returns false once there are no more */
+        boolean moveToNext() throws IOException;
+
+        String getString(int column) throws IOException;
+
+        double getDouble(int column) throws IOException;
+
+        long getLong(int column) throws IOException;
+
+        boolean isNull(int column) throws IOException;
+    }
+
+    private final Connection mConnection;
+
+    /** True once the table has been checked (and created if needed) */
+    private boolean mSchemaReady;
+
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a database on the connection. Nothing is read or written until first use.
+     */
+    public EarthquakeDatabase(Connection connection) {
+        mConnection = connection;
+    }
+
+    public void addOnChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Write the earthquakes in one transaction: insert new ones, update those with an older
+     * revision stored, and remove those marked deleted. Earthquakes without an id are left
+     * out, as they cannot be told apart. Either every earthquake is written or, if this
+     * throws, none is. The listeners are only told if a row was actually written or removed.
+     *
+     * Only the id, updated time and deleted flag of an earthquake that is stored already with
+     * the same revision are looked at, so a {@link LazyEarthquake} of a refresh that brought
+     * nothing new never decodes its location or url.
+     */
+    public void upsert(List<Earthquake> earthquakes) throws IOException {
+        if (earthquakes.isEmpty()) {
+            return;
+        }
+        int changedRows = 0;
+        synchronized (this) {
+            ensureSchema();
+            Statement selectUpdated = null;
+            Statement update = null;
+            Statement insert = null;
+            Statement delete = null;
+            mConnection.beginTransaction();
+            try {
+                selectUpdated = mConnection.compileStatement(SELECT_UPDATED);
+                update = mConnection.compileStatement(UPDATE);
+                insert = mConnection.compileStatement(INSERT);
+                delete = mConnection.compileStatement(DELETE);
+                for (int i = 0; i < earthquakes.size(); i++) {
+                    Earthquake earthquake = earthquakes.get(i);
+                    String id = earthquake.getId();
+                    if (id == null || id.isEmpty()) {
+                        continue;
+                    }
+                    if (earthquake.isDeleted()) {
+                        delete.bindString(1, id);
+                        changedRows += delete.executeUpdateDelete();
+                    } else {
+                        selectUpdated.bindString(1, id);
+                        long storedUpdated = selectUpdated.simpleQueryForLong();
+                        long updated = earthquake.getUpdatedTime();
+                        if (storedUpdated == NOT_STORED) {
+                            bind(insert, earthquake);
+                            changedRows += insert.executeUpdateDelete();
+                        } else if (updated == 0 || storedUpdated < updated) {
+                            bind(update, earthquake);
+                            changedRows += update.executeUpdateDelete();
+                        }
+                        // Otherwise the same or a later revision is stored already.
+                    }
+                }
+                mConnection.setTransactionSuccessful();
+            } finally {
+                closeQuietly(selectUpdated);
+                closeQuietly(update);
+                closeQuietly(insert);
+                closeQuietly(delete);
+                mConnection.endTransaction();
+            }
+        }
+        // Refreshing the same query mostly brings revisions that are stored already; that
+        // should not make every page of the list load again.
+        if (changedRows > 0) {
+            notifyChanged();
+        }
+    }
+
+    /** Bind the columns of the earthquake to the update or insert statement */
+    private static void bind(Statement statement, Earthquake earthquake) throws IOException {
+        statement.bindString(1, earthquake.getId());
+        bindDouble(statement, 2, earthquake.getMagnitude());
+        bindString(statement, 3, earthquake.getLocation());
+        statement.bindLong(4, earthquake.getTimeInMilliseconds());
+        bindString(statement, 5, earthquake.getUrl());
+        statement.bindLong(6, earthquake.getUpdatedTime());
+        bindDouble(statement, 7, earthquake.getLatitude());
+        bindDouble(statement, 8, earthquake.getLongitude());
+        bindDouble(statement, 9, earthquake.getDepth());
+    }
+
+    /** Bind the String, or NULL for null */
+    private static void bindString(Statement statement, int index, String value)
+            throws IOException {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /** Bind the number, or NULL for NaN, which SQLite cannot store */
+    private static void bindDouble(Statement statement, int index, double value)
+            throws IOException {
+        if (!Double.isNaN(value)) {
+            statement.bindDouble(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    /**
+     * Remove the earthquakes that happened before the given time, in milliseconds from the
+     * Epoch, to keep the database from growing without end. The listeners are only told if
+     * any were removed.
+     */
+    public void deleteOlderThan(long time) throws IOException {
+        int deletedRows;
+        synchronized (this) {
+            ensureSchema();
+            Statement delete = mConnection.compileStatement(
+                    "DELETE FROM " + TABLE + " WHERE time < ?1");
+            try {
+                delete.bindLong(1, time);
+                deletedRows = delete.executeUpdateDelete();
+            } finally {
+                closeQuietly(delete);
+            }
+        }
+        if (deletedRows > 0) {
+            notifyChanged();
+        }
+    }
+
+    /**
+     * Returns the number of stored earthquakes matching the query, or of all of them for a
+     * null query.
+     */
+    public synchronized int count(EarthquakeQuery query) throws IOException {
+        ensureSchema();
+        List<String> args = new ArrayList<>();
+        String where = where(query, args);
+        return (int) mConnection.queryLong("SELECT COUNT(*) FROM " + TABLE + where,
+                args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Returns one page of the stored earthquakes matching the query (or all of them for a null
+     * query), newest first: at most {@code limit} of them, skipping the first {@code offset}.
+     * Only the rows of the page are read, straight into the store.
+     */
+    public synchronized EarthquakeStore query(EarthquakeQuery query, int offset, int limit)
+            throws IOException {
+        ensureSchema();
+        List<String> args = new ArrayList<>();
+        String sql = "SELECT " + COLUMNS + " FROM " + TABLE + where(query, args)
+                + " ORDER BY time DESC LIMIT " + limit + " OFFSET " + offset;
+        EarthquakeStore store = new EarthquakeStore(Math.min(limit, 1024));
+        Rows rows = mConnection.query(sql, args.toArray(new String[args.size()]));
+        try {
+            while (rows.moveToNext()) {
+                store.add(rows.getString(COLUMN_ID), getDouble(rows, COLUMN_MAGNITUDE),
+                        nonNull(rows.getString(COLUMN_LOCATION)), rows.getLong(COLUMN_TIME),
+                        nonNull(rows.getString(COLUMN_URL)), getDouble(rows, COLUMN_LATITUDE),
+                        getDouble(rows, COLUMN_LONGITUDE), getDouble(rows, COLUMN_DEPTH));
+            }
+        } finally {
+            closeQuietly(rows);
+        }
+        return store;
+    }
+
+    /**
+     * Returns the WHERE clause of the query, adding its arguments to the list. Every filter is
+     * on an indexed column.
+     */
+    private static String where(EarthquakeQuery query, List<String> args) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder where = new StringBuilder(" WHERE time >= ? AND time < ?");
+        args.add(Long.toString(query.getStartTime()));
+        args.add(Long.toString(query.getEndTime()));
+        if (!Double.isNaN(query.getMinMagnitude())) {
+            where.append(" AND magnitude >= ?");
+            args.add(Double.toString(query.getMinMagnitude()));
+        }
+        if (!Double.isNaN(query.getMaxMagnitude())) {
+            where.append(" AND magnitude <= ?");
+            args.add(Double.toString(query.getMaxMagnitude()));
+        }
+        if (query.hasRectangle()) {
+            where.append(" AND latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?");
+            args.add(Double.toString(query.getMinLatitude()));
+            args.add(Double.toString(query.getMaxLatitude()));
+            args.add(Double.toString(query.getMinLongitude()));
+            args.add(Double.toString(query.getMaxLongitude()));
+        }
+        return where.toString();
+    }
+
+    private static double getDouble(Rows rows, int column) throws IOException {
+        return rows.isNull(column) ? Double.NaN : rows.getDouble(column);
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Create the table and its indexes if they are missing, and drop a table of an older
+     * schema first. The table only holds copies of USGS data, so nothing is lost that a
+     * refresh does not bring back.
+     */
+    private void ensureSchema() throws IOException {
+        if (mSchemaReady) {
+            return;
+        }
+        long version = mConnection.queryLong("PRAGMA user_version", null);
+        if (version != SCHEMA_VERSION) {
+            mConnection.beginTransaction();
+            try {
+                mConnection.execute("DROP TABLE IF EXISTS " + TABLE);
+                mConnection.execute("CREATE TABLE " + TABLE + " ("
+                        + "id TEXT PRIMARY KEY NOT NULL, "
+                        + "magnitude REAL, "
+                        + "location TEXT, "
+                        + "time INTEGER NOT NULL, "
+                        + "url TEXT, "
+                        + "updated INTEGER NOT NULL, "
+                        + "latitude REAL, "
+                        + "longitude REAL, "
+                        + "depth REAL)");
+                mConnection.execute("CREATE INDEX " + TABLE + "_time ON " + TABLE + " (time)");
+                mConnection.execute(
+                        "CREATE INDEX " + TABLE + "_magnitude ON " + TABLE + " (magnitude)");
+                mConnection.execute("CREATE INDEX " + TABLE + "_latitude_longitude ON " + TABLE
+                        + " (latitude, longitude)");
+                mConnection.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+                mConnection.setTransactionSuccessful();
+            } finally {
+                mConnection.endTransaction();
+            }
+        }
+        mSchemaReady = true;
+    }
+
+    private void notifyChanged() {
+        for (OnChangeListener listener : mListeners) {
+            listener.onDatabaseChanged(this);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mConnection.close();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with it either way.
+            }
+        }
+    }
+}
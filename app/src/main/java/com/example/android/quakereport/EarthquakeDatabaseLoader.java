@@ -0,0 +1,130 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Loads one page of the earthquakes stored in an {@link EarthquakeDatabase}: the query only
+ * reads the rows of the page, and the cursor is read straight into an {@link EarthquakeStore}
+ * without making an {@link Earthquake} object per row.
+ *
+ * The loader watches the database while started, so the page is loaded again whenever new
+ * earthquakes are written to it.
+ */
+public class EarthquakeDatabaseLoader extends AsyncTaskLoader<EarthquakeDisplayModel>
+        implements EarthquakeDatabase.OnChangeListener {
+
+    /** Tag for log messages */
+    private static final String LOG_TAG = EarthquakeDatabaseLoader.class.getSimpleName();
+
+    private final EarthquakeDatabase mDatabase;
+
+    /** Filters of the page, or null for every stored earthquake */
+    private final EarthquakeQuery mQuery;
+
+    /** Number of earthquakes before the page, newest first */
+    private final int mOffset;
+
+    /** Largest number of earthquakes on the page */
+    private final int mLimit;
+
+    /** The last result, delivered again straight away when the loader is restarted */
+    private EarthquakeDisplayModel mResult;
+
+    /** Formats the rows on the loader thread */
+    private final EarthquakeRowModelFactory mRowModelFactory;
+
+    /** Handler used to report database changes on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Reports a database change to the loader, on the main thread */
+    private final Runnable mContentChanged = new Runnable() {
+        @Override
+        public void run() {
+            onContentChanged();
+        }
+    };
+
+    /**
+     * Constructs a new {@link EarthquakeDatabaseLoader}.
+     *
+     * @param context of the activity
+     * @param database to read from
+     * @param query filters of the page, or null for every stored earthquake
+     * @param offset number of earthquakes before the page, newest first
+     * @param limit largest number of earthquakes on the page
+     */
+    public EarthquakeDatabaseLoader(Context context, EarthquakeDatabase database,
+                                    EarthquakeQuery query, int offset, int limit) {
+        super(context);
+        mRowModelFactory = new EarthquakeRowModelFactory(context);
+        mDatabase = database;
+        mQuery = query;
+        mOffset = offset;
+        mLimit = limit;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        mDatabase.addOnChangeListener(this);
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(EarthquakeDisplayModel data) {
+        if (isReset()) {
+            return;
+        }
+        mResult = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+        mDatabase.removeOnChangeListener(this);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mMainHandler.removeCallbacks(mContentChanged);
+        mResult = null;
+    }
+
+    @Override
+    public void onDatabaseChanged(EarthquakeDatabase database) {
+        // Called on the thread that wrote to the database.
+        mMainHandler.post(mContentChanged);
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public EarthquakeDisplayModel loadInBackground() {
+        long start = EarthquakeMetrics.start();
+        try {
+            EarthquakeStore store = mDatabase.query(mQuery, mOffset, mLimit);
+            return new EarthquakeDisplayModel(store, mRowModelFactory.createAll(store));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the earthquake database.", e);
+            return null;
+        } finally {
+            EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_LOAD, start);
+        }
+    }
+}
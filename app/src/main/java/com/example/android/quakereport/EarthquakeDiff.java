@@ -0,0 +1,226 @@
+package com.example.android.quakereport;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link EarthquakeDiff} works out which rows changed between two {@link EarthquakeStore}s,
+ * matching earthquakes by their USGS event id, so a refresh only touches the rows that were
+ * inserted, removed or changed.
+ *
+ * Earthquakes found in both stores are kept in place when they are part of the longest run
+ * that appears in the same order in both (found in O(n log n)); any other earthquake is removed
+ * from its old position and inserted at its new one. Computing a diff does not touch any view,
+ * so it can run off the main thread. Only {@link #dispatchTo(RecyclerView.Adapter)} must run on
+ * the main thread.
+ */
+public final class EarthquakeDiff {
+
+    /**
+     * Receives the operations of a diff, in the order they must be applied.
+     */
+    public interface Callback {
+        void onRemoved(int position, int count);
+
+        void onInserted(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int REMOVE = 0;
+    private static final int INSERT = 1;
+    private static final int CHANGE = 2;
+
+    /** Operations as (type, position, count) triples, in the order they must be dispatched */
+    private int[] mOperations = new int[24];
+    private int mOperationCount;
+
+    /** For each new position, the old position of the same earthquake, or -1 if it is new */
+    private final int[] mOldPositions;
+
+    private EarthquakeDiff(int newSize) {
+        mOldPositions = new int[newSize];
+        Arrays.fill(mOldPositions, -1);
+    }
+
+    /**
+     * Compute the difference between the old and the new store.
+     */
+    public static EarthquakeDiff compute(EarthquakeStore oldStore, EarthquakeStore newStore) {
+        int oldSize = oldStore.size();
+        int newSize = newStore.size();
+        EarthquakeDiff diff = new EarthquakeDiff(newSize);
+
+        // Find each new earthquake's old position by id.
+        Map<String, Integer> oldPositionsById = new HashMap<>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositionsById.put(oldStore.getId(i), i);
+        }
+        int[] matched = new int[newSize];
+        for (int j = 0; j < newSize; j++) {
+            Integer oldPosition = oldPositionsById.get(newStore.getId(j));
+            matched[j] = oldPosition != null ? oldPosition : -1;
+        }
+
+        // Keep the longest run of earthquakes that are in the same order in both stores. These
+        // "anchors" stay where they are; everything between two anchors is replaced.
+        int[] anchors = longestIncreasingRun(matched);
+        for (int j : anchors) {
+            diff.mOldPositions[j] = matched[j];
+        }
+
+        // Walk the anchors from the end, so the positions of earlier rows are still the old
+        // positions when their operations are dispatched.
+        int nextOld = oldSize;
+        int nextNew = newSize;
+        for (int k = anchors.length - 1; k >= -1; k--) {
+            int anchorNew = k >= 0 ? anchors[k] : -1;
+            int anchorOld = k >= 0 ? matched[anchorNew] : -1;
+            int removed = nextOld - anchorOld - 1;
+            int inserted = nextNew - anchorNew - 1;
+            if (removed > 0) {
+                diff.add(REMOVE, anchorOld + 1, removed);
+            }
+            if (inserted > 0) {
+                diff.add(INSERT, anchorOld + 1, inserted);
+            }
+            if (k >= 0 && !oldStore.contentEquals(anchorOld, newStore, anchorNew)) {
+                diff.add(CHANGE, anchorOld, 1);
+            }
+            nextOld = anchorOld;
+            nextNew = anchorNew;
+        }
+        return diff;
+    }
+
+    /**
+     * Returns true if the two stores hold the same earthquakes in the same order.
+     */
+    public boolean isEmpty() {
+        return mOperationCount == 0;
+    }
+
+    /**
+     * Returns the old position of the earthquake now at the given position, or -1 if it was
+     * not kept in place (it is new, moved or its row is being replaced).
+     */
+    public int getOldPosition(int newPosition) {
+        return mOldPositions[newPosition];
+    }
+
+    /**
+     * Tell the adapter which rows were removed, inserted and changed. Call this on the main
+     * thread, right after the adapter has switched to the new store.
+     */
+    public void dispatchTo(RecyclerView.Adapter<?> adapter) {
+        dispatchTo(adapter, 0);
+    }
+
+    /**
+     * Tell the adapter which rows were removed, inserted and changed, when the stores are
+     * shown from {@code positionOffset} on (one page of a longer list, for example).
+     */
+    public void dispatchTo(final RecyclerView.Adapter<?> adapter, int positionOffset) {
+        dispatchTo(new Callback() {
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                adapter.notifyItemRangeChanged(position, count);
+            }
+        }, positionOffset);
+    }
+
+    /**
+     * Hand the operations to the callback, with {@code positionOffset} added to every position.
+     */
+    public void dispatchTo(Callback callback, int positionOffset) {
+        for (int i = 0; i < mOperationCount; i++) {
+            int type = mOperations[i * 3];
+            int position = positionOffset + mOperations[i * 3 + 1];
+            int count = mOperations[i * 3 + 2];
+            switch (type) {
+                case REMOVE:
+                    callback.onRemoved(position, count);
+                    break;
+                case INSERT:
+                    callback.onInserted(position, count);
+                    break;
+                default:
+                    callback.onChanged(position, count);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Add an operation, merging it with the previous one when they cover neighbouring rows.
+     */
+    private void add(int type, int position, int count) {
+        if (type == CHANGE && mOperationCount > 0) {
+            int last = (mOperationCount - 1) * 3;
+            // Walking backwards, a change just before the previous change extends it.
+            if (mOperations[last] == CHANGE && mOperations[last + 1] == position + 1) {
+                mOperations[last + 1] = position;
+                mOperations[last + 2] += count;
+                return;
+            }
+        }
+        if ((mOperationCount + 1) * 3 > mOperations.length) {
+            mOperations = Arrays.copyOf(mOperations, mOperations.length * 2);
+        }
+        int next = mOperationCount * 3;
+        mOperations[next] = type;
+        mOperations[next + 1] = position;
+        mOperations[next + 2] = count;
+        mOperationCount++;
+    }
+
+    /**
+     * Returns the indices (in increasing order) of a longest strictly increasing subsequence of
+     * the non-negative values, using patience sorting.
+     */
+    private static int[] longestIncreasingRun(int[] values) {
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int length = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < 0) {
+                continue;
+            }
+            // Binary search for the first run whose tail is not smaller than this value.
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        int[] run = new int[length];
+        for (int k = length - 1, i = length > 0 ? tails[length - 1] : -1; k >= 0; k--) {
+            run[k] = i;
+            i = previous[i];
+        }
+        return run;
+    }
+}
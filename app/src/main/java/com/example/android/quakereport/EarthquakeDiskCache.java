@@ -0,0 +1,265 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link EarthquakeDiskCache} keeps parsed USGS responses on disk, keyed by request URL.
+ *
+ * Every entry remembers the ETag and Last-Modified headers of the response it came from, so
+ * {@link QueryUtils} can revalidate it with a conditional request once it is older than the TTL.
+ * The total size on disk is bounded: the least recently used entries are deleted first.
+ */
+public class EarthquakeDiskCache {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EarthquakeDiskCache.class.getSimpleName();
+
+    /** File name suffix of a cache entry */
+    private static final String ENTRY_SUFFIX = ".quakes";
+
+    /** Version of the on-disk entry format, bumped whenever the format changes */
+    private static final int FORMAT_VERSION = 3;
+
+    /** Directory holding one file per cached URL */
+    private final File mDirectory;
+
+    /** Largest total size (in bytes) of all entries before the oldest ones get evicted */
+    private final long mMaxSizeBytes;
+
+    /** How long (in milliseconds) an entry is served without asking the server */
+    private final long mTtlMillis;
+
+    /**
+     * A cached response: the earthquakes plus what we need to revalidate them.
+     */
+    public static class Entry {
+
+        private final List<Earthquake> mEarthquakes;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mFetchedAtMillis;
+
+        public Entry(List<Earthquake> earthquakes, String eTag, String lastModified,
+                     long fetchedAtMillis) {
+            mEarthquakes = earthquakes;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mFetchedAtMillis = fetchedAtMillis;
+        }
+
+        /** Returns the cached earthquakes */
+        public List<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /** Returns the ETag header of the cached response, or null if there was none */
+        public String getETag() {
+            return mETag;
+        }
+
+        /** Returns the Last-Modified header of the cached response, or null if there was none */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /** Returns when (in milliseconds from the Epoch) the server last confirmed this entry */
+        public long getFetchedAtMillis() {
+            return mFetchedAtMillis;
+        }
+    }
+
+    /**
+     * Create a new {@link EarthquakeDiskCache}.
+     *
+     * @param directory    where the entries are stored (created if needed)
+     * @param maxSizeBytes largest total size of the entries on disk
+     * @param ttlMillis    how long an entry is fresh without revalidation
+     */
+    public EarthquakeDiskCache(File directory, long maxSizeBytes, long ttlMillis) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns true if the entry is younger than the TTL and can be used without revalidation.
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.getFetchedAtMillis() < mTtlMillis;
+    }
+
+    /**
+     * Returns the entry stored for the given URL, or null if there is none (or it is unreadable).
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            // Map the file rather than streaming it, so the earthquake records are read
+            // straight out of the page cache.
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            Entry entry = readEntry(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            // Touch the file so eviction treats it as recently used.
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached earthquakes, dropping them.", e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * Store the entry for the given URL, then evict old entries if the cache is too big.
+     */
+    public synchronized void put(String url, Entry entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the cache directory " + mDirectory);
+            return;
+        }
+        File file = fileFor(url);
+        File tmpFile = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            writeEntry(out, entry);
+            out.close();
+            out = null;
+            // Rename last, so a crash half way through never leaves a truncated entry behind.
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmpFile + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquakes to the cache.", e);
+            tmpFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+        trimToSize();
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits in its maximum size.
+     */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>(Arrays.asList(files));
+        long totalSize = 0;
+        for (File file : entries) {
+            totalSize += file.length();
+        }
+        if (totalSize <= mMaxSizeBytes) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+        for (File file : entries) {
+            if (totalSize <= mMaxSizeBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalSize -= length;
+            }
+        }
+    }
+
+    /**
+     * Returns the file holding the entry of the given URL. The URL is hashed so any URL
+     * makes a valid file name.
+     */
+    private File fileFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder name = new StringBuilder(hash.length * 2 + ENTRY_SUFFIX.length());
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, name.append(ENTRY_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(entry.getFetchedAtMillis());
+        writeNullableString(out, entry.getETag());
+        writeNullableString(out, entry.getLastModified());
+        EarthquakeSnapshot.write(entry.getEarthquakes(), out);
+    }
+
+    private static Entry readEntry(ByteBuffer buffer) throws IOException {
+        try {
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported cache format version " + version);
+            }
+            long fetchedAt = buffer.getLong();
+            String eTag = readNullableString(buffer);
+            String lastModified = readNullableString(buffer);
+            List<Earthquake> earthquakes = EarthquakeSnapshot.read(buffer);
+            return new Entry(earthquakes, eTag, lastModified, fetchedAt);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt cache entry", e);
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            EarthquakeSnapshot.writeString(out, value);
+        }
+    }
+
+    private static String readNullableString(ByteBuffer buffer) throws IOException {
+        return buffer.get() != 0 ? EarthquakeSnapshot.readString(buffer) : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing useful to do here.
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.quakereport;
+
+/**
+ * {@link EarthquakeDisplayModel} is what the loader hands to the list: the
+ * {@link EarthquakeStore} of earthquakes plus, for every row of it, the
+ * {@link EarthquakeRowModel} with the texts and color to show, prepared off the main thread.
+ */
+public final class EarthquakeDisplayModel {
+
+    private final EarthquakeStore mStore;
+    private final EarthquakeRowModel[] mRows;
+
+    /**
+     * @param store the earthquakes
+     * @param rows  the row model of every row of the store, in the same order
+     */
+    public EarthquakeDisplayModel(EarthquakeStore store, EarthquakeRowModel[] rows) {
+        if (store.size() != rows.length) {
+            throw new IllegalArgumentException(
+                    "Got " + rows.length + " rows for " + store.size() + " earthquakes");
+        }
+        mStore = store;
+        mRows = rows;
+    }
+
+    /** Returns the earthquakes */
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    /** Returns the row model of the given position */
+    public EarthquakeRowModel getRow(int position) {
+        return mRows[position];
+    }
+
+    /** Returns the number of rows */
+    public int size() {
+        return mRows.length;
+    }
+}
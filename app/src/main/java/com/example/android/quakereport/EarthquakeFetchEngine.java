@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * {@link EarthquakeFetchEngine} runs many {@link EarthquakeQuery}s at once and merges their
+ * results into one list, newest earthquake first, with every USGS event id only once.
+ *
+ * Each query is cut into time windows that are fetched concurrently on a bounded pool of
+ * threads, so the total time is close to that of the slowest window. A window that comes back
+ * with {@link EarthquakeQuery#MAX_EVENTS_PER_REQUEST} events may have been cut off by USGS, so
+ * it is split in two and both halves are fetched instead.
+ */
+public class EarthquakeFetchEngine {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EarthquakeFetchEngine.class.getSimpleName();
+
+    /** Default number of windows fetched at the same time */
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    /** Default longest time window of a single request (7 days) */
+    public static final long DEFAULT_WINDOW_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /** Newest earthquake first; ties broken by id so the order is stable */
+    static final Comparator<Earthquake> NEWEST_FIRST = new Comparator<Earthquake>() {
+        @Override
+        public int compare(Earthquake a, Earthquake b) {
+            long lhs = a.getTimeInMilliseconds();
+            long rhs = b.getTimeInMilliseconds();
+            if (lhs != rhs) {
+                return lhs > rhs ? -1 : 1;
+            }
+            return a.getId().compareTo(b.getId());
+        }
+    };
+
+    private final ThreadPoolExecutor mExecutor;
+    private final long mWindowMillis;
+
+    /**
+     * Create an engine with the default number of threads and window length.
+     */
+    public EarthquakeFetchEngine() {
+        this(DEFAULT_THREAD_COUNT, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Create an engine.
+     *
+     * @param threadCount  most windows fetched at the same time
+     * @param windowMillis longest time window of a single request
+     */
+    public EarthquakeFetchEngine(int threadCount, long windowMillis) {
+        if (threadCount <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("Thread count and window length must be positive");
+        }
+        mWindowMillis = windowMillis;
+        // Never drop a window, but let cancelling one abort its request.
+        mExecutor = new EarthquakeLoadExecutor(threadCount, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetch every query and return the merged earthquakes, newest first. Windows that fail
+     * are logged and skipped, so the result may be partial. Returns null if the calling
+     * thread is interrupted while waiting.
+     */
+    public List<Earthquake> fetch(Collection<EarthquakeQuery> queries) {
+        CompletionService<WindowResult> completionService =
+                new ExecutorCompletionService<>(mExecutor);
+        List<Future<WindowResult>> futures = new ArrayList<>();
+        for (EarthquakeQuery query : queries) {
+            for (EarthquakeQuery window : query.splitInto(mWindowMillis)) {
+                futures.add(completionService.submit(new WindowTask(window)));
+            }
+        }
+
+        Map<String, Earthquake> earthquakesById = new HashMap<>();
+        List<Earthquake> earthquakesWithoutId = new ArrayList<>();
+        int pending = futures.size();
+        try {
+            while (pending > 0) {
+                WindowResult result = completionService.take().get();
+                pending--;
+                if (result.earthquakes == null) {
+                    Log.e(LOG_TAG, "Problem fetching the window " + result.window);
+                    continue;
+                }
+                if (result.earthquakes.size() >= EarthquakeQuery.MAX_EVENTS_PER_REQUEST
+                        && result.window.canSplit()) {
+                    // USGS may have cut this window off: fetch its two halves instead.
+                    for (EarthquakeQuery half : result.window.split()) {
+                        futures.add(completionService.submit(new WindowTask(half)));
+                        pending++;
+                    }
+                    continue;
+                }
+                for (Earthquake earthquake : result.earthquakes) {
+                    if (earthquake.getId().isEmpty()) {
+                        earthquakesWithoutId.add(earthquake);
+                    } else {
+                        earthquakesById.put(earthquake.getId(), earthquake);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Nobody is waiting for the result anymore: stop the windows still in flight.
+            for (Future<WindowResult> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // WindowTask does not throw, so this only happens on a programming error.
+            throw new RuntimeException(e.getCause());
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>(
+                earthquakesById.size() + earthquakesWithoutId.size());
+        earthquakes.addAll(earthquakesById.values());
+        earthquakes.addAll(earthquakesWithoutId);
+        Collections.sort(earthquakes, NEWEST_FIRST);
+        return earthquakes;
+    }
+
+    /**
+     * Stop the fetch threads once they are idle. The engine cannot be used afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Fetches a single time window.
+     */
+    private static class WindowTask implements Callable<WindowResult> {
+
+        private final EarthquakeQuery mWindow;
+
+        WindowTask(EarthquakeQuery window) {
+            mWindow = window;
+        }
+
+        @Override
+        public WindowResult call() {
+            return new WindowResult(mWindow, QueryUtils.fetchEarthquakeData(mWindow.toUrl()));
+        }
+    }
+
+    /**
+     * The earthquakes of a window, or null if fetching it failed.
+     */
+    private static class WindowResult {
+
+        final EarthquakeQuery window;
+        final List<Earthquake> earthquakes;
+
+        WindowResult(EarthquakeQuery window, List<Earthquake> earthquakes) {
+            this.window = window;
+            this.earthquakes = earthquakes;
+        }
+    }
+}
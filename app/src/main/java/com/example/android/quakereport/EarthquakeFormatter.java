@@ -0,0 +1,102 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Turns earthquake values into the texts shown in the list ("3.2", "Mar 3, 1984", "4:30 PM")
+ * and splits USGS locations into their offset and primary parts.
+ *
+ * This is plain Java, so it also runs (and can be benchmarked) on a desktop JVM. An instance
+ * keeps its formatters and is not thread safe; the static helpers are.
+ */
+public class EarthquakeFormatter {
+
+    /**
+     * The part of the location string from the USGS service that we use to determine
+     * whether or not there is a location offset present ("5km N of Cairo, Egypt").
+     */
+    public static final String LOCATION_SEPARATOR = " of ";
+
+    /** Number of magnitude colors: one per magnitude 0 to 9, plus one for 10 and over */
+    public static final int MAGNITUDE_COLOR_COUNT = 11;
+
+    /** Formatters, created once instead of on every call */
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("LLL dd, yyyy");
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("h:mm a");
+
+    /** Reused for formatting, so no Date is created per call */
+    private final Date mDate = new Date();
+
+    /**
+     * Return the formatted magnitude string showing 1 decimal place (i.e. "3.2")
+     * from a decimal magnitude value.
+     */
+    public String formatMagnitude(double magnitude) {
+        return mMagnitudeFormat.format(magnitude);
+    }
+
+    /**
+     * Return the formatted date string (i.e. "Mar 3, 1984") from a time in milliseconds.
+     */
+    public String formatDate(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mDateFormat.format(mDate);
+    }
+
+    /**
+     * Return the formatted time string (i.e. "4:30 PM") from a time in milliseconds.
+     */
+    public String formatTime(long timeInMilliseconds) {
+        mDate.setTime(timeInMilliseconds);
+        return mTimeFormat.format(mDate);
+    }
+
+    /**
+     * Return the index of the magnitude circle color, from 0 to
+     * {@link #MAGNITUDE_COLOR_COUNT} - 1, for the given magnitude.
+     */
+    public static int getMagnitudeColorIndex(double magnitude) {
+        // floor” of the decimal magnitude value. This means finding the closest integer
+        // less than the decimal value. The floor of the value 1.2 would be the integer 1.
+        int magnitudeFloor = (int) Math.floor(magnitude);
+
+        // Anything outside 0 to 9 gets the last color, the magnitude10plus one.
+        if (magnitudeFloor < 0 || magnitudeFloor >= MAGNITUDE_COLOR_COUNT - 1) {
+            return MAGNITUDE_COLOR_COUNT - 1;
+        }
+        return magnitudeFloor;
+    }
+
+    /**
+     * Returns the offset part of the location, separator included ("5km N of "), or null if
+     * the location has none ("Pacific-Antarctic Ridge").
+     */
+    public static String getLocationOffset(String location) {
+        int separator = location.indexOf(LOCATION_SEPARATOR);
+        return separator >= 0
+                ? location.substring(0, separator + LOCATION_SEPARATOR.length()) : null;
+    }
+
+    /**
+     * Returns the primary part of the location ("Cairo, Egypt"), which is the whole location
+     * if it has no offset.
+     */
+    public static String getPrimaryLocation(String location) {
+        int separator = location.indexOf(LOCATION_SEPARATOR);
+        return separator >= 0
+                ? location.substring(separator + LOCATION_SEPARATOR.length()) : location;
+    }
+
+    /**
+     * Returns the region of a primary location: the part after its last comma ("Egypt" for
+     * "Cairo, Egypt", "CA" for "Aguanga, CA"), or the whole primary location if it has no comma
+     * ("Pacific-Antarctic Ridge").
+     */
+    public static String getRegion(String primaryLocation) {
+        int comma = primaryLocation.lastIndexOf(", ");
+        return comma >= 0 ? primaryLocation.substring(comma + 2) : primaryLocation;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Plain Java helpers that read a USGS GeoJSON response into a String and parse it with
+ * {@link JSONObject}. They use nothing from the Android framework apart from org.json, so they
+ * also run (and can be benchmarked) on a desktop JVM.
+ */
+public final class EarthquakeJson {
+
+    private EarthquakeJson() {
+    }
+
+    /**
+     * Convert the {@link InputStream} into a String which contains the
+     * whole JSON response from the server, line breaks included.
+     *
+     * The bytes are read into a pooled buffer and decoded once, rather than decoded line by
+     * line and copied again into a StringBuilder.
+     */
+    public static String readFromStream(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return "";
+        }
+        EarthquakeBufferPool pool = EarthquakeBufferPool.getShared();
+        ByteBuffer buffer = pool.readFully(inputStream, -1);
+        try {
+            return new String(buffer.array(), buffer.arrayOffset(), buffer.limit(),
+                    Charset.forName("UTF-8"));
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Parse the JSON response and add an {@link Earthquake} to the list for every feature.
+     * If the JSON is malformed, the earthquakes parsed before the problem stay in the list.
+     *
+     * Missing or null values are read the same way as {@link EarthquakeStreamParser} and
+     * {@link EarthquakeByteParser} read them: 0 for numbers, "" for strings, NaN for
+     * coordinates, and a feature without "properties" is skipped. USGS does send a null "mag"
+     * for some events.
+     */
+    public static void extractFeatures(String earthquakeJSON, List<Earthquake> earthquakes)
+            throws JSONException {
+        // Create a JSONObject from the JSON response string
+        JSONObject baseJsonResponse = new JSONObject(earthquakeJSON);
+
+        // Extract the JSONArray associated with the key called "features",
+        // which represents a list of features (or earthquakes).
+        JSONArray earthquakeArray = baseJsonResponse.getJSONArray("features");
+
+        // (IE)Now we begin creating a loop by initializing the counter variable i to be 0.
+        // Before each iteration of the loop we test that the condition. i is less than the
+        // length of the earthquakeArray is still true.
+        // If it is true, we can execute all the lines of code within the loop.
+        // At the end of one iteration, we increase the value of i by 1, indicated here by the
+        // i++ syntax.
+        // And then we can go ahead and loop around again.
+
+        // For each earthquake in the earthquakeArray, create an {@link Earthquake} object
+        for (int i = 0; i < earthquakeArray.length(); i++) {
+
+            // TODO: Get earthquake JSONObject at position i
+            // Get a single earthquake at position i within the list of earthquakes
+
+            // (IE) Next we can pull out the JSON object at the specified position of the earthquakeArray.
+            // We start with position 0, which is the initial value of the counter i variable.
+            JSONObject currentEarthquake = earthquakeArray.getJSONObject(i);
+
+
+            // TODO: Get “properties” JSONObject
+            // (IE) Once we have the current earthquake JSON object, we can extract out the JSON
+            // object associated with the properties key. Remember that this lists out many of
+            // the earthquakes' attributes. As you can see, these JSON objects are deeply nested
+            // within the overall response.
+
+            // For a given earthquake, extract the JSONObject associated with the
+            // key called "properties", which represents a list of all properties
+            // for that earthquake.
+            JSONObject properties = currentEarthquake.optJSONObject("properties");
+            if (properties == null) {
+                continue;
+            }
+
+            // But finally, we're at the level where we can access the individual values of the
+            // properties JSONObject by referring to the key mag for magnitude, place for
+            // location, and time for the time in milliseconds that the earthquake happened.
+            //
+            // For now, we can extract all these values as strings, because we're just displaying
+            // them straight to the screen, and not doing any additional calculation or
+            // formatting on them.
+
+            // Extract the value for the key called "mag"
+            double magnitude = properties.optDouble("mag", 0);
+
+            // Extract the value for the key called "place"
+            String location = optString(properties, "place");
+
+            // Extract the value for the key called "time"
+            long time = properties.optLong("time");
+
+            // Extract the value for the key called "url"
+            String url = optString(properties, "url");
+
+            // Extract the USGS event id of the feature
+            String id = optString(currentEarthquake, "id");
+
+            // Extract when USGS last updated the event, and whether it has been deleted
+            long updated = properties.optLong("updated");
+            boolean deleted = "deleted".equals(optString(properties, "status"));
+
+            // Extract the longitude, latitude and depth from "geometry.coordinates", if there
+            double longitude = Double.NaN;
+            double latitude = Double.NaN;
+            double depth = Double.NaN;
+            JSONObject geometry = currentEarthquake.optJSONObject("geometry");
+            JSONArray coordinates = geometry != null ? geometry.optJSONArray("coordinates") : null;
+            if (coordinates != null) {
+                longitude = coordinates.optDouble(0);
+                latitude = coordinates.optDouble(1);
+                depth = coordinates.optDouble(2);
+            }
+
+            // Create a new {@link Earthquake} object with the id, magnitude, location, time,
+            // url, update details and coordinates from the JSON response. The pool lets it
+            // share repeated places and url prefixes with the earthquakes read before.
+            Earthquake earthquake = EarthquakeStringPool.getShared().newEarthquake(id,
+                    magnitude, location, time, url, updated, deleted, latitude, longitude,
+                    depth);
+
+            // TODO: Add earthquake to list of earthquakes
+            //Then we can create a new earthquake object from these three strings.
+
+            // Add the new {@link Earthquake} to the list of earthquakes.
+            earthquakes.add(earthquake);
+        }
+    }
+
+    /**
+     * Returns the string value of the key, or "" if it is missing or null. (Android's
+     * {@link JSONObject#optString(String)} returns "null" for a null value.)
+     */
+    private static String optString(JSONObject object, String key) {
+        return object.isNull(key) ? "" : object.optString(key);
+    }
+}
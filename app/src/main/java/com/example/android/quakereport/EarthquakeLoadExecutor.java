@@ -0,0 +1,216 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EarthquakeLoadExecutor} runs downloads on a bounded pool of threads and makes
+ * cancelling them stop the work straight away, rather than once it finishes on its own.
+ *
+ * Cancelling a task submitted here with {@code cancel(true)} interrupts its thread, which the
+ * parse loops check between features, and closes whatever the task registered with
+ * {@link #closeOnCancel(Closeable)}. Interrupting alone would not do, as a thread blocked in a
+ * socket read never notices it; closing the request does.
+ *
+ * With a queue limit, the pool applies back-pressure by dropping the oldest queued task when
+ * a new one does not fit, on the basis that the newest request is the one the user is waiting
+ * for. A dropped task is cancelled, so whoever waits for it is woken up.
+ *
+ * This is plain Java, so it also runs on a desktop JVM.
+ */
+public class EarthquakeLoadExecutor extends ThreadPoolExecutor {
+
+    /** Default number of loads run at the same time */
+    public static final int DEFAULT_THREAD_COUNT = 3;
+
+    /** Default number of loads waiting for a thread before the oldest is dropped */
+    public static final int DEFAULT_QUEUE_LIMIT = 6;
+
+    /** How long an idle thread is kept around, in seconds */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** Pool shared by the loaders */
+    private static EarthquakeLoadExecutor sShared;
+
+    /** Task running on the current thread, if it was submitted to one of these pools */
+    private static final ThreadLocal<CancellableTask<?>> sCurrentTask = new ThreadLocal<>();
+
+    /**
+     * Closes the resources of cancelled tasks off the cancelling thread, which is usually the
+     * main thread: aborting an HTTPS connection may write to the network.
+     */
+    private static final ThreadPoolExecutor sCloser = new ThreadPoolExecutor(0, 1,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    /** Returns the pool shared by the loaders, creating it if needed */
+    public static synchronized EarthquakeLoadExecutor getShared() {
+        if (sShared == null) {
+            sShared = new EarthquakeLoadExecutor(DEFAULT_THREAD_COUNT, DEFAULT_QUEUE_LIMIT);
+        }
+        return sShared;
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param threadCount most tasks run at the same time
+     * @param queueLimit  most tasks waiting for a thread before the oldest one is dropped, or
+     *                    {@link Integer#MAX_VALUE} to never drop any
+     */
+    public EarthquakeLoadExecutor(int threadCount, int queueLimit) {
+        super(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                newQueue(queueLimit), new DropOldestPolicy());
+        allowCoreThreadTimeOut(true);
+    }
+
+    private static BlockingQueue<Runnable> newQueue(int queueLimit) {
+        if (queueLimit <= 0) {
+            throw new IllegalArgumentException("The queue must hold at least one task");
+        }
+        if (queueLimit == Integer.MAX_VALUE) {
+            return new LinkedBlockingQueue<>();
+        }
+        return new ArrayBlockingQueue<>(queueLimit);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new CancellableTask<>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new CancellableTask<>(runnable, value);
+    }
+
+    /**
+     * Close the resource if the task running on the current thread is cancelled (with
+     * interruption) before {@link #removeCloseOnCancel(Closeable)} is called. If the task was
+     * cancelled already, the resource is closed straight away. Does nothing when the current
+     * thread is not running a task of these pools.
+     */
+    public static void closeOnCancel(Closeable closeable) {
+        CancellableTask<?> task = sCurrentTask.get();
+        if (task != null) {
+            task.closeOnCancel(closeable);
+        }
+    }
+
+    /** Stop closing the resource when the task running on the current thread is cancelled */
+    public static void removeCloseOnCancel(Closeable closeable) {
+        CancellableTask<?> task = sCurrentTask.get();
+        if (task != null) {
+            task.mCloseables.remove(closeable);
+        }
+    }
+
+    /**
+     * Throw an {@link InterruptedIOException} if the current thread has been interrupted,
+     * leaving it interrupted. Long loops call this to stop soon after being cancelled.
+     */
+    public static void throwIfInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /** Close the resource on the closer thread, ignoring failures */
+    private static void closeLater(final Closeable closeable) {
+        sCloser.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeable.close();
+                } catch (IOException | RuntimeException ignored) {
+                    // It is being thrown away either way.
+                }
+            }
+        });
+    }
+
+    /**
+     * A task that knows what to close when it is cancelled.
+     */
+    private static class CancellableTask<T> extends FutureTask<T> {
+
+        /** Resources to close if the task is cancelled while running */
+        private final List<Closeable> mCloseables = new CopyOnWriteArrayList<>();
+
+        CancellableTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        CancellableTask(Runnable runnable, T value) {
+            super(runnable, value);
+        }
+
+        @Override
+        public void run() {
+            sCurrentTask.set(this);
+            try {
+                super.run();
+            } finally {
+                sCurrentTask.remove();
+                mCloseables.clear();
+            }
+        }
+
+        void closeOnCancel(Closeable closeable) {
+            mCloseables.add(closeable);
+            // Cancelled between the check of the caller and now: close it ourselves.
+            if (isCancelled() && mCloseables.remove(closeable)) {
+                closeLater(closeable);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                for (Closeable closeable : mCloseables) {
+                    if (mCloseables.remove(closeable)) {
+                        closeLater(closeable);
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Makes room for a new task by dropping the oldest queued one, and cancels the dropped
+     * task so nobody waits for it forever. Once the pool is shut down, new tasks are cancelled
+     * instead of run.
+     */
+    private static class DropOldestPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                cancel(runnable);
+                return;
+            }
+            cancel(executor.getQueue().poll());
+            executor.execute(runnable);
+        }
+
+        private static void cancel(Runnable runnable) {
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
+    }
+}
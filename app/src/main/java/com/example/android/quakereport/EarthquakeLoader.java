@@ -2,21 +2,98 @@ package com.example.android.quakereport;
 
         import android.content.AsyncTaskLoader;
         import android.content.Context;
+        import android.os.Handler;
+        import android.os.Looper;
+        import android.os.SystemClock;
 
+        import java.util.ArrayList;
+        import java.util.Arrays;
+        import java.util.Collections;
         import java.util.List;
+        import java.util.Set;
+        import java.util.concurrent.Callable;
+        import java.util.concurrent.CancellationException;
+        import java.util.concurrent.ConcurrentHashMap;
+        import java.util.concurrent.ExecutionException;
+        import java.util.concurrent.Future;
+        import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Loads a list of earthquakes by using an AsyncTask to perform the
- * network request to the given URL.
+ * network request to the given URL. The result is delivered as an
+ * {@link EarthquakeDisplayModel}: the {@link EarthquakeStore} plus the formatted row of every
+ * earthquake, so the list does no formatting on the main thread.
+ *
+ * The work itself runs on the bounded pool shared by every loader
+ * ({@link EarthquakeLoadExecutor#getShared()}). When the loader is stopped, reset or started
+ * again, the load in flight is cancelled: its download is aborted and its parsing stops, so a
+ * load nobody waits for anymore does not keep using the network and the CPU. A load dropped
+ * by the pool to make room for newer ones delivers null.
  */
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+public class EarthquakeLoader extends AsyncTaskLoader<EarthquakeDisplayModel> {
 
     /** Tag for log messages */
     private static final String LOG_TAG = EarthquakeLoader.class.getName();
 
+    /** Default number of earthquakes to collect before publishing a batch */
+    private static final int DEFAULT_BATCH_SIZE = 20;
+
+    /** Default longest time (in milliseconds) to hold parsed earthquakes before publishing */
+    private static final long DEFAULT_BATCH_INTERVAL_MS = 100;
+
+    /**
+     * Receives earthquakes on the main thread while the download is still running, so the
+     * list can start filling up before {@link #loadInBackground()} returns.
+     */
+    public interface OnProgressListener {
+        /**
+         * @param batch        the earthquakes parsed since the previous batch
+         * @param rows         the row models of the batch, in the same order
+         * @param isFirstBatch true for the first batch of a new load, so old data can be cleared
+         */
+        void onEarthquakesParsed(List<Earthquake> batch, List<EarthquakeRowModel> rows,
+                                 boolean isFirstBatch);
+    }
+
     /** Query URL */
     private String mUrl;
 
+    /** Queries to fetch and merge instead of the single URL, or null */
+    private List<EarthquakeQuery> mQueries;
+
+    /** Engine keeping a local copy in sync with USGS instead of the URL, or null */
+    private EarthquakeSyncEngine mSyncEngine;
+
+    /** Engine fetching {@link #mQueries}, shared by every loader */
+    private static EarthquakeFetchEngine sFetchEngine;
+
+    /** The last result, delivered again straight away when the loader is restarted */
+    private EarthquakeDisplayModel mResult;
+
+    /** Loads running on the shared pool, cancelled when the loader stops or loads again */
+    private final Set<Future<EarthquakeDisplayModel>> mRunningLoads =
+            Collections.newSetFromMap(
+                    new ConcurrentHashMap<Future<EarthquakeDisplayModel>, Boolean>());
+
+    /**
+     * Bumped every time the running loads are cancelled, so a load submitted meanwhile sees it.
+     * Batches are tagged with the count their load started with, so the main thread can drop
+     * those of a load that was cancelled or superseded since.
+     */
+    private final AtomicInteger mCancelCount = new AtomicInteger();
+
+    /** Handler used to publish batches on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Listener for progressive results, or null if only the final result is wanted */
+    private volatile OnProgressListener mProgressListener;
+
+    /** Number of earthquakes per published batch */
+    private volatile int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    /** Longest time (in milliseconds) parsed earthquakes are held before publishing */
+    private volatile long mBatchIntervalMs = DEFAULT_BATCH_INTERVAL_MS;
+
     /**
      * Constructs a new {@link EarthquakeLoader}.
      *
@@ -28,22 +105,272 @@ public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
         mUrl = url;
     }
 
+    /**
+     * Constructs a new {@link EarthquakeLoader} that fetches several queries at once and merges
+     * their earthquakes, newest first and without duplicates.
+     *
+     * @param context of the activity
+     * @param queries to load data from
+     */
+    public EarthquakeLoader(Context context, List<EarthquakeQuery> queries) {
+        super(context);
+        mQueries = new ArrayList<>(queries);
+    }
+
+    /**
+     * Constructs a new {@link EarthquakeLoader} that refreshes the earthquakes of a sync engine,
+     * so every load after the first only downloads what changed. Keep the engine around (for
+     * example in a static field) so its local copy outlives the loader.
+     *
+     * @param context of the activity
+     * @param syncEngine to refresh
+     */
+    public EarthquakeLoader(Context context, EarthquakeSyncEngine syncEngine) {
+        super(context);
+        mSyncEngine = syncEngine;
+    }
+
+    /** Returns the fetch engine shared by every loader, creating it if needed */
+    private static synchronized EarthquakeFetchEngine getFetchEngine() {
+        if (sFetchEngine == null) {
+            sFetchEngine = new EarthquakeFetchEngine();
+        }
+        return sFetchEngine;
+    }
+
+    /**
+     * Set the listener that receives earthquakes in batches while they are being downloaded.
+     * A batch is published every {@code batchSize} earthquakes or every
+     * {@code batchIntervalMs} milliseconds, whichever comes first.
+     */
+    public void setOnProgressListener(OnProgressListener listener, int batchSize,
+                                      long batchIntervalMs) {
+        mProgressListener = listener;
+        mBatchSize = Math.max(1, batchSize);
+        mBatchIntervalMs = Math.max(0, batchIntervalMs);
+    }
+
+    /**
+     * Set the listener that receives earthquakes in batches, using the default batch size
+     * and interval.
+     */
+    public void setOnProgressListener(OnProgressListener listener) {
+        setOnProgressListener(listener, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_INTERVAL_MS);
+    }
+
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        // Coming back to the list shows what was loaded before without loading it again,
+        // unless the content was reported as changed meanwhile.
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(EarthquakeDisplayModel data) {
+        if (isReset()) {
+            return;
+        }
+        mResult = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+        cancelRunningLoads();
+    }
+
+    @Override
+    protected void onForceLoad() {
+        // The new load supersedes the one in flight.
+        cancelRunningLoads();
+        super.onForceLoad();
+    }
+
+    /** Called by the framework (API 16 and up) when a load is cancelled or superseded */
+    @Override
+    public void cancelLoadInBackground() {
+        cancelRunningLoads();
+    }
+
+    /** Cancel the loads running on the pool, aborting their downloads */
+    private void cancelRunningLoads() {
+        mCancelCount.incrementAndGet();
+        for (Future<EarthquakeDisplayModel> load : mRunningLoads) {
+            load.cancel(true);
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mResult = null;
     }
 
     /**
      * This is on a background thread.
      */
     @Override
-    public List<Earthquake> loadInBackground() {
+    public EarthquakeDisplayModel loadInBackground() {
+        final int cancelCount = mCancelCount.get();
+        long start = EarthquakeMetrics.start();
+        Future<EarthquakeDisplayModel> load = EarthquakeLoadExecutor.getShared().submit(
+                new Callable<EarthquakeDisplayModel>() {
+                    @Override
+                    public EarthquakeDisplayModel call() {
+                        return load(cancelCount);
+                    }
+                });
+        mRunningLoads.add(load);
+        try {
+            if (mCancelCount.get() != cancelCount) {
+                // Cancelled before it was in mRunningLoads.
+                load.cancel(true);
+            }
+            return load.get();
+        } catch (CancellationException e) {
+            // Cancelled, or dropped by the pool to make room for newer loads. A cancelled
+            // load() may run a little longer, next to the next load; nothing it uses is shared
+            // with that one, and the batches it still publishes are dropped.
+            return null;
+        } catch (InterruptedException e) {
+            load.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException
+                    ? (RuntimeException) cause : new RuntimeException(cause);
+        } finally {
+            mRunningLoads.remove(load);
+            EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_LOAD, start);
+        }
+    }
+
+    /**
+     * Load the earthquakes and format their rows.
+     *
+     * @param cancelCount {@link #mCancelCount} when the load started
+     */
+    private EarthquakeDisplayModel load(int cancelCount) {
+        // A cancelled load may still be running when the next one starts, so every load
+        // formats with its own factory (and so its own date and number formats).
+        EarthquakeRowModelFactory rowModelFactory = new EarthquakeRowModelFactory(getContext());
+        if (mSyncEngine != null) {
+            // Only download what was added, updated or deleted since the last sync.
+            return toDisplayModel(mSyncEngine.sync(), rowModelFactory);
+        }
+        if (mQueries != null) {
+            // Fetch every window of every query in parallel, then merge them.
+            return toDisplayModel(getFetchEngine().fetch(mQueries), rowModelFactory);
+        }
         if (mUrl == null) {
             return null;
         }
 
+        // If someone is listening for progress, show what we have on disk straight away and let
+        // the network request only confirm or replace it. Otherwise publish the earthquakes in
+        // batches as they arrive.
+        BatchPublisher publisher = mProgressListener != null
+                ? new BatchPublisher(cancelCount, rowModelFactory) : null;
+        if (publisher != null) {
+            List<Earthquake> cached = QueryUtils.getCachedEarthquakeData(mUrl);
+            if (cached != null && !cached.isEmpty()) {
+                publisher.publish(cached);
+                publisher = null;
+            }
+        }
+
         // Perform the network request, parse the response, and extract a list of earthquakes.
-        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
-        return earthquakes;
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl, publisher);
+        if (publisher != null) {
+            publisher.flush();
+        }
+        return toDisplayModel(earthquakes, rowModelFactory);
+    }
+
+    /**
+     * Keep the earthquakes in columns rather than as one object per earthquake, and format
+     * every row while still on the loader thread. Returns null for null earthquakes.
+     */
+    private static EarthquakeDisplayModel toDisplayModel(List<Earthquake> earthquakes,
+                                                         EarthquakeRowModelFactory factory) {
+        if (earthquakes == null) {
+            return null;
+        }
+        EarthquakeStore store = EarthquakeStore.from(earthquakes);
+        return new EarthquakeDisplayModel(store, factory.createAll(store));
+    }
+
+    /**
+     * Collects parsed earthquakes on the loader thread and posts them to the main thread in
+     * batches. The first earthquake is published straight away so the first row shows up
+     * without waiting for a full batch. Batches still on their way when the load is cancelled
+     * or superseded are dropped.
+     */
+    private class BatchPublisher implements EarthquakeStreamParser.Listener {
+
+        /** {@link #mCancelCount} when the load started */
+        private final int mCancelCountAtStart;
+        private final EarthquakeRowModelFactory mRowModelFactory;
+        private List<Earthquake> mPending = new ArrayList<>();
+        private long mLastPublishTime;
+        private boolean mFirstBatch = true;
+
+        BatchPublisher(int cancelCount, EarthquakeRowModelFactory rowModelFactory) {
+            mCancelCountAtStart = cancelCount;
+            mRowModelFactory = rowModelFactory;
+        }
+
+        @Override
+        public void onEarthquake(Earthquake earthquake) {
+            mPending.add(earthquake);
+            long now = SystemClock.uptimeMillis();
+            if (mFirstBatch || mPending.size() >= mBatchSize
+                    || now - mLastPublishTime >= mBatchIntervalMs) {
+                flush();
+            }
+        }
+
+        /** Publish whatever is pending, if anything */
+        void flush() {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            List<Earthquake> batch = mPending;
+            mPending = new ArrayList<>();
+            publish(batch);
+        }
+
+        /** Publish the given earthquakes as the next batch */
+        void publish(final List<Earthquake> batch) {
+            // Format the rows here rather than when the main thread binds them.
+            final List<EarthquakeRowModel> rows =
+                    Arrays.asList(mRowModelFactory.createAll(batch));
+            final boolean isFirstBatch = mFirstBatch;
+            mFirstBatch = false;
+            mLastPublishTime = SystemClock.uptimeMillis();
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    OnProgressListener listener = mProgressListener;
+                    if (listener != null && !isReset()
+                            && mCancelCount.get() == mCancelCountAtStart) {
+                        listener.onEarthquakesParsed(batch, rows, isFirstBatch);
+                    }
+                }
+            });
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,251 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * {@link EarthquakeMemoryCache} keeps parsed USGS responses in memory, keyed by normalized
+ * request URL, so opening the same list again (from another screen, after a configuration
+ * change, or from a second loader) needs neither the network nor the parser.
+ *
+ * Entries are fresh for a TTL. The cache holds at most a given number of earthquakes over all
+ * entries and evicts the least recently used entries first. Concurrent requests for the same
+ * URL share one fetch: the first caller runs it and the others wait for its result. If the
+ * first caller is cancelled (its thread is interrupted), the others run the fetch again rather
+ * than sharing in its cancellation.
+ *
+ * Cached lists are unmodifiable, as they are handed to every caller asking for the URL.
+ */
+public class EarthquakeMemoryCache {
+
+    /** Largest number of earthquakes held over all entries */
+    private final int mMaxEarthquakes;
+
+    /** How long (in milliseconds) an entry is served without asking the server */
+    private final long mTtlMillis;
+
+    /** Entries by normalized URL, least recently used first */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Number of earthquakes held over all entries */
+    private int mEarthquakeCount;
+
+    /** Fetches still running, by normalized URL */
+    private final ConcurrentMap<String, FutureTask<List<Earthquake>>> mInFlight =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A cached response: the earthquakes and when they were fetched.
+     */
+    private static class Entry {
+
+        final List<Earthquake> earthquakes;
+        final long fetchedAtMillis;
+
+        Entry(List<Earthquake> earthquakes, long fetchedAtMillis) {
+            this.earthquakes = earthquakes;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxEarthquakes largest number of earthquakes held over all entries
+     * @param ttlMillis      how long an entry is fresh
+     */
+    public EarthquakeMemoryCache(int maxEarthquakes, long ttlMillis) {
+        if (maxEarthquakes <= 0) {
+            throw new IllegalArgumentException("The cache must hold at least one earthquake");
+        }
+        mMaxEarthquakes = maxEarthquakes;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the earthquakes cached for the URL if they are younger than the TTL, otherwise
+     * null.
+     */
+    public List<Earthquake> get(String url) {
+        return get(url, false);
+    }
+
+    /**
+     * Returns the earthquakes cached for the URL, however old they are, or null if nothing is
+     * cached.
+     */
+    public List<Earthquake> getAnyAge(String url) {
+        return get(url, true);
+    }
+
+    private synchronized List<Earthquake> get(String url, boolean anyAge) {
+        Entry entry = mEntries.get(normalizeUrl(url));
+        if (entry == null
+                || (!anyAge && System.currentTimeMillis() - entry.fetchedAtMillis >= mTtlMillis)) {
+            return null;
+        }
+        return entry.earthquakes;
+    }
+
+    /**
+     * Store the earthquakes for the URL, then evict old entries if the cache holds too many
+     * earthquakes. Returns the unmodifiable list that was stored.
+     */
+    public List<Earthquake> put(String url, List<Earthquake> earthquakes) {
+        List<Earthquake> stored = Collections.unmodifiableList(new ArrayList<>(earthquakes));
+        String key = normalizeUrl(url);
+        synchronized (this) {
+            Entry previous = mEntries.put(key, new Entry(stored, System.currentTimeMillis()));
+            if (previous != null) {
+                mEarthquakeCount -= previous.earthquakes.size();
+            }
+            mEarthquakeCount += stored.size();
+            trimToSize();
+        }
+        return stored;
+    }
+
+    /** Forget the earthquakes cached for the URL */
+    public synchronized void remove(String url) {
+        Entry entry = mEntries.remove(normalizeUrl(url));
+        if (entry != null) {
+            mEarthquakeCount -= entry.earthquakes.size();
+        }
+    }
+
+    /** Forget every cached entry */
+    public synchronized void clear() {
+        mEntries.clear();
+        mEarthquakeCount = 0;
+    }
+
+    /**
+     * Returns the fresh earthquakes cached for the URL, or else fetches them with the given
+     * fetcher and caches them. If a fetch of the same URL is already running on another
+     * thread, this waits for it instead of starting a second one. The fetcher runs on the
+     * calling thread; a null result (a failed fetch) is returned but not cached.
+     *
+     * A fetch is cancelled by interrupting the thread running it, or by the fetcher throwing a
+     * {@link CancellationException}. Its result is then thrown away: the cancelled caller gets
+     * an InterruptedException, and the callers waiting for it fetch again.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for another
+     *                              thread's fetch, or while running its own
+     */
+    public List<Earthquake> getOrFetch(String url, final Callable<List<Earthquake>> fetcher)
+            throws InterruptedException {
+        final String key = normalizeUrl(url);
+        while (true) {
+            List<Earthquake> cached = get(url);
+            if (cached != null) {
+                return cached;
+            }
+            FutureTask<List<Earthquake>> task = new FutureTask<>(
+                    new Callable<List<Earthquake>>() {
+                        @Override
+                        public List<Earthquake> call() throws Exception {
+                            List<Earthquake> earthquakes = fetcher.call();
+                            if (Thread.currentThread().isInterrupted()) {
+                                throw new CancellationException("Fetch cancelled");
+                            }
+                            return earthquakes;
+                        }
+                    });
+            FutureTask<List<Earthquake>> running = mInFlight.putIfAbsent(key, task);
+            if (running == null) {
+                // We are the first to ask: fetch on this thread, cache the result, and only
+                // then let later callers go to the cache instead of the in-flight map.
+                try {
+                    task.run();
+                    List<Earthquake> earthquakes = getResult(task);
+                    return earthquakes != null ? put(url, earthquakes) : null;
+                } catch (CancellationException e) {
+                    Thread.interrupted();
+                    throw new InterruptedException("Fetch cancelled");
+                } finally {
+                    mInFlight.remove(key, task);
+                }
+            }
+            try {
+                return getResult(running);
+            } catch (CancellationException e) {
+                // The thread running the fetch was cancelled, but this one still wants the
+                // earthquakes: go round again, and fetch here unless another waiter already
+                // started over.
+                mInFlight.remove(key, running);
+            }
+        }
+    }
+
+    /** Returns the result of a finished or running fetch */
+    private static List<Earthquake> getResult(FutureTask<List<Earthquake>> task)
+            throws InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache holds few enough earthquakes. The
+     * newest entry is kept even if it is too big on its own.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mEarthquakeCount > mMaxEarthquakes && mEntries.size() > 1) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            mEarthquakeCount -= eldest.earthquakes.size();
+        }
+    }
+
+    /**
+     * Returns the cache key of the URL: the scheme and host lower-cased and the query
+     * parameters sorted, so "...?limit=10&format=geojson" and "...?format=geojson&limit=10"
+     * share an entry.
+     */
+    static String normalizeUrl(String url) {
+        int query = url.indexOf('?');
+        String base = query >= 0 ? url.substring(0, query) : url;
+        int hostEnd = base.indexOf('/', base.indexOf("://") + 3);
+        if (hostEnd < 0) {
+            hostEnd = base.length();
+        }
+        StringBuilder key = new StringBuilder(url.length());
+        key.append(base.substring(0, hostEnd).toLowerCase(Locale.US))
+                .append(base.substring(hostEnd));
+        if (query < 0) {
+            return key.toString();
+        }
+        String[] parameters = url.substring(query + 1).split("&");
+        Arrays.sort(parameters);
+        char separator = '?';
+        for (String parameter : parameters) {
+            if (!parameter.isEmpty()) {
+                key.append(separator).append(parameter);
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+}
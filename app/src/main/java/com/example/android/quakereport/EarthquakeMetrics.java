@@ -0,0 +1,296 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link EarthquakeMetrics} times the steps of getting earthquakes on screen (connecting,
+ * waiting for the first byte, reading, parsing, loading, binding) and counts what went through
+ * them (requests, bytes, features), so a "slow to load" report can be told apart from a slow
+ * network, a slow parser or a slow list.
+ *
+ * Timing a step looks like:
+ *
+ *     long start = EarthquakeMetrics.start();
+ *     ... the step ...
+ *     EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_PARSE, start);
+ *
+ * Recording is off by default. While it is off, {@link #start()} returns 0 without reading the
+ * clock and nothing else is done. While it is on, every duration goes into a histogram of
+ * power-of-two microsecond buckets held in preallocated atomic arrays, so recording still
+ * allocates nothing and needs no lock. {@link #snapshot()} copies everything out for a dump.
+ *
+ * This is plain Java, so it also runs on a desktop JVM.
+ */
+public final class EarthquakeMetrics {
+
+    /** Opening the connection: DNS lookup, TCP and TLS handshakes */
+    public static final int TIMER_CONNECT = 0;
+
+    /** From starting the request to getting the response status (time to first byte) */
+    public static final int TIMER_FIRST_BYTE = 1;
+
+    /** Reading a whole response into memory ({@link EarthquakeBufferPool#readFully}) */
+    public static final int TIMER_READ = 2;
+
+    /** Parsing a whole response into earthquakes ({@link QueryUtils#extractFeatureFromJson}) */
+    public static final int TIMER_PARSE = 3;
+
+    /** Reading and parsing a response at once, off the connection */
+    public static final int TIMER_STREAM_PARSE = 4;
+
+    /** A whole load of the loader, from start to result */
+    public static final int TIMER_LOAD = 5;
+
+    /** Binding one row of the list */
+    public static final int TIMER_BIND = 6;
+
+    /** Number of timers */
+    public static final int TIMER_COUNT = 7;
+
+    /** HTTP requests sent */
+    public static final int COUNTER_REQUESTS = 0;
+
+    /** HTTP requests that failed or got an error response */
+    public static final int COUNTER_FAILED_REQUESTS = 1;
+
+    /** Response body bytes received, as transferred (so compressed when gzipped) */
+    public static final int COUNTER_BYTES_RECEIVED = 2;
+
+    /** Earthquakes parsed from responses */
+    public static final int COUNTER_FEATURES_PARSED = 3;
+
+    /** HTTP requests abandoned because their load was cancelled */
+    public static final int COUNTER_CANCELLED_REQUESTS = 4;
+
+    /** Number of counters */
+    public static final int COUNTER_COUNT = 5;
+
+    /**
+     * Number of histogram buckets. Bucket 0 holds durations under 1 microsecond and bucket i
+     * those from 2^(i-1) up to 2^i microseconds; the last one also holds anything longer
+     * (over half an hour).
+     */
+    public static final int BUCKET_COUNT = 32;
+
+    private static final String[] TIMER_NAMES = {
+            "connect", "first_byte", "read", "parse", "stream_parse", "load", "bind"
+    };
+
+    private static final String[] COUNTER_NAMES = {
+            "requests", "failed_requests", "bytes_received", "features_parsed",
+            "cancelled_requests"
+    };
+
+    private static volatile boolean sEnabled;
+
+    /** Per timer: number of durations, their sum and the largest, in nanoseconds */
+    private static final AtomicLongArray sCounts = new AtomicLongArray(TIMER_COUNT);
+    private static final AtomicLongArray sTotalNanos = new AtomicLongArray(TIMER_COUNT);
+    private static final AtomicLongArray sMaxNanos = new AtomicLongArray(TIMER_COUNT);
+
+    /** Per timer, {@link #BUCKET_COUNT} bucket counts */
+    private static final AtomicLongArray sBuckets =
+            new AtomicLongArray(TIMER_COUNT * BUCKET_COUNT);
+
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_COUNT);
+
+    private EarthquakeMetrics() {
+    }
+
+    /** Turn recording on or off. Turning it off keeps what was recorded so far. */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /** Returns true if recording is on */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Returns the start time to hand to {@link #stop(int, long)}, or 0 if recording is off.
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since {@code startNanos} for the timer. Does nothing if the start time
+     * is 0, so a step started while recording was off is not recorded half.
+     */
+    public static void stop(int timer, long startNanos) {
+        if (startNanos != 0 && sEnabled) {
+            record(timer, System.nanoTime() - startNanos);
+        }
+    }
+
+    /** Record a duration for the timer, in nanoseconds */
+    public static void record(int timer, long nanos) {
+        if (!sEnabled) {
+            return;
+        }
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        sCounts.incrementAndGet(timer);
+        sTotalNanos.addAndGet(timer, nanos);
+        long max = sMaxNanos.get(timer);
+        while (nanos > max && !sMaxNanos.compareAndSet(timer, max, nanos)) {
+            max = sMaxNanos.get(timer);
+        }
+        sBuckets.incrementAndGet(timer * BUCKET_COUNT + bucketOf(nanos));
+    }
+
+    /** Add to the counter */
+    public static void count(int counter, long delta) {
+        if (sEnabled) {
+            sCounters.addAndGet(counter, delta);
+        }
+    }
+
+    /** Forget everything recorded so far */
+    public static void reset() {
+        for (int i = 0; i < TIMER_COUNT; i++) {
+            sCounts.set(i, 0);
+            sTotalNanos.set(i, 0);
+            sMaxNanos.set(i, 0);
+        }
+        for (int i = 0; i < sBuckets.length(); i++) {
+            sBuckets.set(i, 0);
+        }
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            sCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns a copy of everything recorded so far. Recording goes on while the copy is made,
+     * so the figures of a timer may be off by the durations recorded meanwhile.
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /** Returns the name of the timer, as used in dumps */
+    public static String getTimerName(int timer) {
+        return TIMER_NAMES[timer];
+    }
+
+    /** Returns the name of the counter, as used in dumps */
+    public static String getCounterName(int counter) {
+        return COUNTER_NAMES[counter];
+    }
+
+    /** Returns the histogram bucket of a duration */
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        // 64 - leading zeros is the bit length: 0 for 0, 1 for 1, 2 for 2 and 3, ...
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * An unchanging copy of the recorded metrics.
+     */
+    public static final class Snapshot {
+
+        private final long[] mCounts = new long[TIMER_COUNT];
+        private final long[] mTotalNanos = new long[TIMER_COUNT];
+        private final long[] mMaxNanos = new long[TIMER_COUNT];
+        private final long[] mBuckets = new long[TIMER_COUNT * BUCKET_COUNT];
+        private final long[] mCounters = new long[COUNTER_COUNT];
+
+        private Snapshot() {
+            for (int i = 0; i < TIMER_COUNT; i++) {
+                mCounts[i] = sCounts.get(i);
+                mTotalNanos[i] = sTotalNanos.get(i);
+                mMaxNanos[i] = sMaxNanos.get(i);
+            }
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = sBuckets.get(i);
+            }
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                mCounters[i] = sCounters.get(i);
+            }
+        }
+
+        /** Returns the number of durations recorded for the timer */
+        public long getCount(int timer) {
+            return mCounts[timer];
+        }
+
+        /** Returns the sum of the durations recorded for the timer, in nanoseconds */
+        public long getTotalNanos(int timer) {
+            return mTotalNanos[timer];
+        }
+
+        /** Returns the longest duration recorded for the timer, in nanoseconds */
+        public long getMaxNanos(int timer) {
+            return mMaxNanos[timer];
+        }
+
+        /** Returns the number of durations of the timer in the histogram bucket */
+        public long getBucketCount(int timer, int bucket) {
+            return mBuckets[timer * BUCKET_COUNT + bucket];
+        }
+
+        /**
+         * Returns an upper bound of the given percentile (0 to 100) of the durations of the
+         * timer, in nanoseconds: the end of the bucket it falls in, or the longest duration
+         * if that is smaller. Returns 0 if nothing was recorded.
+         */
+        public long getPercentileNanos(int timer, double percentile) {
+            long count = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                count += getBucketCount(timer, bucket);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+                seen += getBucketCount(timer, bucket);
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(mMaxNanos[timer], (1L << bucket) * 1000);
+                }
+            }
+            return mMaxNanos[timer];
+        }
+
+        /** Returns the value of the counter */
+        public long getCounter(int counter) {
+            return mCounters[counter];
+        }
+
+        /**
+         * Returns the snapshot as text, one metric per line, i.e.
+         * "parse count=12 mean=3.10ms p50=4.10ms p99=8.19ms max=7.66ms".
+         */
+        @Override
+        public String toString() {
+            StringBuilder dump = new StringBuilder(512);
+            for (int timer = 0; timer < TIMER_COUNT; timer++) {
+                long count = mCounts[timer];
+                dump.append(TIMER_NAMES[timer]).append(" count=").append(count);
+                if (count > 0) {
+                    dump.append(" mean=").append(millis(mTotalNanos[timer] / count))
+                            .append(" p50=").append(millis(getPercentileNanos(timer, 50)))
+                            .append(" p90=").append(millis(getPercentileNanos(timer, 90)))
+                            .append(" p99=").append(millis(getPercentileNanos(timer, 99)))
+                            .append(" max=").append(millis(mMaxNanos[timer]));
+                }
+                dump.append('\n');
+            }
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                dump.append(COUNTER_NAMES[counter]).append('=').append(mCounters[counter])
+                        .append('\n');
+            }
+            return dump.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.US, "%.2fms", nanos / 1e6);
+        }
+    }
+}
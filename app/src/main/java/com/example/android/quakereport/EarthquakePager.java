@@ -0,0 +1,341 @@
+package com.example.android.quakereport;
+
+import android.app.LoaderManager;
+import android.content.Context;
+import android.content.Loader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link EarthquakePager} browses a query of any size one page at a time, using the USGS
+ * "offset" and "limit" parameters, so only a few pages of earthquakes are in memory at once.
+ *
+ * Every page is loaded by its own {@link EarthquakeLoader}. The list tells the pager which
+ * position it is showing through {@link #onPositionShown(int)}; the pager then makes sure the
+ * page of that position and the one after it are loaded (which is how the list grows as the
+ * user nears its end) and drops the pages too far away, destroying their loaders. Coming back
+ * to a dropped page loads it again, usually from {@link QueryUtils}' caches.
+ *
+ * The number of rows only counts the pages seen so far, so it grows page by page until a page
+ * comes back short, which marks the end of the query. A page loaded again can move the end:
+ * coming back shorter drops the rows (and pages) after it, coming back full lets the list grow
+ * again. All of this happens on the main thread.
+ *
+ * A page that is loaded again (because the database changed, say) is diffed against the one
+ * it replaces, by event id and shown content, so only the rows that changed are told about.
+ *
+ * With a database set ({@link #setDatabase(EarthquakeDatabase)}), the pages are read from the
+ * earthquakes stored there instead of being downloaded.
+ */
+public class EarthquakePager implements LoaderManager.LoaderCallbacks<EarthquakeDisplayModel> {
+
+    /** Default number of earthquakes per page */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** Default number of pages kept on each side of the page being shown */
+    public static final int DEFAULT_PAGE_RADIUS = 2;
+
+    /**
+     * Told on the main thread when rows got their earthquakes, when a page loaded again
+     * changed, or when rows were added or removed at the end.
+     */
+    public interface Listener {
+
+        /** The earthquakes of the rows in the range were loaded */
+        void onRowsLoaded(int positionStart, int itemCount);
+
+        /**
+         * The page starting at the position was loaded again, and the diff has the rows that
+         * were removed, inserted or changed in it. Rows after the page move along with it.
+         */
+        void onPageChanged(int positionStart, EarthquakeDiff diff);
+
+        /** Rows were added at the end, which now holds {@code newCount} rows */
+        void onRowsAdded(int oldCount, int newCount);
+
+        /** The rows from {@code newCount} on were removed; there were {@code oldCount} */
+        void onRowsRemoved(int oldCount, int newCount);
+    }
+
+    private final Context mContext;
+    private final LoaderManager mLoaderManager;
+    private final EarthquakeQuery mQuery;
+    private final int mPageSize;
+    private final int mPageRadius;
+
+    /** Loader id of page 0; page n uses this id plus n */
+    private final int mFirstLoaderId;
+
+    /**
+     * Loaded pages, by page number. Looking a page up does not box its number, so binding a
+     * row does not allocate.
+     */
+    private final SparseArray<EarthquakeDisplayModel> mPages = new SparseArray<>();
+
+    /** Pages whose loader is running */
+    private final Set<Integer> mLoading = new HashSet<>();
+
+    /** Number of rows known to exist so far */
+    private int mCount;
+
+    /** True once a short page showed where the query ends */
+    private boolean mReachedEnd;
+
+    /** Page of the position the list showed last */
+    private int mCurrentPage;
+
+    private Listener mListener;
+
+    /** Database the pages are read from, or null to download them */
+    private EarthquakeDatabase mDatabase;
+
+    /** Handler used to update the pages after the list is done binding */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** True while {@link #mUpdatePages} is posted */
+    private boolean mUpdatePosted;
+
+    /**
+     * Loads and drops pages for {@link #mCurrentPage}. Posted rather than run from
+     * {@link #onPositionShown(int)}, as a loader delivering a result straight away would
+     * otherwise change the list while it is binding a row.
+     */
+    private final Runnable mUpdatePages = new Runnable() {
+        @Override
+        public void run() {
+            mUpdatePosted = false;
+            updatePages();
+        }
+    };
+
+    /**
+     * Create a pager with the default page size and page radius.
+     *
+     * @param firstLoaderId loader id of the first page; the ids after it are used for the
+     *                      next pages, so keep them clear of other loaders
+     */
+    public EarthquakePager(Context context, LoaderManager loaderManager, EarthquakeQuery query,
+                           int firstLoaderId) {
+        this(context, loaderManager, query, firstLoaderId, DEFAULT_PAGE_SIZE,
+                DEFAULT_PAGE_RADIUS);
+    }
+
+    /**
+     * Create a pager.
+     *
+     * @param firstLoaderId loader id of the first page; the ids after it are used for the
+     *                      next pages, so keep them clear of other loaders
+     * @param pageSize      number of earthquakes per page
+     * @param pageRadius    number of pages kept on each side of the page being shown, so at
+     *                      most {@code 2 * pageRadius + 1} pages are in memory
+     */
+    public EarthquakePager(Context context, LoaderManager loaderManager, EarthquakeQuery query,
+                           int firstLoaderId, int pageSize, int pageRadius) {
+        if (pageSize <= 0 || pageSize > EarthquakeQuery.MAX_EVENTS_PER_REQUEST) {
+            throw new IllegalArgumentException("Page size out of range: " + pageSize);
+        }
+        if (pageRadius < 1) {
+            throw new IllegalArgumentException("Keep at least one page on each side");
+        }
+        mContext = context;
+        mLoaderManager = loaderManager;
+        mQuery = query;
+        mFirstLoaderId = firstLoaderId;
+        mPageSize = pageSize;
+        mPageRadius = pageRadius;
+    }
+
+    /** Set the listener told about loaded and added rows */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Read the pages from the earthquakes stored in the database rather than downloading them,
+     * or pass null to download them again. Call this before {@link #start()}.
+     */
+    public void setDatabase(EarthquakeDatabase database) {
+        mDatabase = database;
+    }
+
+    /** Start loading the first pages */
+    public void start() {
+        updatePages();
+    }
+
+    /** Drop every page and destroy their loaders */
+    public void stop() {
+        mMainHandler.removeCallbacks(mUpdatePages);
+        mUpdatePosted = false;
+        for (Integer page : pagesHeld()) {
+            dropPage(page);
+        }
+    }
+
+    /** Returns the number of rows known to exist so far */
+    public int getCount() {
+        return mCount;
+    }
+
+    /** Returns true once the end of the query has been seen */
+    public boolean hasReachedEnd() {
+        return mReachedEnd;
+    }
+
+    /** Returns the number of earthquakes per page */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns the row model of the position, or null while its page is not in memory.
+     */
+    public EarthquakeRowModel getRow(int position) {
+        EarthquakeDisplayModel page = mPages.get(position / mPageSize);
+        int index = position % mPageSize;
+        return page != null && index < page.size() ? page.getRow(index) : null;
+    }
+
+    /**
+     * Returns the earthquake at the position as a new {@link Earthquake} object, or null
+     * while its page is not in memory.
+     */
+    public Earthquake getItem(int position) {
+        EarthquakeDisplayModel page = mPages.get(position / mPageSize);
+        int index = position % mPageSize;
+        return page != null && index < page.size() ? page.getStore().get(index) : null;
+    }
+
+    /**
+     * Tell the pager the list is showing the position, typically from
+     * {@code onBindViewHolder}. Pages are loaded and dropped shortly after, on the main thread.
+     */
+    public void onPositionShown(int position) {
+        mCurrentPage = position / mPageSize;
+        if (!mUpdatePosted) {
+            mUpdatePosted = true;
+            mMainHandler.post(mUpdatePages);
+        }
+    }
+
+    /**
+     * Load the current page and the one after it, as far as they are known to exist, and drop
+     * the pages further away than the radius.
+     */
+    private void updatePages() {
+        for (int page = mCurrentPage; page <= mCurrentPage + 1; page++) {
+            // Before the end is known, the page right after the known rows may exist too.
+            int pageStart = page * mPageSize;
+            boolean exists = mReachedEnd ? pageStart < mCount : pageStart <= mCount;
+            if (exists && mPages.indexOfKey(page) < 0 && !mLoading.contains(page)) {
+                mLoading.add(page);
+                mLoaderManager.initLoader(mFirstLoaderId + page, null, this);
+            }
+        }
+        for (Integer page : pagesHeld()) {
+            if (Math.abs(page - mCurrentPage) > mPageRadius) {
+                dropPage(page);
+            }
+        }
+    }
+
+    /** Returns every page loaded or loading */
+    private List<Integer> pagesHeld() {
+        List<Integer> pages = new ArrayList<>(mLoading);
+        for (int i = 0; i < mPages.size(); i++) {
+            pages.add(mPages.keyAt(i));
+        }
+        return pages;
+    }
+
+    /** Forget the page and destroy its loader, which lets go of its earthquakes */
+    private void dropPage(int page) {
+        mPages.remove(page);
+        mLoading.remove(page);
+        mLoaderManager.destroyLoader(mFirstLoaderId + page);
+    }
+
+    @Override
+    public Loader<EarthquakeDisplayModel> onCreateLoader(int id, Bundle args) {
+        int page = id - mFirstLoaderId;
+        if (mDatabase != null) {
+            return new EarthquakeDatabaseLoader(mContext, mDatabase, mQuery, page * mPageSize,
+                    mPageSize);
+        }
+        return new EarthquakeLoader(mContext, mQuery.toPageUrl(page * mPageSize, mPageSize));
+    }
+
+    @Override
+    public void onLoadFinished(Loader<EarthquakeDisplayModel> loader,
+                               EarthquakeDisplayModel earthquakes) {
+        int page = loader.getId() - mFirstLoaderId;
+        mLoading.remove(page);
+        if (earthquakes == null) {
+            // Leave the page out; showing one of its rows again retries it.
+            mLoaderManager.destroyLoader(loader.getId());
+            return;
+        }
+        if (Math.abs(page - mCurrentPage) > mPageRadius) {
+            // The list moved on while this page was loading.
+            mLoaderManager.destroyLoader(loader.getId());
+            return;
+        }
+        EarthquakeDisplayModel oldPage = mPages.get(page);
+        mPages.put(page, earthquakes);
+
+        int pageStart = page * mPageSize;
+        int pageEnd = pageStart + earthquakes.size();
+        int oldCount = mCount;
+        if (earthquakes.size() < mPageSize) {
+            // A short page is the last one, even if the query used to go on further.
+            mReachedEnd = true;
+            mCount = pageEnd;
+            for (Integer later : pagesHeld()) {
+                if (later > page) {
+                    dropPage(later);
+                }
+            }
+        } else if (!mReachedEnd || pageEnd > mCount) {
+            // A full page going past the known end: there may be more after it.
+            mReachedEnd = false;
+            mCount = Math.max(mCount, pageEnd);
+        }
+        if (mListener != null) {
+            if (oldPage != null) {
+                // Only tell about the rows that actually changed. The diff also moves the rows
+                // after the page by the number of rows it gained or lost.
+                EarthquakeDiff diff = EarthquakeDiff.compute(oldPage.getStore(),
+                        earthquakes.getStore());
+                if (!diff.isEmpty()) {
+                    mListener.onPageChanged(pageStart, diff);
+                }
+                oldCount += earthquakes.size() - oldPage.size();
+            } else {
+                int loadedBefore = Math.min(Math.min(oldCount, mCount) - pageStart,
+                        earthquakes.size());
+                if (loadedBefore > 0) {
+                    mListener.onRowsLoaded(pageStart, loadedBefore);
+                }
+            }
+            if (mCount > oldCount) {
+                mListener.onRowsAdded(oldCount, mCount);
+            } else if (mCount < oldCount) {
+                mListener.onRowsRemoved(oldCount, mCount);
+            }
+        }
+        // With the list grown, the next page may be wanted now.
+        updatePages();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<EarthquakeDisplayModel> loader) {
+        mPages.remove(loader.getId() - mFirstLoaderId);
+    }
+}
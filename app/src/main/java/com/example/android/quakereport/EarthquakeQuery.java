@@ -0,0 +1,240 @@
+package com.example.android.quakereport;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * {@link EarthquakeQuery} describes one USGS query: a time window, a magnitude range and
+ * optionally a latitude/longitude rectangle. It knows how to turn itself into a request URL
+ * and how to split its time window into smaller ones.
+ */
+public class EarthquakeQuery {
+
+    /** Base URL of the USGS event query service */
+    private static final String USGS_QUERY_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    /** Most events USGS returns for a single query */
+    public static final int MAX_EVENTS_PER_REQUEST = 20000;
+
+    /** Start of the time window, in milliseconds from the Epoch (inclusive) */
+    private final long mStartTime;
+
+    /** End of the time window, in milliseconds from the Epoch (exclusive) */
+    private final long mEndTime;
+
+    /** Smallest magnitude, or NaN for no limit */
+    private final double mMinMagnitude;
+
+    /** Largest magnitude, or NaN for no limit */
+    private final double mMaxMagnitude;
+
+    /** Rectangle to search, or all NaN for the whole world */
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+
+    /**
+     * Create a query for every earthquake in the time window.
+     *
+     * @param startTime start of the window, in milliseconds from the Epoch (inclusive)
+     * @param endTime   end of the window, in milliseconds from the Epoch (exclusive)
+     */
+    public EarthquakeQuery(long startTime, long endTime) {
+        this(startTime, endTime, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Create a query for the earthquakes in the time window and magnitude range.
+     * Pass NaN for a magnitude with no limit.
+     */
+    public EarthquakeQuery(long startTime, long endTime, double minMagnitude,
+                           double maxMagnitude) {
+        this(startTime, endTime, minMagnitude, maxMagnitude,
+                Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Create a query for the earthquakes in the time window, magnitude range and rectangle.
+     * Pass NaN for a magnitude with no limit, and NaN for all four bounds to search the whole
+     * world.
+     */
+    public EarthquakeQuery(long startTime, long endTime, double minMagnitude,
+                           double maxMagnitude, double minLatitude, double maxLatitude,
+                           double minLongitude, double maxLongitude) {
+        if (endTime <= startTime) {
+            throw new IllegalArgumentException("Empty time window");
+        }
+        mStartTime = startTime;
+        mEndTime = endTime;
+        mMinMagnitude = minMagnitude;
+        mMaxMagnitude = maxMagnitude;
+        mMinLatitude = minLatitude;
+        mMaxLatitude = maxLatitude;
+        mMinLongitude = minLongitude;
+        mMaxLongitude = maxLongitude;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /** Returns the smallest magnitude, or NaN for no limit */
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    /** Returns the largest magnitude, or NaN for no limit */
+    public double getMaxMagnitude() {
+        return mMaxMagnitude;
+    }
+
+    /** Returns true if the query only covers a latitude/longitude rectangle */
+    public boolean hasRectangle() {
+        return !Double.isNaN(mMinLatitude);
+    }
+
+    public double getMinLatitude() {
+        return mMinLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return mMaxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return mMinLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return mMaxLongitude;
+    }
+
+    /**
+     * Returns the same query over a different time window.
+     */
+    public EarthquakeQuery withTimeWindow(long startTime, long endTime) {
+        return new EarthquakeQuery(startTime, endTime, mMinMagnitude, mMaxMagnitude,
+                mMinLatitude, mMaxLatitude, mMinLongitude, mMaxLongitude);
+    }
+
+    /**
+     * Returns true if the time window is long enough to be split in two.
+     */
+    public boolean canSplit() {
+        return mEndTime - mStartTime > 1;
+    }
+
+    /**
+     * Split the time window into two halves.
+     */
+    public EarthquakeQuery[] split() {
+        long middle = mStartTime + (mEndTime - mStartTime) / 2;
+        return new EarthquakeQuery[] {
+                withTimeWindow(mStartTime, middle),
+                withTimeWindow(middle, mEndTime)
+        };
+    }
+
+    /**
+     * Split the time window into consecutive windows no longer than the given length.
+     */
+    public EarthquakeQuery[] splitInto(long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window length must be positive");
+        }
+        int count = (int) Math.max(1, (mEndTime - mStartTime + windowMillis - 1) / windowMillis);
+        EarthquakeQuery[] windows = new EarthquakeQuery[count];
+        for (int i = 0; i < count; i++) {
+            long start = mStartTime + i * windowMillis;
+            windows[i] = withTimeWindow(start, Math.min(mEndTime, start + windowMillis));
+        }
+        return windows;
+    }
+
+    /**
+     * Returns the USGS request URL of this query, newest earthquakes first.
+     */
+    public String toUrl() {
+        return toUrl(MAX_EVENTS_PER_REQUEST);
+    }
+
+    /**
+     * Returns the USGS request URL of this query, newest earthquakes first and at most
+     * {@code limit} of them.
+     */
+    public String toUrl(int limit) {
+        return buildUrl(limit, newUtcFormat()).toString();
+    }
+
+    /**
+     * Returns the USGS request URL of one page of this query: at most {@code limit}
+     * earthquakes, newest first, skipping the first {@code offset} of them. As long as the
+     * time window has ended, the pages of a query do not move.
+     *
+     * @param offset number of earthquakes to skip, from 0
+     */
+    public String toPageUrl(int offset, int limit) {
+        // USGS counts its offset from 1.
+        return buildUrl(limit, newUtcFormat())
+                .append("&offset=").append(offset + 1)
+                .toString();
+    }
+
+    /**
+     * Returns the USGS request URL for the events of this query that were added, updated or
+     * deleted after the given time, newest earthquakes first and at most {@code limit} of
+     * them. Deleted events are included, with the status "deleted".
+     *
+     * @param updatedAfter time in milliseconds from the Epoch, usually the latest "updated"
+     *                     time seen in a previous response
+     */
+    public String toDeltaUrl(long updatedAfter, int limit) {
+        SimpleDateFormat format = newUtcFormat();
+        return buildUrl(limit, format)
+                .append("&updatedafter=").append(format.format(new Date(updatedAfter)))
+                .append("&includedeleted=true")
+                .toString();
+    }
+
+    /** Returns a new formatter for the UTC times USGS expects */
+    private static SimpleDateFormat newUtcFormat() {
+        // SimpleDateFormat is not thread safe, so every call gets its own.
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private StringBuilder buildUrl(int limit, SimpleDateFormat format) {
+        StringBuilder url = new StringBuilder(USGS_QUERY_URL)
+                .append("?format=geojson&eventtype=earthquake&orderby=time")
+                .append("&starttime=").append(format.format(new Date(mStartTime)))
+                // USGS treats endtime as inclusive, our windows do not.
+                .append("&endtime=").append(format.format(new Date(mEndTime - 1)))
+                .append("&limit=").append(limit);
+        appendIfSet(url, "minmagnitude", mMinMagnitude);
+        appendIfSet(url, "maxmagnitude", mMaxMagnitude);
+        appendIfSet(url, "minlatitude", mMinLatitude);
+        appendIfSet(url, "maxlatitude", mMaxLatitude);
+        appendIfSet(url, "minlongitude", mMinLongitude);
+        appendIfSet(url, "maxlongitude", mMaxLongitude);
+        return url;
+    }
+
+    private static void appendIfSet(StringBuilder url, String name, double value) {
+        if (!Double.isNaN(value)) {
+            url.append('&').append(name).append('=').append(value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toUrl();
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * {@link EarthquakeQueryEngine} answers time and magnitude questions about the earthquakes of
+ * an {@link EarthquakeStore} locally, such as "M5 and over in the last 24 hours" or "the 10
+ * strongest this week", without asking USGS again and without looking at every earthquake.
+ *
+ * It keeps two indexes of the store's rows:
+ * - every row sorted by time, so a time window is two binary searches away;
+ * - the rows grouped into magnitude buckets 0.1 wide, each sorted by time, so a magnitude
+ *   range is a run of buckets and the time window a binary search within each of them.
+ *
+ * Queries return row positions, which {@link EarthquakeStore#select(int[])} turns into a store
+ * the adapter can show. The engine does not follow changes to the store; get a new one from
+ * {@link EarthquakeStore#getQueryEngine()} after a change.
+ */
+public final class EarthquakeQueryEngine {
+
+    /** Number of magnitude buckets per magnitude unit */
+    private static final int BUCKETS_PER_UNIT = 10;
+
+    /** Number of buckets: magnitudes under 0 share the first, 10 and over share the last */
+    private static final int BUCKET_COUNT = 10 * BUCKETS_PER_UNIT + 1;
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final EarthquakeStore mStore;
+
+    /** Row positions sorted by time, oldest first, and their times */
+    private final int[] mByTime;
+    private final long[] mTimesByTime;
+
+    /** Rank of each row in {@link #mByTime}, used to put results back in time order */
+    private final int[] mTimeRanks;
+
+    /** Row positions grouped by magnitude bucket, each bucket sorted by time, and their times */
+    private final int[] mByBucket;
+    private final long[] mTimesByBucket;
+
+    /** Where each bucket starts in {@link #mByBucket}; bucket i ends where bucket i + 1 starts */
+    private final int[] mBucketStarts = new int[BUCKET_COUNT + 1];
+
+    /**
+     * Index the earthquakes of the store, in O(n log n).
+     */
+    public EarthquakeQueryEngine(EarthquakeStore store) {
+        mStore = store;
+        int count = store.size();
+
+        // Sort the rows by time.
+        long[] times = new long[count];
+        mByTime = new int[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = store.getTimeInMilliseconds(i);
+            mByTime[i] = i;
+        }
+        // Stores usually hold USGS responses, newest first: reversed, they are already sorted.
+        if (count > 1 && times[0] > times[count - 1]) {
+            for (int i = 0; i < count / 2; i++) {
+                mByTime[i] = count - 1 - i;
+                mByTime[count - 1 - i] = i;
+            }
+        }
+        sortByKey(mByTime, times);
+        mTimesByTime = new long[count];
+        mTimeRanks = new int[count];
+        for (int rank = 0; rank < count; rank++) {
+            mTimesByTime[rank] = times[mByTime[rank]];
+            mTimeRanks[mByTime[rank]] = rank;
+        }
+
+        // Counting sort the time-sorted rows into magnitude buckets, which keeps each bucket
+        // sorted by time.
+        int[] buckets = new int[count];
+        for (int i = 0; i < count; i++) {
+            buckets[i] = bucketOf(store.getMagnitude(i));
+            mBucketStarts[buckets[i] + 1]++;
+        }
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            mBucketStarts[bucket + 1] += mBucketStarts[bucket];
+        }
+        mByBucket = new int[count];
+        mTimesByBucket = new long[count];
+        int[] next = Arrays.copyOf(mBucketStarts, BUCKET_COUNT);
+        for (int rank = 0; rank < count; rank++) {
+            int position = mByTime[rank];
+            int slot = next[buckets[position]]++;
+            mByBucket[slot] = position;
+            mTimesByBucket[slot] = mTimesByTime[rank];
+        }
+    }
+
+    /** Returns the store this engine indexes */
+    public EarthquakeStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * Returns the number of earthquakes in the time window, in O(log n).
+     *
+     * @param startTime start of the window, in milliseconds from the Epoch (inclusive)
+     * @param endTime   end of the window, in milliseconds from the Epoch (exclusive)
+     */
+    public int countInWindow(long startTime, long endTime) {
+        return Math.max(0, lowerBound(mTimesByTime, 0, mTimesByTime.length, endTime)
+                - lowerBound(mTimesByTime, 0, mTimesByTime.length, startTime));
+    }
+
+    /**
+     * Returns the positions of the earthquakes in the time window, newest first.
+     */
+    public int[] query(long startTime, long endTime) {
+        int from = lowerBound(mTimesByTime, 0, mTimesByTime.length, startTime);
+        int to = lowerBound(mTimesByTime, 0, mTimesByTime.length, endTime);
+        if (from >= to) {
+            return NO_POSITIONS;
+        }
+        int[] positions = new int[to - from];
+        for (int rank = to - 1, i = 0; rank >= from; rank--, i++) {
+            positions[i] = mByTime[rank];
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the positions of the earthquakes in the time window with at least the given
+     * magnitude, newest first.
+     */
+    public int[] query(long startTime, long endTime, double minMagnitude) {
+        return query(startTime, endTime, minMagnitude, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns the positions of the earthquakes in the time window with a magnitude between
+     * {@code minMagnitude} and {@code maxMagnitude} (both inclusive), newest first.
+     */
+    public int[] query(long startTime, long endTime, double minMagnitude, double maxMagnitude) {
+        if (minMagnitude > maxMagnitude || startTime >= endTime) {
+            return NO_POSITIONS;
+        }
+        // Collect the time ranks of the matches bucket by bucket, then sort the ranks to get
+        // the matches back in time order.
+        int[] ranks = new int[16];
+        int count = 0;
+        int firstBucket = bucketOf(minMagnitude);
+        int lastBucket = bucketOf(maxMagnitude);
+        for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+            int from = lowerBound(mTimesByBucket, mBucketStarts[bucket],
+                    mBucketStarts[bucket + 1], startTime);
+            int to = lowerBound(mTimesByBucket, from, mBucketStarts[bucket + 1], endTime);
+            // Only the first and last buckets can hold magnitudes outside the range.
+            boolean edge = bucket == firstBucket || bucket == lastBucket;
+            for (int slot = from; slot < to; slot++) {
+                int position = mByBucket[slot];
+                if (edge) {
+                    double magnitude = mStore.getMagnitude(position);
+                    if (magnitude < minMagnitude || magnitude > maxMagnitude) {
+                        continue;
+                    }
+                }
+                if (count == ranks.length) {
+                    ranks = Arrays.copyOf(ranks, count * 2);
+                }
+                ranks[count++] = mTimeRanks[position];
+            }
+        }
+        Arrays.sort(ranks, 0, count);
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = mByTime[ranks[count - 1 - i]];
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the positions of the (at most) {@code limit} strongest earthquakes in the time
+     * window, strongest first; equally strong earthquakes are newest first. Only the strongest
+     * buckets are looked at, until they hold enough earthquakes in the window.
+     */
+    public int[] topByMagnitude(long startTime, long endTime, int limit) {
+        if (limit <= 0 || startTime >= endTime) {
+            return NO_POSITIONS;
+        }
+        int[] candidates = new int[Math.min(limit, 64)];
+        int count = 0;
+        for (int bucket = BUCKET_COUNT - 1; bucket >= 0 && count < limit; bucket--) {
+            int from = lowerBound(mTimesByBucket, mBucketStarts[bucket],
+                    mBucketStarts[bucket + 1], startTime);
+            int to = lowerBound(mTimesByBucket, from, mBucketStarts[bucket + 1], endTime);
+            // Take the whole bucket even past the limit: it is not sorted by magnitude.
+            for (int slot = to - 1; slot >= from; slot--) {
+                if (count == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, count * 2);
+                }
+                candidates[count++] = mByBucket[slot];
+            }
+        }
+        return strongestFirst(candidates, count, Math.min(limit, count));
+    }
+
+    /** Returns the magnitude bucket of the magnitude */
+    private static int bucketOf(double magnitude) {
+        if (!(magnitude >= 0)) {
+            return 0;
+        }
+        return (int) Math.min(BUCKET_COUNT - 1, Math.floor(magnitude * BUCKETS_PER_UNIT));
+    }
+
+    /**
+     * Returns the first {@code limit} of the first {@code count} positions sorted by magnitude,
+     * strongest first. The sort is stable, and candidates arrive newest first within a bucket,
+     * so equally strong earthquakes stay newest first.
+     */
+    private int[] strongestFirst(int[] positions, int count, int limit) {
+        long[] keys = new long[count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            // Flip the bits of the sign-corrected IEEE 754 value: a larger magnitude gets a
+            // smaller key, so an ascending sort puts the strongest first.
+            long bits = Double.doubleToLongBits(mStore.getMagnitude(positions[i]));
+            keys[i] = ~(bits ^ ((bits >> 63) & Long.MAX_VALUE));
+            order[i] = i;
+        }
+        sortByKey(order, keys);
+        int[] strongest = new int[limit];
+        for (int i = 0; i < limit; i++) {
+            strongest[i] = positions[order[i]];
+        }
+        return strongest;
+    }
+
+    /**
+     * Returns the first index in {@code [from, to)} whose key is not smaller than the given
+     * key, or {@code to} if there is none.
+     */
+    private static int lowerBound(long[] keys, int from, int to, long key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Stable merge sort of the positions by their key ({@code keys[position]}), without boxing
+     * them into Integers for a Comparator.
+     */
+    private static void sortByKey(int[] positions, long[] keys) {
+        int[] buffer = new int[positions.length];
+        for (int width = 1; width < positions.length; width *= 2) {
+            for (int left = 0; left < positions.length - width; left += 2 * width) {
+                int middle = left + width;
+                int right = Math.min(left + 2 * width, positions.length);
+                // Already in order: nothing to merge.
+                if (keys[positions[middle - 1]] <= keys[positions[middle]]) {
+                    continue;
+                }
+                int i = left;
+                int j = middle;
+                int k = left;
+                while (i < middle && j < right) {
+                    buffer[k++] = keys[positions[j]] < keys[positions[i]]
+                            ? positions[j++] : positions[i++];
+                }
+                while (i < middle) {
+                    buffer[k++] = positions[i++];
+                }
+                while (j < right) {
+                    buffer[k++] = positions[j++];
+                }
+                System.arraycopy(buffer, left, positions, left, right - left);
+            }
+        }
+    }
+}
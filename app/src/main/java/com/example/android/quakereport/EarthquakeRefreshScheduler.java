@@ -0,0 +1,396 @@
+package com.example.android.quakereport;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EarthquakeRefreshScheduler} decides when earthquakes are downloaded again, and makes
+ * sure only one download runs at a time.
+ *
+ * - A successful refresh is followed by the next one after the refresh interval.
+ * - A failed refresh (no response, or a response other than 200/304) is retried after an
+ *   exponentially growing backoff, capped at a maximum.
+ * - Both delays get a random jitter, so many devices do not all refresh at the same moment.
+ * - Callers that ask for a refresh while one is running wait for it and share its result,
+ *   instead of starting a download of their own.
+ * - A cancelled refresh (its thread was interrupted) is not a failure: it does not back off,
+ *   and the callers waiting for it refresh again instead of getting nothing.
+ * - {@link #refreshIfDue(EarthquakeStreamParser.Listener)} returns the last result without
+ *   downloading anything until the next refresh is due, so re-entering the activity does not
+ *   download the same data again.
+ *
+ * All timing is read from a {@link Clock}, so it can be driven by a fake clock in tests.
+ * {@link #start()} also refreshes periodically on a background thread, to keep the data warm.
+ * This is plain Java, so it also runs (and is tested) on a desktop JVM.
+ */
+public class EarthquakeRefreshScheduler {
+
+    /** Default delay before retrying after the first failure (30 seconds) */
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 30 * 1000;
+
+    /** Default longest delay between retries (30 minutes) */
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+
+    /** Default jitter, as a fraction of the delay it is applied to */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    /**
+     * Source of monotonic time, in milliseconds.
+     */
+    public interface Clock {
+        long currentTimeMillis();
+    }
+
+    /**
+     * Downloads the earthquakes.
+     */
+    public interface Source {
+        /**
+         * Download the earthquakes, handing each one to the listener (if not null) as it is
+         * parsed. Returns null if the download failed. When the calling thread is interrupted
+         * the result is ignored, and the source may also throw a CancellationException.
+         */
+        List<Earthquake> fetch(EarthquakeStreamParser.Listener listener);
+    }
+
+    /**
+     * Told about every refresh done by the periodic thread.
+     */
+    public interface OnRefreshListener {
+        /**
+         * Called on the scheduler thread after a periodic refresh, including one where the
+         * source threw.
+         *
+         * @param earthquakes the latest earthquakes, or null if there never was a successful
+         *                    refresh
+         * @param succeeded   false if this refresh failed and the earthquakes are older ones
+         */
+        void onRefreshed(List<Earthquake> earthquakes, boolean succeeded);
+    }
+
+    /** Clock reading {@link System#nanoTime()}, which never jumps when the user sets the time */
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+    };
+
+    private final Source mSource;
+    private final long mIntervalMillis;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+    private final double mJitter;
+    private final Clock mClock;
+    private final Random mRandom;
+
+    /** The refresh currently running, or null */
+    private FutureTask<List<Earthquake>> mInFlight;
+
+    /** The result of the last successful refresh, or null */
+    private List<Earthquake> mLastResult;
+
+    /** Number of refreshes that failed in a row */
+    private int mFailureCount;
+
+    /** Clock time at which the next refresh is due; 0 means right away */
+    private long mNextRefreshTime;
+
+    /** Thread running the periodic refreshes, or null if stopped */
+    private ScheduledThreadPoolExecutor mExecutor;
+
+    private volatile OnRefreshListener mOnRefreshListener;
+
+    /**
+     * Create a scheduler with the default backoff, jitter and clock.
+     *
+     * @param source         where the earthquakes come from
+     * @param intervalMillis time between two successful refreshes
+     */
+    public EarthquakeRefreshScheduler(Source source, long intervalMillis) {
+        this(source, intervalMillis, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+                DEFAULT_JITTER, SYSTEM_CLOCK, new Random());
+    }
+
+    /**
+     * Create a scheduler.
+     *
+     * @param source               where the earthquakes come from
+     * @param intervalMillis       time between two successful refreshes
+     * @param initialBackoffMillis delay before retrying after the first failure; every further
+     *                             failure in a row doubles it
+     * @param maxBackoffMillis     longest delay before retrying
+     * @param jitter               how much every delay may randomly be shortened or lengthened,
+     *                             as a fraction of it (0 for none, at most 1)
+     * @param clock                source of the time
+     * @param random               source of the jitter
+     */
+    public EarthquakeRefreshScheduler(Source source, long intervalMillis,
+                                      long initialBackoffMillis, long maxBackoffMillis,
+                                      double jitter, Clock clock, Random random) {
+        if (intervalMillis <= 0 || initialBackoffMillis <= 0
+                || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid interval or backoff");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1");
+        }
+        mSource = source;
+        mIntervalMillis = intervalMillis;
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mJitter = jitter;
+        mClock = clock;
+        mRandom = random;
+    }
+
+    /**
+     * Returns a source that downloads the given URL through {@link QueryUtils}, using its disk
+     * cache but not falling back on a stale copy when the request fails.
+     */
+    public static Source forUrl(final String requestUrl) {
+        return new Source() {
+            @Override
+            public List<Earthquake> fetch(EarthquakeStreamParser.Listener listener) {
+                return QueryUtils.fetchEarthquakeData(requestUrl, listener, false);
+            }
+        };
+    }
+
+    /**
+     * Returns a source that refreshes the given sync engine. A failed sync returns null rather
+     * than the engine's local copy, so it counts as a failure.
+     */
+    public static Source forSyncEngine(final EarthquakeSyncEngine syncEngine) {
+        return new Source() {
+            @Override
+            public List<Earthquake> fetch(EarthquakeStreamParser.Listener listener) {
+                return syncEngine.sync(false);
+            }
+        };
+    }
+
+    /**
+     * Refresh if the next refresh is due (or nothing has been loaded yet), otherwise return the
+     * last result straight away. Call this on a background thread.
+     *
+     * @param listener receives each earthquake as it is parsed, if this call does the download
+     * @return the latest earthquakes, or null if there never was a successful refresh
+     */
+    public List<Earthquake> refreshIfDue(EarthquakeStreamParser.Listener listener)
+            throws InterruptedException {
+        synchronized (this) {
+            if (mInFlight == null && mLastResult != null && !isDue()) {
+                return mLastResult;
+            }
+        }
+        return refresh(listener);
+    }
+
+    /**
+     * Refresh now, or wait for the refresh already running. Call this on a background thread.
+     *
+     * @param listener receives each earthquake as it is parsed, if this call does the download
+     * @return the latest earthquakes, or null if there never was a successful refresh
+     * @throws InterruptedException if the thread is interrupted while waiting for another
+     *                              thread's refresh, or while running its own
+     */
+    public List<Earthquake> refresh(final EarthquakeStreamParser.Listener listener)
+            throws InterruptedException {
+        while (true) {
+            FutureTask<List<Earthquake>> task;
+            boolean runHere = false;
+            synchronized (this) {
+                task = mInFlight;
+                if (task == null) {
+                    task = new FutureTask<>(new Callable<List<Earthquake>>() {
+                        @Override
+                        public List<Earthquake> call() {
+                            return runRefresh(listener);
+                        }
+                    });
+                    mInFlight = task;
+                    runHere = true;
+                }
+            }
+            if (runHere) {
+                task.run();
+            }
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof CancellationException)) {
+                    // The source threw: treat it like any other bug.
+                    throw new RuntimeException(e.getCause());
+                }
+                if (runHere) {
+                    Thread.interrupted();
+                    throw new InterruptedException("Refresh cancelled");
+                }
+                // The thread running the refresh was cancelled, but this one still wants the
+                // earthquakes: go round again, and refresh here unless another waiter already
+                // started over.
+            }
+        }
+    }
+
+    /**
+     * Returns the result of the last successful refresh, or null if there was none.
+     */
+    public synchronized List<Earthquake> getLastResult() {
+        return mLastResult;
+    }
+
+    /**
+     * Returns true if the next refresh is due.
+     */
+    public synchronized boolean isDue() {
+        return mClock.currentTimeMillis() >= mNextRefreshTime;
+    }
+
+    /**
+     * Returns how long (in milliseconds) until the next refresh is due, or 0 if it is due now.
+     */
+    public synchronized long getMillisUntilNextRefresh() {
+        return Math.max(0, mNextRefreshTime - mClock.currentTimeMillis());
+    }
+
+    /**
+     * Returns the number of refreshes that failed in a row.
+     */
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Set the listener told about periodic refreshes, or null for none.
+     */
+    public void setOnRefreshListener(OnRefreshListener listener) {
+        mOnRefreshListener = listener;
+    }
+
+    /**
+     * Start refreshing periodically on a background thread. The first refresh happens when
+     * the next one is due. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (mExecutor != null) {
+            return;
+        }
+        mExecutor = new ScheduledThreadPoolExecutor(1);
+        // Once stopped, the tick waiting for its time must not run anymore.
+        mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduleTick(mExecutor, getMillisUntilNextRefresh());
+    }
+
+    /**
+     * Stop the periodic refreshes. A refresh that is running is allowed to finish; the next
+     * one, waiting for its time, is dropped.
+     */
+    public synchronized void stop() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * Run one refresh and work out when the next one is due. Throws a CancellationException if
+     * the refresh was cancelled, leaving the failure count and the due time as they were.
+     */
+    private List<Earthquake> runRefresh(EarthquakeStreamParser.Listener listener) {
+        List<Earthquake> earthquakes = null;
+        boolean cancelled = false;
+        try {
+            earthquakes = mSource.fetch(listener);
+        } catch (CancellationException e) {
+            cancelled = true;
+        } finally {
+            cancelled |= Thread.currentThread().isInterrupted();
+            synchronized (this) {
+                mInFlight = null;
+                if (!cancelled) {
+                    if (earthquakes != null) {
+                        mLastResult = earthquakes;
+                        mFailureCount = 0;
+                    } else {
+                        mFailureCount++;
+                    }
+                    mNextRefreshTime = mClock.currentTimeMillis() + nextDelayMillis();
+                }
+            }
+        }
+        if (cancelled) {
+            throw new CancellationException("Refresh cancelled");
+        }
+        return earthquakes != null ? earthquakes : getLastResult();
+    }
+
+    /**
+     * Returns the delay before the next refresh: the interval after a success, or the backoff
+     * after {@link #mFailureCount} failures in a row, with jitter applied either way.
+     */
+    private long nextDelayMillis() {
+        long delay;
+        if (mFailureCount == 0) {
+            delay = mIntervalMillis;
+        } else {
+            // Double the backoff for every failure, without overflowing the shift.
+            int doublings = Math.min(mFailureCount - 1, 30);
+            delay = Math.min(mMaxBackoffMillis, mInitialBackoffMillis << doublings);
+        }
+        double factor = 1 + mJitter * (2 * mRandom.nextDouble() - 1);
+        return Math.round(delay * factor);
+    }
+
+    /** Run the periodic refresh on the executor after the given delay */
+    private void scheduleTick(final ScheduledThreadPoolExecutor executor, long delayMillis) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tick(executor);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** One step of the periodic refresh run by the executor */
+    private void tick(ScheduledThreadPoolExecutor executor) {
+        synchronized (this) {
+            if (mExecutor != executor) {
+                // Stopped just as this tick came up.
+                return;
+            }
+        }
+        // Someone else may have refreshed since this tick was scheduled.
+        if (isDue()) {
+            try {
+                List<Earthquake> earthquakes = refresh(null);
+                OnRefreshListener listener = mOnRefreshListener;
+                if (listener != null) {
+                    listener.onRefreshed(earthquakes, getFailureCount() == 0);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // The source threw. That counted as a failure, so the next tick backs off;
+                // keep ticking rather than let the executor drop the task.
+                OnRefreshListener listener = mOnRefreshListener;
+                if (listener != null) {
+                    listener.onRefreshed(getLastResult(), false);
+                }
+            }
+        }
+        synchronized (this) {
+            // Unless stopped meanwhile, or stopped and started again with a new executor.
+            if (mExecutor == executor) {
+                scheduleTick(executor, getMillisUntilNextRefresh());
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.quakereport;
+
+/**
+ * {@link EarthquakeRowModel} is everything one row of the earthquake list shows, already
+ * formatted: the texts of every TextView and the color of the magnitude circle.
+ *
+ * It is immutable, so it can be built on the loader thread and handed to the main thread,
+ * where binding a row is then only a matter of assigning these values to the views.
+ */
+public final class EarthquakeRowModel {
+
+    /** Magnitude with 1 decimal place ("3.2") */
+    private final String mMagnitudeText;
+
+    /** Resolved color int of the magnitude circle */
+    private final int mMagnitudeColor;
+
+    /** Offset part of the location ("5km N of "), or "Near the" if the location has none */
+    private final String mLocationOffsetText;
+
+    /** Primary part of the location ("Cairo, Egypt") */
+    private final String mPrimaryLocation;
+
+    /** Date of the earthquake ("Mar 3, 1984") */
+    private final String mDateText;
+
+    /** Time of the earthquake ("4:30 PM") */
+    private final String mTimeText;
+
+    public EarthquakeRowModel(String magnitudeText, int magnitudeColor,
+                              String locationOffsetText, String primaryLocation,
+                              String dateText, String timeText) {
+        mMagnitudeText = magnitudeText;
+        mMagnitudeColor = magnitudeColor;
+        mLocationOffsetText = locationOffsetText;
+        mPrimaryLocation = primaryLocation;
+        mDateText = dateText;
+        mTimeText = timeText;
+    }
+
+    public String getMagnitudeText() {
+        return mMagnitudeText;
+    }
+
+    public int getMagnitudeColor() {
+        return mMagnitudeColor;
+    }
+
+    public String getLocationOffsetText() {
+        return mLocationOffsetText;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getDateText() {
+        return mDateText;
+    }
+
+    public String getTimeText() {
+        return mTimeText;
+    }
+}
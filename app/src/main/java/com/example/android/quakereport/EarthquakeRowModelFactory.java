@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.support.v4.content.ContextCompat;
+
+import java.util.List;
+
+/**
+ * Builds the {@link EarthquakeRowModel}s of earthquakes. The colors and the "Near the" text are
+ * resolved once, when the factory is created; after that, creating row models only formats
+ * values and can be done on any one thread at a time (typically the loader thread).
+ */
+public class EarthquakeRowModelFactory {
+
+    /** Formats the texts, with formatters created once */
+    private final EarthquakeFormatter mFormatter = new EarthquakeFormatter();
+
+    /** Magnitude circle colors, indexed by the floor of the magnitude */
+    private final int[] mMagnitudeColors;
+
+    /** The "Near the" text shown for locations without an offset */
+    private final String mNearThe;
+
+    /** The last date text, reused while earthquakes on the same day follow each other */
+    private String mLastDateText;
+
+    /**
+     * Create a factory using the resources of the given context.
+     */
+    public EarthquakeRowModelFactory(Context context) {
+        mMagnitudeColors = resolveMagnitudeColors(context);
+        mNearThe = context.getString(R.string.near_the);
+    }
+
+    /**
+     * Returns the row model of the earthquake.
+     */
+    public EarthquakeRowModel create(Earthquake earthquake) {
+        return create(earthquake.getMagnitude(), earthquake.getTimeInMilliseconds(),
+                earthquake.getLocationOffset(), earthquake.getPrimaryLocation());
+    }
+
+    /**
+     * Returns the row models of the earthquakes, in the same order.
+     */
+    public EarthquakeRowModel[] createAll(List<Earthquake> earthquakes) {
+        EarthquakeRowModel[] rows = new EarthquakeRowModel[earthquakes.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = create(earthquakes.get(i));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the row model of the earthquake at the given position of the store.
+     */
+    public EarthquakeRowModel create(EarthquakeStore store, int position) {
+        // The store already keeps the location split, so its pooled Strings are shared.
+        return create(store.getMagnitude(position), store.getTimeInMilliseconds(position),
+                store.getLocationOffset(position), store.getPrimaryLocation(position));
+    }
+
+    /**
+     * Returns the row models of every earthquake of the store, in the same order.
+     */
+    public EarthquakeRowModel[] createAll(EarthquakeStore store) {
+        EarthquakeRowModel[] rows = new EarthquakeRowModel[store.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = create(store, i);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns a row model with empty texts and no color, for rows whose earthquake is not
+     * known yet.
+     */
+    public EarthquakeRowModel createPlaceholder() {
+        return new EarthquakeRowModel("", Color.TRANSPARENT, "", "", "", "");
+    }
+
+    private EarthquakeRowModel create(double magnitude, long timeInMilliseconds,
+                                      String locationOffset, String primaryLocation) {
+        // Earthquakes come sorted by time, so many rows in a row share the same date: let
+        // them share the same String too.
+        String dateText = mFormatter.formatDate(timeInMilliseconds);
+        if (dateText.equals(mLastDateText)) {
+            dateText = mLastDateText;
+        } else {
+            mLastDateText = dateText;
+        }
+        return new EarthquakeRowModel(
+                mFormatter.formatMagnitude(magnitude),
+                mMagnitudeColors[EarthquakeFormatter.getMagnitudeColorIndex(magnitude)],
+                // When there is no location offset ("Pacific-Antarctic Ridge") we show
+                // "Near the" instead.
+                locationOffset != null ? locationOffset : mNearThe,
+                primaryLocation,
+                dateText,
+                mFormatter.formatTime(timeInMilliseconds));
+    }
+
+    /**
+     * Resolve the magnitude circle colors once, indexed by
+     * {@link EarthquakeFormatter#getMagnitudeColorIndex(double)}.
+     */
+    private static int[] resolveMagnitudeColors(Context context) {
+        //  Each entry is one of the color resources that we defined the colors.xml file.
+        int[] magnitudeColorResourceIds = {
+                R.color.magnitude1, // 0
+                R.color.magnitude1, // 1
+                R.color.magnitude2,
+                R.color.magnitude3,
+                R.color.magnitude4,
+                R.color.magnitude5,
+                R.color.magnitude6,
+                R.color.magnitude7,
+                R.color.magnitude8,
+                R.color.magnitude9,
+                R.color.magnitude10plus
+        };
+        // Remember that color resource IDs just point to the resource we defined, but
+        // not the value of the color. You can call ContextCompat getColor() to convert the
+        // color resource ID into an actual integer color value.
+        int[] magnitudeColors = new int[magnitudeColorResourceIds.length];
+        for (int i = 0; i < magnitudeColorResourceIds.length; i++) {
+            magnitudeColors[i] = ContextCompat.getColor(context, magnitudeColorResourceIds[i]);
+        }
+        return magnitudeColors;
+    }
+}
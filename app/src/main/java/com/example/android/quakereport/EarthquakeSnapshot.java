@@ -0,0 +1,264 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary format for a list of {@link Earthquake}s.
+ *
+ * A snapshot is a header, a table of distinct strings and then one fixed-size record per
+ * earthquake. Locations are stored as two string indices (the "5km N" offset and the
+ * "Cairo, Egypt" primary location), and urls as a prefix index plus a suffix, so the
+ * "https://earthquake.usgs.gov/earthquakes/eventpage/" prefix every USGS url shares is only
+ * stored once. Records hold no text at all, so restoring a snapshot is a walk over a
+ * memory-mapped file instead of a JSON parse.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int    MAGIC
+ *   int    FORMAT_VERSION
+ *   int    string count, then for each string: int byte length, UTF-8 bytes
+ *   int    record count, then for each record (RECORD_SIZE bytes):
+ *          double magnitude, long time, long updated time, double latitude,
+ *          double longitude, double depth, int id, int location offset (or NO_STRING),
+ *          int primary location, int url prefix, int url suffix, byte flags (FLAG_DELETED)
+ * </pre>
+ *
+ * Every count and index is checked before it is used, so a damaged snapshot (a truncated file,
+ * a flipped bit) is reported as an {@link IOException} rather than a crash or a huge
+ * allocation.
+ */
+public final class EarthquakeSnapshot {
+
+    /** Marks the start of a snapshot ("QKSN") */
+    private static final int MAGIC = 0x514b534e;
+
+    /** Version of the layout above, bumped whenever it changes */
+    static final int FORMAT_VERSION = 3;
+
+    /** Size in bytes of one earthquake record */
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 3 * 8 + 5 * 4 + 1;
+
+    /** Smallest size in bytes of a string in the table: its length */
+    private static final int MIN_STRING_SIZE = 4;
+
+    /** Record flag set when USGS has deleted the event */
+    private static final int FLAG_DELETED = 1;
+
+    /** String index used when a location has no offset part */
+    private static final int NO_STRING = -1;
+
+    /** Separator between the location offset and the primary location ("5km N of Cairo") */
+    private static final String LOCATION_SEPARATOR = " of ";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EarthquakeSnapshot() {
+    }
+
+    /**
+     * Write the earthquakes as a snapshot to the given file, replacing it.
+     */
+    public static void writeToFile(List<Earthquake> earthquakes, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            write(earthquakes, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Restore the earthquakes of a snapshot file, by memory-mapping it.
+     */
+    public static List<Earthquake> readFromFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Write the earthquakes as a snapshot to the given stream.
+     */
+    public static void write(List<Earthquake> earthquakes, DataOutputStream out)
+            throws IOException {
+        // First give every distinct string an index, then write the table and the records.
+        StringTable table = new StringTable();
+        int[] records = new int[earthquakes.size() * 5];
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            int base = i * 5;
+            records[base] = table.indexOf(earthquake.getId());
+
+            String location = earthquake.getLocation();
+            int separator = location.indexOf(LOCATION_SEPARATOR);
+            if (separator >= 0) {
+                records[base + 1] = table.indexOf(location.substring(0, separator));
+                records[base + 2] = table.indexOf(
+                        location.substring(separator + LOCATION_SEPARATOR.length()));
+            } else {
+                records[base + 1] = NO_STRING;
+                records[base + 2] = table.indexOf(location);
+            }
+
+            String url = earthquake.getUrl();
+            int slash = url.lastIndexOf('/') + 1;
+            records[base + 3] = table.indexOf(url.substring(0, slash));
+            records[base + 4] = table.indexOf(url.substring(slash));
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(table.mStrings.size());
+        for (String string : table.mStrings) {
+            writeString(out, string);
+        }
+        out.writeInt(earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            out.writeDouble(earthquake.getMagnitude());
+            out.writeLong(earthquake.getTimeInMilliseconds());
+            out.writeLong(earthquake.getUpdatedTime());
+            out.writeDouble(earthquake.getLatitude());
+            out.writeDouble(earthquake.getLongitude());
+            out.writeDouble(earthquake.getDepth());
+            for (int field = 0; field < 5; field++) {
+                out.writeInt(records[i * 5 + field]);
+            }
+            out.writeByte(earthquake.isDeleted() ? FLAG_DELETED : 0);
+        }
+    }
+
+    /**
+     * Restore the earthquakes of a snapshot, starting at the buffer's current position.
+     * On return the position is just past the snapshot.
+     */
+    public static List<Earthquake> read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an earthquake snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+
+            // The string table already holds each String once per snapshot; the pool shares
+            // them with the earthquakes of other snapshots and responses too.
+            EarthquakeStringPool pool = EarthquakeStringPool.getShared();
+            int stringCount = buffer.getInt();
+            if (stringCount < 0 || (long) stringCount * MIN_STRING_SIZE > buffer.remaining()) {
+                throw new IOException("Corrupt string count " + stringCount);
+            }
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                strings[i] = pool.intern(readString(buffer));
+            }
+            // Location offsets with their separator, made once per table entry
+            String[] locationOffsets = new String[stringCount];
+
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * RECORD_SIZE > buffer.remaining()) {
+                throw new IOException("Truncated snapshot, " + count + " records");
+            }
+            List<Earthquake> earthquakes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                double magnitude = buffer.getDouble();
+                long time = buffer.getLong();
+                long updatedTime = buffer.getLong();
+                double latitude = buffer.getDouble();
+                double longitude = buffer.getDouble();
+                double depth = buffer.getDouble();
+                String id = strings[buffer.getInt()];
+                int offset = buffer.getInt();
+                String locationOffset = null;
+                if (offset != NO_STRING) {
+                    locationOffset = locationOffsets[offset];
+                    if (locationOffset == null) {
+                        locationOffset = pool.intern(strings[offset] + LOCATION_SEPARATOR);
+                        locationOffsets[offset] = locationOffset;
+                    }
+                }
+                String primaryLocation = strings[buffer.getInt()];
+                String urlPrefix = strings[buffer.getInt()];
+                String urlSuffix = strings[buffer.getInt()];
+                boolean deleted = (buffer.get() & FLAG_DELETED) != 0;
+                earthquakes.add(new Earthquake(id, magnitude, locationOffset, primaryLocation,
+                        time, urlPrefix, urlSuffix, updatedTime, deleted, latitude, longitude,
+                        depth));
+            }
+            return earthquakes;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // A damaged snapshot can still get past the checks above (an index out of range,
+            // or a count that fits the file but not the heap). Whoever reads it only expects
+            // an IOException, and drops the snapshot on one.
+            throw new IOException("Corrupt snapshot", e);
+        }
+    }
+
+    /**
+     * Write a string as its UTF-8 byte length followed by the bytes. Unlike
+     * {@link DataOutputStream#writeUTF(String)} there is no 64KB limit.
+     */
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        if (buffer.hasArray()) {
+            String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    length, UTF_8);
+            buffer.position(buffer.position() + length);
+            return string;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Assigns each distinct string an index, in order of first appearance.
+     */
+    private static class StringTable {
+
+        final List<String> mStrings = new ArrayList<>();
+        private final Map<String, Integer> mIndices = new HashMap<>();
+
+        int indexOf(String string) {
+            Integer index = mIndices.get(string);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(string);
+                mIndices.put(string, index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link EarthquakeSpatialIndex} answers "which earthquakes are within R km of here", "which
+ * earthquakes are in this rectangle" and "which earthquake is closest to here" without looking
+ * at every earthquake.
+ *
+ * The world is cut into a grid of equal latitude/longitude cells. The earthquakes are sorted by
+ * cell into flat arrays, and every cell knows where its run of earthquakes starts, so a query
+ * only scans the runs of the cells it overlaps. Building the index is a counting sort, O(n).
+ * The index refers to earthquakes by their position in the list or store it was built from,
+ * and does not change when that source changes: build a new one instead.
+ *
+ * Rectangles may cross the antimeridian (west greater than east), and radius queries work
+ * across it and near the poles. Earthquakes without coordinates are left out.
+ */
+public final class EarthquakeSpatialIndex {
+
+    /** Mean radius of the Earth, in kilometers */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /** Default size of a grid cell, in degrees */
+    public static final double DEFAULT_CELL_DEGREES = 2.0;
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final double mCellDegrees;
+    private final int mRowCount;
+    private final int mColumnCount;
+
+    /** Where each cell's run starts in the arrays below; cell i ends where cell i + 1 starts */
+    private final int[] mCellStarts;
+
+    /** Position in the source of each indexed earthquake, sorted by cell */
+    private final int[] mPositions;
+
+    /** Coordinates of each indexed earthquake, in the same order, so a scan reads them in line */
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final double[] mCosLatitudes;
+
+    /**
+     * Index the first {@code count} coordinates of the arrays, using the default cell size.
+     * Positions returned by the queries are indices into these arrays.
+     */
+    public EarthquakeSpatialIndex(double[] latitudes, double[] longitudes, int count) {
+        this(latitudes, longitudes, count, DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * Index the first {@code count} coordinates of the arrays. Smaller cells make queries scan
+     * fewer earthquakes, at the cost of one int per cell.
+     */
+    public EarthquakeSpatialIndex(double[] latitudes, double[] longitudes, int count,
+                                  double cellDegrees) {
+        if (!(cellDegrees > 0 && cellDegrees <= 180)) {
+            throw new IllegalArgumentException("Cell size must be between 0 and 180 degrees");
+        }
+        mCellDegrees = cellDegrees;
+        mRowCount = (int) Math.ceil(180 / cellDegrees);
+        mColumnCount = (int) Math.ceil(360 / cellDegrees);
+
+        // Count the earthquakes per cell, then turn the counts into start offsets.
+        int[] cells = new int[count];
+        mCellStarts = new int[mRowCount * mColumnCount + 1];
+        int indexed = 0;
+        for (int i = 0; i < count; i++) {
+            if (Double.isNaN(latitudes[i]) || Double.isNaN(longitudes[i])) {
+                cells[i] = -1;
+                continue;
+            }
+            cells[i] = cellOf(latitudes[i], longitudes[i]);
+            mCellStarts[cells[i] + 1]++;
+            indexed++;
+        }
+        for (int cell = 0; cell < mCellStarts.length - 1; cell++) {
+            mCellStarts[cell + 1] += mCellStarts[cell];
+        }
+
+        // Drop every earthquake into its cell's run.
+        mPositions = new int[indexed];
+        mLatitudes = new double[indexed];
+        mLongitudes = new double[indexed];
+        mCosLatitudes = new double[indexed];
+        int[] next = Arrays.copyOf(mCellStarts, mCellStarts.length - 1);
+        for (int i = 0; i < count; i++) {
+            if (cells[i] < 0) {
+                continue;
+            }
+            int slot = next[cells[i]]++;
+            mPositions[slot] = i;
+            mLatitudes[slot] = latitudes[i];
+            mLongitudes[slot] = normalizeLongitude(longitudes[i]);
+            mCosLatitudes[slot] = Math.cos(Math.toRadians(latitudes[i]));
+        }
+    }
+
+    /**
+     * Index the earthquakes of the store. Positions returned by the queries are rows of it.
+     */
+    public static EarthquakeSpatialIndex from(EarthquakeStore store) {
+        int count = store.size();
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = store.getLatitude(i);
+            longitudes[i] = store.getLongitude(i);
+        }
+        return new EarthquakeSpatialIndex(latitudes, longitudes, count);
+    }
+
+    /**
+     * Index the earthquakes of the list. Positions returned by the queries are indices into it.
+     */
+    public static EarthquakeSpatialIndex from(List<Earthquake> earthquakes) {
+        int count = earthquakes.size();
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = earthquakes.get(i).getLatitude();
+            longitudes[i] = earthquakes.get(i).getLongitude();
+        }
+        return new EarthquakeSpatialIndex(latitudes, longitudes, count);
+    }
+
+    /** Returns the number of earthquakes in the index (those with coordinates) */
+    public int size() {
+        return mPositions.length;
+    }
+
+    /**
+     * Returns the great-circle distance in kilometers between two points, in degrees.
+     */
+    public static double distanceKm(double latitude1, double longitude1,
+                                    double latitude2, double longitude2) {
+        double haversine = haversine(latitude1, Math.cos(Math.toRadians(latitude1)),
+                longitude1, latitude2, Math.cos(Math.toRadians(latitude2)), longitude2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(haversine)));
+    }
+
+    /**
+     * Returns the positions of the earthquakes inside the rectangle, borders included, in no
+     * particular order. If {@code west} is greater than {@code east} the rectangle crosses the
+     * antimeridian.
+     */
+    public int[] queryBox(double south, double north, double west, double east) {
+        if (south > north || mPositions.length == 0) {
+            return NO_POSITIONS;
+        }
+        west = normalizeLongitude(west);
+        east = normalizeLongitude(east);
+        boolean crossesAntimeridian = west > east;
+
+        Positions result = new Positions();
+        int firstRow = rowOf(south);
+        int lastRow = rowOf(north);
+        if (crossesAntimeridian) {
+            scanBox(result, firstRow, lastRow, columnOf(west), mColumnCount - 1,
+                    south, north, west, 180);
+            scanBox(result, firstRow, lastRow, 0, columnOf(east),
+                    south, north, -180, east);
+        } else {
+            scanBox(result, firstRow, lastRow, columnOf(west), columnOf(east),
+                    south, north, west, east);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns the positions of the earthquakes within {@code radiusKm} kilometers of the
+     * point, in no particular order.
+     */
+    public int[] queryRadius(double latitude, double longitude, double radiusKm) {
+        if (!(radiusKm >= 0) || mPositions.length == 0) {
+            return NO_POSITIONS;
+        }
+        Positions result = new Positions();
+        scanRadius(result, latitude, normalizeLongitude(longitude), radiusKm);
+        return result.toArray();
+    }
+
+    /**
+     * Returns the position of the earthquake closest to the point, or -1 if the index is empty.
+     */
+    public int nearest(double latitude, double longitude) {
+        if (mPositions.length == 0) {
+            return -1;
+        }
+        longitude = normalizeLongitude(longitude);
+        // Search ever larger circles: the first one that holds any earthquake holds the closest.
+        double halfCircumferenceKm = Math.PI * EARTH_RADIUS_KM;
+        double radiusKm = Math.toRadians(mCellDegrees) * EARTH_RADIUS_KM;
+        while (true) {
+            Positions candidates = new Positions();
+            scanRadius(candidates, latitude, longitude, radiusKm);
+            if (candidates.mCount > 0) {
+                double cosLatitude = Math.cos(Math.toRadians(latitude));
+                int best = -1;
+                double bestHaversine = Double.MAX_VALUE;
+                for (int i = 0; i < candidates.mCount; i++) {
+                    int slot = candidates.mSlots[i];
+                    double haversine = haversine(latitude, cosLatitude, longitude,
+                            mLatitudes[slot], mCosLatitudes[slot], mLongitudes[slot]);
+                    if (haversine < bestHaversine) {
+                        bestHaversine = haversine;
+                        best = mPositions[slot];
+                    }
+                }
+                return best;
+            }
+            if (radiusKm >= halfCircumferenceKm) {
+                return -1;
+            }
+            radiusKm = Math.min(radiusKm * 2, halfCircumferenceKm);
+        }
+    }
+
+    /** Add the earthquakes of the cells that lie inside the rectangle */
+    private void scanBox(Positions result, int firstRow, int lastRow, int firstColumn,
+                         int lastColumn, double south, double north, double west, double east) {
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumnCount + column;
+                for (int slot = mCellStarts[cell]; slot < mCellStarts[cell + 1]; slot++) {
+                    double latitude = mLatitudes[slot];
+                    double longitude = mLongitudes[slot];
+                    if (latitude >= south && latitude <= north
+                            && longitude >= west && longitude <= east) {
+                        result.add(mPositions[slot], slot);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Add the earthquakes within the radius, scanning only the cells the circle can reach */
+    private void scanRadius(Positions result, double latitude, double longitude,
+                            double radiusKm) {
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        if (angle >= Math.PI) {
+            // The circle covers the whole Earth.
+            for (int slot = 0; slot < mPositions.length; slot++) {
+                result.add(mPositions[slot], slot);
+            }
+            return;
+        }
+        // Compare haversines rather than distances, to skip the asin and sqrt per earthquake.
+        double sinHalfAngle = Math.sin(angle / 2);
+        double maxHaversine = sinHalfAngle * sinHalfAngle;
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+
+        double angleDegrees = Math.toDegrees(angle);
+        double south = latitude - angleDegrees;
+        double north = latitude + angleDegrees;
+        int firstRow = rowOf(south);
+        int lastRow = rowOf(north);
+
+        // Widest longitude difference a point within the circle can have. Near a pole, or for a
+        // circle wider than the distance to it, every longitude can be reached.
+        double sinRatio = cosLatitude > 0 ? Math.sin(angle) / cosLatitude : 2;
+        if (south <= -90 || north >= 90 || sinRatio >= 1) {
+            scanRadiusColumns(result, firstRow, lastRow, 0, mColumnCount - 1,
+                    latitude, cosLatitude, longitude, south, north, maxHaversine);
+            return;
+        }
+        double spanDegrees = Math.toDegrees(Math.asin(sinRatio));
+        double west = longitude - spanDegrees;
+        double east = longitude + spanDegrees;
+        if (west < -180) {
+            scanRadiusColumns(result, firstRow, lastRow, columnOf(west + 360), mColumnCount - 1,
+                    latitude, cosLatitude, longitude, south, north, maxHaversine);
+            west = -180;
+        }
+        if (east >= 180) {
+            scanRadiusColumns(result, firstRow, lastRow, 0, columnOf(east - 360),
+                    latitude, cosLatitude, longitude, south, north, maxHaversine);
+            east = 180;
+        }
+        scanRadiusColumns(result, firstRow, lastRow, columnOf(west), columnOf(east),
+                latitude, cosLatitude, longitude, south, north, maxHaversine);
+    }
+
+    private void scanRadiusColumns(Positions result, int firstRow, int lastRow, int firstColumn,
+                                   int lastColumn, double latitude, double cosLatitude,
+                                   double longitude, double south, double north,
+                                   double maxHaversine) {
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumnCount + column;
+                for (int slot = mCellStarts[cell]; slot < mCellStarts[cell + 1]; slot++) {
+                    // The latitude band is a cheap first test before the trigonometry.
+                    double slotLatitude = mLatitudes[slot];
+                    if (slotLatitude >= south && slotLatitude <= north
+                            && haversine(latitude, cosLatitude, longitude, slotLatitude,
+                            mCosLatitudes[slot], mLongitudes[slot]) <= maxHaversine) {
+                        result.add(mPositions[slot], slot);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the haversine of the central angle between two points: 0 for the same point,
+     * 1 for opposite points.
+     */
+    private static double haversine(double latitude1, double cosLatitude1, double longitude1,
+                                    double latitude2, double cosLatitude2, double longitude2) {
+        double sinHalfLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinHalfLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        return sinHalfLatitude * sinHalfLatitude
+                + cosLatitude1 * cosLatitude2 * sinHalfLongitude * sinHalfLongitude;
+    }
+
+    private int cellOf(double latitude, double longitude) {
+        return rowOf(latitude) * mColumnCount + columnOf(normalizeLongitude(longitude));
+    }
+
+    private int rowOf(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / mCellDegrees);
+        return Math.max(0, Math.min(mRowCount - 1, row));
+    }
+
+    private int columnOf(double longitude) {
+        int column = (int) Math.floor((longitude + 180) / mCellDegrees);
+        return Math.max(0, Math.min(mColumnCount - 1, column));
+    }
+
+    /** Returns the longitude moved into [-180, 180] */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180 && longitude <= 180) {
+            return longitude;
+        }
+        return ((longitude + 180) % 360 + 360) % 360 - 180;
+    }
+
+    /**
+     * Growable list of query results: positions in the source and slots in the index.
+     */
+    private static class Positions {
+
+        int[] mPositions = new int[16];
+        int[] mSlots = new int[16];
+        int mCount;
+
+        void add(int position, int slot) {
+            if (mCount == mPositions.length) {
+                mPositions = Arrays.copyOf(mPositions, mCount * 2);
+                mSlots = Arrays.copyOf(mSlots, mCount * 2);
+            }
+            mPositions[mCount] = position;
+            mSlots[mCount] = slot;
+            mCount++;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mPositions, mCount);
+        }
+    }
+}
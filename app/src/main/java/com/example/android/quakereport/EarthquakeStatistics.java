@@ -0,0 +1,574 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * {@link EarthquakeStatistics} keeps the numbers of a dashboard up to date as earthquakes come
+ * in, instead of walking the whole list every time one of them is asked for:
+ * - the number of earthquakes per magnitude color
+ *   ({@link EarthquakeFormatter#getMagnitudeColorIndex});
+ * - the number of earthquakes per hour and per day (UTC) over the most recent hours and days;
+ * - the number, strongest magnitude and mean magnitude of the earthquakes of each region
+ *   ({@link EarthquakeFormatter#getRegion}).
+ *
+ * Earthquakes are matched by their USGS event id, so adding an earthquake that is already
+ * counted replaces it (a revision) and adding a deleted one removes it. Each of these updates
+ * takes constant time, and everything is kept in arrays of primitives.
+ *
+ * The earthquakes are split into shards by event id. {@link #rebuild(List)} fills the shards
+ * at the same time on a pool of threads, which is worth it for a large catalogue.
+ *
+ * Earthquakes without an id cannot be matched by a later revision and are not counted. This
+ * is plain Java, so it also runs on a desktop JVM. It is thread safe.
+ */
+public final class EarthquakeStatistics {
+
+    /** Number of magnitude buckets, the same as the number of magnitude colors */
+    public static final int MAGNITUDE_BUCKET_COUNT = EarthquakeFormatter.MAGNITUDE_COLOR_COUNT;
+
+    /** Default number of hours counted: the 30 days of the longest query the app makes */
+    public static final int DEFAULT_HOUR_COUNT = 30 * 24;
+
+    /** Default number of days counted */
+    public static final int DEFAULT_DAY_COUNT = 30;
+
+    /** Default number of shards, and so of threads a rebuild uses */
+    public static final int DEFAULT_SHARD_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    /** Pool the shards are rebuilt on, shared by every instance */
+    private static EarthquakeLoadExecutor sRebuildExecutor;
+
+    private final Shard[] mShards;
+    private final int mHourCount;
+    private final int mDayCount;
+
+    /**
+     * Create empty statistics counting the default numbers of hours and days.
+     */
+    public EarthquakeStatistics() {
+        this(DEFAULT_SHARD_COUNT, DEFAULT_HOUR_COUNT, DEFAULT_DAY_COUNT);
+    }
+
+    /**
+     * Create empty statistics.
+     *
+     * @param shardCount number of shards, which is the most threads a rebuild uses
+     * @param hourCount  number of hours counted, ending with the latest hour seen
+     * @param dayCount   number of days counted, ending with the latest day seen
+     */
+    public EarthquakeStatistics(int shardCount, int hourCount, int dayCount) {
+        if (shardCount <= 0 || hourCount <= 0 || dayCount <= 0) {
+            throw new IllegalArgumentException("Counts must be positive");
+        }
+        mShards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            mShards[i] = new Shard(hourCount, dayCount);
+        }
+        mHourCount = hourCount;
+        mDayCount = dayCount;
+    }
+
+    /** Returns the pool the shards are rebuilt on, creating it if needed */
+    private static synchronized EarthquakeLoadExecutor getRebuildExecutor() {
+        if (sRebuildExecutor == null) {
+            // Never drop a task: the rebuild waits for every shard.
+            sRebuildExecutor = new EarthquakeLoadExecutor(
+                    Runtime.getRuntime().availableProcessors(), Integer.MAX_VALUE);
+        }
+        return sRebuildExecutor;
+    }
+
+    /**
+     * Count the earthquake, replacing the earthquake with the same id if there is one, or stop
+     * counting it if it is deleted.
+     */
+    public synchronized void add(Earthquake earthquake) {
+        String id = earthquake.getId();
+        if (id == null || id.isEmpty()) {
+            return;
+        }
+        Shard shard = shardOf(id);
+        if (earthquake.isDeleted()) {
+            shard.remove(id);
+        } else {
+            shard.add(earthquake);
+        }
+    }
+
+    /** Count the earthquakes, as {@link #add(Earthquake)} does */
+    public synchronized void addAll(List<Earthquake> earthquakes) {
+        for (Earthquake earthquake : earthquakes) {
+            add(earthquake);
+        }
+    }
+
+    /** Stop counting the earthquake with the id, if it is counted */
+    public synchronized void remove(String id) {
+        if (id != null && !id.isEmpty()) {
+            shardOf(id).remove(id);
+        }
+    }
+
+    /** Stop counting every earthquake */
+    public synchronized void clear() {
+        for (Shard shard : mShards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Count exactly the given earthquakes, forgetting every other one. The shards are filled
+     * at the same time, one per thread, with the calling thread filling the first one.
+     */
+    public synchronized void rebuild(List<Earthquake> earthquakes) {
+        final Earthquake[] array = earthquakes.toArray(new Earthquake[earthquakes.size()]);
+        List<Future<?>> futures = new ArrayList<>(mShards.length - 1);
+        for (int i = 1; i < mShards.length; i++) {
+            final int shard = i;
+            futures.add(getRebuildExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    rebuildShard(array, shard);
+                }
+            }));
+        }
+        rebuildShard(array, 0);
+
+        // Wait for every shard, even if interrupted: half-built statistics would be wrong.
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        throw cause instanceof RuntimeException
+                                ? (RuntimeException) cause : new RuntimeException(cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Refill one shard from the earthquakes whose id belongs to it */
+    private void rebuildShard(Earthquake[] earthquakes, int index) {
+        Shard shard = mShards[index];
+        shard.clear();
+        for (Earthquake earthquake : earthquakes) {
+            String id = earthquake.getId();
+            if (id != null && !id.isEmpty() && !earthquake.isDeleted()
+                    && shardIndexOf(id) == index) {
+                shard.add(earthquake);
+            }
+        }
+    }
+
+    /** Returns the number of earthquakes counted */
+    public synchronized int getCount() {
+        int count = 0;
+        for (Shard shard : mShards) {
+            count += shard.mSlotsById.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of earthquakes per magnitude bucket. Bucket i holds the earthquakes
+     * shown in magnitude color i.
+     */
+    public synchronized int[] getMagnitudeCounts() {
+        int[] counts = new int[MAGNITUDE_BUCKET_COUNT];
+        for (Shard shard : mShards) {
+            for (int i = 0; i < MAGNITUDE_BUCKET_COUNT; i++) {
+                counts[i] += shard.mMagnitudeCounts[i];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of earthquakes in each hour, oldest first, up to and including the
+     * hour of {@code endTime}. Only the most recent hours seen are kept, so an hour older than
+     * the hour count before the latest earthquake counts as 0.
+     */
+    public synchronized int[] getHourlyCounts(long endTime) {
+        int[] counts = new int[mHourCount];
+        for (Shard shard : mShards) {
+            shard.mHours.addCountsTo(counts, endTime);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of earthquakes in each UTC day, oldest first, up to and including the
+     * day of {@code endTime}, with the same limit as {@link #getHourlyCounts(long)}.
+     */
+    public synchronized int[] getDailyCounts(long endTime) {
+        int[] counts = new int[mDayCount];
+        for (Shard shard : mShards) {
+            shard.mDays.addCountsTo(counts, endTime);
+        }
+        return counts;
+    }
+
+    /** Returns the regions with at least one earthquake, sorted by name */
+    public synchronized List<String> getRegions() {
+        TreeSet<String> regions = new TreeSet<>();
+        for (Shard shard : mShards) {
+            for (int region = 0; region < shard.mRegionCount; region++) {
+                if (shard.mRegionCounts[region] > 0) {
+                    regions.add(shard.mRegionNames[region]);
+                }
+            }
+        }
+        return new ArrayList<>(regions);
+    }
+
+    /** Returns the number of earthquakes in the region */
+    public synchronized int getRegionCount(String region) {
+        int count = 0;
+        for (Shard shard : mShards) {
+            Integer index = shard.mRegionsByName.get(region);
+            if (index != null) {
+                count += shard.mRegionCounts[index];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the strongest magnitude in the region, or NaN if none of its earthquakes has a
+     * magnitude.
+     */
+    public synchronized double getMaxMagnitude(String region) {
+        double max = Double.NaN;
+        for (Shard shard : mShards) {
+            Integer index = shard.mRegionsByName.get(region);
+            if (index != null) {
+                double shardMax = shard.getMaxMagnitude(index);
+                if (Double.isNaN(max) || shardMax > max) {
+                    max = shardMax;
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the mean magnitude in the region, or NaN if none of its earthquakes has a
+     * magnitude.
+     */
+    public synchronized double getMeanMagnitude(String region) {
+        double sum = 0;
+        int count = 0;
+        for (Shard shard : mShards) {
+            Integer index = shard.mRegionsByName.get(region);
+            if (index != null) {
+                sum += shard.mRegionSums[index];
+                count += shard.mRegionMagnitudeCounts[index];
+            }
+        }
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    private Shard shardOf(String id) {
+        return mShards[shardIndexOf(id)];
+    }
+
+    private int shardIndexOf(String id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % mShards.length;
+    }
+
+    /** Returns {@code value / divisor} rounded down, also for negative values */
+    private static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        return (value % divisor != 0 && value < 0) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * The statistics of the earthquakes whose id falls in one shard. Only used while holding
+     * the lock of the statistics, or by the one rebuild thread that owns it.
+     */
+    private static final class Shard {
+
+        /** Number of earthquakes per magnitude bucket */
+        final int[] mMagnitudeCounts = new int[MAGNITUDE_BUCKET_COUNT];
+
+        final TimeBuckets mHours;
+        final TimeBuckets mDays;
+
+        /** Slot of each counted earthquake, by event id */
+        final Map<String, Integer> mSlotsById = new HashMap<>();
+
+        /** What each slot counted, so a revision or removal can take it back */
+        double[] mMagnitudes = new double[16];
+        long[] mTimes = new long[16];
+        int[] mRegions = new int[16];
+
+        /** Earthquakes of each region as a linked list of slots, -1 terminated */
+        int[] mNextInRegion = new int[16];
+        int[] mPreviousInRegion = new int[16];
+
+        /** Slots in use or freed so far; freed slots are chained through mNextInRegion */
+        int mSlotCount;
+        int mFreeSlot = -1;
+
+        /** Index of each region, and what is known about each of them */
+        final Map<String, Integer> mRegionsByName = new HashMap<>();
+        String[] mRegionNames = new String[16];
+        int[] mRegionCounts = new int[16];
+        int[] mRegionMagnitudeCounts = new int[16];
+        double[] mRegionSums = new double[16];
+        double[] mRegionMaxima = new double[16];
+        boolean[] mRegionMaximumStale = new boolean[16];
+        int[] mRegionFirstSlots = new int[16];
+        int mRegionCount;
+
+        Shard(int hourCount, int dayCount) {
+            mHours = new TimeBuckets(HOUR_MILLIS, hourCount);
+            mDays = new TimeBuckets(DAY_MILLIS, dayCount);
+        }
+
+        void add(Earthquake earthquake) {
+            String id = earthquake.getId();
+            Integer existing = mSlotsById.get(id);
+            if (existing != null) {
+                // A revision: take back what the old version counted.
+                release(existing);
+            }
+            String primaryLocation = earthquake.getPrimaryLocation();
+            int region = regionIndex(primaryLocation != null
+                    ? EarthquakeFormatter.getRegion(primaryLocation) : "");
+            int slot = allocate();
+            double magnitude = earthquake.getMagnitude();
+            long time = earthquake.getTimeInMilliseconds();
+            mMagnitudes[slot] = magnitude;
+            mTimes[slot] = time;
+            mRegions[slot] = region;
+            mSlotsById.put(id, slot);
+
+            mMagnitudeCounts[EarthquakeFormatter.getMagnitudeColorIndex(magnitude)]++;
+            mHours.add(time, 1);
+            mDays.add(time, 1);
+
+            // Link the slot in front of the region's list.
+            int first = mRegionFirstSlots[region];
+            mPreviousInRegion[slot] = -1;
+            mNextInRegion[slot] = first;
+            if (first >= 0) {
+                mPreviousInRegion[first] = slot;
+            }
+            mRegionFirstSlots[region] = slot;
+            mRegionCounts[region]++;
+            if (!Double.isNaN(magnitude)) {
+                mRegionMagnitudeCounts[region]++;
+                mRegionSums[region] += magnitude;
+                if (!(magnitude <= mRegionMaxima[region])) {
+                    mRegionMaxima[region] = magnitude;
+                }
+            }
+        }
+
+        void remove(String id) {
+            Integer slot = mSlotsById.remove(id);
+            if (slot != null) {
+                release(slot);
+            }
+        }
+
+        /** Take back what the slot counted and free it; the caller updates mSlotsById */
+        private void release(int slot) {
+            double magnitude = mMagnitudes[slot];
+            long time = mTimes[slot];
+            int region = mRegions[slot];
+
+            mMagnitudeCounts[EarthquakeFormatter.getMagnitudeColorIndex(magnitude)]--;
+            mHours.add(time, -1);
+            mDays.add(time, -1);
+
+            int previous = mPreviousInRegion[slot];
+            int next = mNextInRegion[slot];
+            if (previous >= 0) {
+                mNextInRegion[previous] = next;
+            } else {
+                mRegionFirstSlots[region] = next;
+            }
+            if (next >= 0) {
+                mPreviousInRegion[next] = previous;
+            }
+            mRegionCounts[region]--;
+            if (!Double.isNaN(magnitude)) {
+                if (--mRegionMagnitudeCounts[region] == 0) {
+                    // Start again from exactly 0 rather than keep the rounding errors.
+                    mRegionSums[region] = 0;
+                    mRegionMaxima[region] = Double.NaN;
+                    mRegionMaximumStale[region] = false;
+                } else {
+                    mRegionSums[region] -= magnitude;
+                    if (magnitude == mRegionMaxima[region]) {
+                        // Found again the next time it is asked for.
+                        mRegionMaximumStale[region] = true;
+                    }
+                }
+            }
+
+            mNextInRegion[slot] = mFreeSlot;
+            mFreeSlot = slot;
+        }
+
+        /**
+         * Returns the strongest magnitude in the region. If the strongest earthquake was
+         * removed since the last call, this walks the earthquakes of the region once.
+         */
+        double getMaxMagnitude(int region) {
+            if (mRegionMaximumStale[region]) {
+                double max = Double.NaN;
+                for (int slot = mRegionFirstSlots[region]; slot >= 0;
+                     slot = mNextInRegion[slot]) {
+                    double magnitude = mMagnitudes[slot];
+                    if (Double.isNaN(max) || magnitude > max) {
+                        max = magnitude;
+                    }
+                }
+                mRegionMaxima[region] = max;
+                mRegionMaximumStale[region] = false;
+            }
+            return mRegionMaxima[region];
+        }
+
+        /** Returns a free slot, growing the slot arrays if needed */
+        private int allocate() {
+            if (mFreeSlot >= 0) {
+                int slot = mFreeSlot;
+                mFreeSlot = mNextInRegion[slot];
+                return slot;
+            }
+            if (mSlotCount == mMagnitudes.length) {
+                int capacity = mSlotCount * 2;
+                mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+                mTimes = Arrays.copyOf(mTimes, capacity);
+                mRegions = Arrays.copyOf(mRegions, capacity);
+                mNextInRegion = Arrays.copyOf(mNextInRegion, capacity);
+                mPreviousInRegion = Arrays.copyOf(mPreviousInRegion, capacity);
+            }
+            return mSlotCount++;
+        }
+
+        /** Returns the index of the region, adding it if it is new */
+        private int regionIndex(String name) {
+            Integer index = mRegionsByName.get(name);
+            if (index != null) {
+                return index;
+            }
+            if (mRegionCount == mRegionNames.length) {
+                int capacity = mRegionCount * 2;
+                mRegionNames = Arrays.copyOf(mRegionNames, capacity);
+                mRegionCounts = Arrays.copyOf(mRegionCounts, capacity);
+                mRegionMagnitudeCounts = Arrays.copyOf(mRegionMagnitudeCounts, capacity);
+                mRegionSums = Arrays.copyOf(mRegionSums, capacity);
+                mRegionMaxima = Arrays.copyOf(mRegionMaxima, capacity);
+                mRegionMaximumStale = Arrays.copyOf(mRegionMaximumStale, capacity);
+                mRegionFirstSlots = Arrays.copyOf(mRegionFirstSlots, capacity);
+            }
+            int region = mRegionCount++;
+            mRegionNames[region] = name;
+            mRegionMaxima[region] = Double.NaN;
+            mRegionFirstSlots[region] = -1;
+            mRegionsByName.put(name, region);
+            return region;
+        }
+
+        void clear() {
+            Arrays.fill(mMagnitudeCounts, 0);
+            mHours.clear();
+            mDays.clear();
+            mSlotsById.clear();
+            mSlotCount = 0;
+            mFreeSlot = -1;
+            mRegionsByName.clear();
+            Arrays.fill(mRegionNames, 0, mRegionCount, null);
+            Arrays.fill(mRegionCounts, 0, mRegionCount, 0);
+            Arrays.fill(mRegionMagnitudeCounts, 0, mRegionCount, 0);
+            Arrays.fill(mRegionSums, 0, mRegionCount, 0);
+            Arrays.fill(mRegionMaximumStale, 0, mRegionCount, false);
+            mRegionCount = 0;
+        }
+    }
+
+    /**
+     * Counts per time bucket (an hour or a day) in a ring of the most recent buckets. Each slot
+     * remembers which bucket it counts, so a slot is taken over by a newer bucket when one
+     * comes along, and counts for buckets that fell out of the ring are ignored.
+     */
+    private static final class TimeBuckets {
+
+        private static final long NO_BUCKET = Long.MIN_VALUE;
+
+        private final long mWidth;
+        private final long[] mBuckets;
+        private final int[] mCounts;
+
+        TimeBuckets(long width, int count) {
+            mWidth = width;
+            mBuckets = new long[count];
+            mCounts = new int[count];
+            clear();
+        }
+
+        /** Add {@code delta} to the count of the bucket of the time */
+        void add(long time, int delta) {
+            long bucket = floorDiv(time, mWidth);
+            int slot = slotOf(bucket);
+            if (mBuckets[slot] == bucket) {
+                mCounts[slot] += delta;
+            } else if (bucket > mBuckets[slot] && delta > 0) {
+                mBuckets[slot] = bucket;
+                mCounts[slot] = delta;
+            }
+            // Otherwise the bucket is older than the one in its slot: it is not counted.
+        }
+
+        /** Add the counts of the buckets ending with the one of {@code endTime} to counts */
+        void addCountsTo(int[] counts, long endTime) {
+            long first = floorDiv(endTime, mWidth) - (mCounts.length - 1);
+            for (int i = 0; i < mCounts.length; i++) {
+                int slot = slotOf(first + i);
+                if (mBuckets[slot] == first + i) {
+                    counts[i] += mCounts[slot];
+                }
+            }
+        }
+
+        private int slotOf(long bucket) {
+            int slot = (int) (bucket % mCounts.length);
+            return slot < 0 ? slot + mCounts.length : slot;
+        }
+
+        void clear() {
+            Arrays.fill(mBuckets, NO_BUCKET);
+            Arrays.fill(mCounts, 0);
+        }
+    }
+}
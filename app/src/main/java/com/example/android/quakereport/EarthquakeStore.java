@@ -0,0 +1,402 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EarthquakeStore} holds a catalogue of earthquakes in primitive arrays, one array per
+ * field, instead of one {@link Earthquake} object (plus its Strings) per event.
+ *
+ * Magnitudes and coordinates live in double[]s, times in a long[], and every String field is an index into a
+ * pool of distinct Strings. Locations are kept as their offset part ("5km N of ") and primary
+ * part ("Cairo, Egypt"), and urls as their shared prefix plus the last path segment, which for
+ * USGS is the event id. Repeated regions, offsets and the url prefix are stored only once.
+ *
+ * Rows are read by position through the getters, or through a reusable {@link Row} view, so
+ * walking the store does not allocate.
+ */
+public class EarthquakeStore {
+
+    /** String index used when a location has no offset part */
+    public static final int NO_STRING = -1;
+
+    /** Initial number of rows the arrays have room for */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mDepths;
+    private int[] mIds;
+    private int[] mLocationOffsets;
+    private int[] mPrimaryLocations;
+    private int[] mUrlPrefixes;
+    private int[] mUrlSuffixes;
+
+    /** Spatial index of the rows, built when first asked for and dropped on every change */
+    private EarthquakeSpatialIndex mSpatialIndex;
+
+    /** Time and magnitude index of the rows, built and dropped like {@link #mSpatialIndex} */
+    private EarthquakeQueryEngine mQueryEngine;
+
+    /** Distinct Strings, indexed by the int columns above */
+    private final List<String> mStrings = new ArrayList<>();
+
+    /** Index of each String in {@link #mStrings} */
+    private final Map<String, Integer> mStringIndices = new HashMap<>();
+
+    /**
+     * A lightweight view of one row of the store. Move it with {@link #moveTo(int)} to read
+     * another row without allocating.
+     */
+    public static class Row {
+
+        private final EarthquakeStore mStore;
+        private int mPosition;
+
+        private Row(EarthquakeStore store, int position) {
+            mStore = store;
+            mPosition = position;
+        }
+
+        /** Point this view at another row and return it */
+        public Row moveTo(int position) {
+            mPosition = position;
+            return this;
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
+
+        public String getId() {
+            return mStore.getId(mPosition);
+        }
+
+        public double getMagnitude() {
+            return mStore.getMagnitude(mPosition);
+        }
+
+        public long getTimeInMilliseconds() {
+            return mStore.getTimeInMilliseconds(mPosition);
+        }
+
+        public String getLocationOffset() {
+            return mStore.getLocationOffset(mPosition);
+        }
+
+        public String getPrimaryLocation() {
+            return mStore.getPrimaryLocation(mPosition);
+        }
+
+        public double getLatitude() {
+            return mStore.getLatitude(mPosition);
+        }
+
+        public double getLongitude() {
+            return mStore.getLongitude(mPosition);
+        }
+    }
+
+    /**
+     * Create an empty store.
+     */
+    public EarthquakeStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty store with room for the given number of rows.
+     */
+    public EarthquakeStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mDepths = new double[capacity];
+        mIds = new int[capacity];
+        mLocationOffsets = new int[capacity];
+        mPrimaryLocations = new int[capacity];
+        mUrlPrefixes = new int[capacity];
+        mUrlSuffixes = new int[capacity];
+    }
+
+    /**
+     * Create a store holding the given earthquakes.
+     */
+    public static EarthquakeStore from(List<Earthquake> earthquakes) {
+        EarthquakeStore store = new EarthquakeStore(earthquakes.size());
+        store.addAll(earthquakes);
+        return store;
+    }
+
+    /** Returns the number of earthquakes in the store */
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns true if the store holds no earthquakes */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** Remove every earthquake (the String pool is kept for reuse) */
+    public void clear() {
+        mSize = 0;
+        mSpatialIndex = null;
+        mQueryEngine = null;
+    }
+
+    /** Append every earthquake of the list */
+    public void addAll(List<Earthquake> earthquakes) {
+        ensureCapacity(mSize + earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            add(earthquakes.get(i));
+        }
+    }
+
+    /** Append one earthquake */
+    public void add(Earthquake earthquake) {
+        // Take the location and url in parts, which pooled earthquakes hold as they are.
+        add(earthquake.getId(), earthquake.getMagnitude(), earthquake.getLocationOffset(),
+                earthquake.getPrimaryLocation(), earthquake.getTimeInMilliseconds(),
+                earthquake.getUrlPrefix(), earthquake.getUrlSuffix(),
+                earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepth());
+    }
+
+    /** Append one earthquake given its fields, without coordinates */
+    public void add(String id, double magnitude, String location, long timeInMilliseconds,
+                    String url) {
+        add(id, magnitude, location, timeInMilliseconds, url,
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /** Append one earthquake given its fields; pass NaN for unknown coordinates */
+    public void add(String id, double magnitude, String location, long timeInMilliseconds,
+                    String url, double latitude, double longitude, double depth) {
+        int slash = url.lastIndexOf('/') + 1;
+        add(id, magnitude, EarthquakeFormatter.getLocationOffset(location),
+                EarthquakeFormatter.getPrimaryLocation(location), timeInMilliseconds,
+                url.substring(0, slash), url.substring(slash), latitude, longitude, depth);
+    }
+
+    /** Append one earthquake given its fields, with the location and url in parts */
+    private void add(String id, double magnitude, String locationOffset, String primaryLocation,
+                     long timeInMilliseconds, String urlPrefix, String urlSuffix,
+                     double latitude, double longitude, double depth) {
+        ensureCapacity(mSize + 1);
+        int row = mSize;
+        mMagnitudes[row] = magnitude;
+        mTimes[row] = timeInMilliseconds;
+        mLatitudes[row] = latitude;
+        mLongitudes[row] = longitude;
+        mDepths[row] = depth;
+        mIds[row] = intern(id);
+
+        mLocationOffsets[row] = locationOffset != null ? intern(locationOffset) : NO_STRING;
+        mPrimaryLocations[row] = intern(primaryLocation);
+        mUrlPrefixes[row] = intern(urlPrefix);
+        mUrlSuffixes[row] = intern(urlSuffix);
+        mSize++;
+        mSpatialIndex = null;
+        mQueryEngine = null;
+    }
+
+    /**
+     * Returns a spatial index of the rows, for radius, rectangle and nearest lookups. It is
+     * built on first use (in O(n)) and kept until the store changes.
+     */
+    public EarthquakeSpatialIndex getSpatialIndex() {
+        if (mSpatialIndex == null) {
+            mSpatialIndex = EarthquakeSpatialIndex.from(this);
+        }
+        return mSpatialIndex;
+    }
+
+    /**
+     * Returns a time and magnitude index of the rows, for local filtering and ranking. It is
+     * built on first use (in O(n log n)) and kept until the store changes.
+     */
+    public EarthquakeQueryEngine getQueryEngine() {
+        if (mQueryEngine == null) {
+            mQueryEngine = new EarthquakeQueryEngine(this);
+        }
+        return mQueryEngine;
+    }
+
+    /**
+     * Returns a new store holding the rows at the given positions, in that order, for example
+     * the result of an {@link EarthquakeQueryEngine} query to hand to the adapter.
+     */
+    public EarthquakeStore select(int[] positions) {
+        EarthquakeStore selection = new EarthquakeStore(positions.length);
+        for (int position : positions) {
+            checkPosition(position);
+            int row = selection.mSize;
+            selection.mMagnitudes[row] = mMagnitudes[position];
+            selection.mTimes[row] = mTimes[position];
+            selection.mLatitudes[row] = mLatitudes[position];
+            selection.mLongitudes[row] = mLongitudes[position];
+            selection.mDepths[row] = mDepths[position];
+            selection.mIds[row] = selection.intern(mStrings.get(mIds[position]));
+            int offset = mLocationOffsets[position];
+            selection.mLocationOffsets[row] = offset == NO_STRING
+                    ? NO_STRING : selection.intern(mStrings.get(offset));
+            selection.mPrimaryLocations[row] =
+                    selection.intern(mStrings.get(mPrimaryLocations[position]));
+            selection.mUrlPrefixes[row] = selection.intern(mStrings.get(mUrlPrefixes[position]));
+            selection.mUrlSuffixes[row] = selection.intern(mStrings.get(mUrlSuffixes[position]));
+            selection.mSize++;
+        }
+        return selection;
+    }
+
+    /** Returns a new view of the given row, to be moved around with {@link Row#moveTo(int)} */
+    public Row row(int position) {
+        return new Row(this, position);
+    }
+
+    /** Returns the earthquake at the given row as a new {@link Earthquake} object */
+    public Earthquake get(int position) {
+        // Hand over the parts, so the earthquake shares the store's Strings.
+        checkPosition(position);
+        return new Earthquake(getId(position), getMagnitude(position),
+                getLocationOffset(position), getPrimaryLocation(position),
+                getTimeInMilliseconds(position), mStrings.get(mUrlPrefixes[position]),
+                mStrings.get(mUrlSuffixes[position]), 0, false, getLatitude(position),
+                getLongitude(position), getDepth(position));
+    }
+
+    /** Returns every earthquake of the store as new {@link Earthquake} objects */
+    public List<Earthquake> toList() {
+        List<Earthquake> earthquakes = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            earthquakes.add(get(i));
+        }
+        return earthquakes;
+    }
+
+    public String getId(int position) {
+        return mStrings.get(mIds[checkPosition(position)]);
+    }
+
+    public double getMagnitude(int position) {
+        return mMagnitudes[checkPosition(position)];
+    }
+
+    public long getTimeInMilliseconds(int position) {
+        return mTimes[checkPosition(position)];
+    }
+
+    /** Returns the latitude of the epicenter in degrees, or NaN if not known */
+    public double getLatitude(int position) {
+        return mLatitudes[checkPosition(position)];
+    }
+
+    /** Returns the longitude of the epicenter in degrees, or NaN if not known */
+    public double getLongitude(int position) {
+        return mLongitudes[checkPosition(position)];
+    }
+
+    /** Returns the depth of the hypocenter in kilometers, or NaN if not known */
+    public double getDepth(int position) {
+        return mDepths[checkPosition(position)];
+    }
+
+    /**
+     * Returns the offset part of the location, separator included ("5km N of "), or null if
+     * the location has none.
+     */
+    public String getLocationOffset(int position) {
+        int index = mLocationOffsets[checkPosition(position)];
+        return index == NO_STRING ? null : mStrings.get(index);
+    }
+
+    /** Returns the primary part of the location ("Cairo, Egypt") */
+    public String getPrimaryLocation(int position) {
+        return mStrings.get(mPrimaryLocations[checkPosition(position)]);
+    }
+
+    /** Returns the full location ("5km N of Cairo, Egypt"). This allocates a new String. */
+    public String getLocation(int position) {
+        String offset = getLocationOffset(position);
+        String primary = getPrimaryLocation(position);
+        return offset == null ? primary : offset.concat(primary);
+    }
+
+    /** Returns the url of the earthquake. This allocates a new String. */
+    public String getUrl(int position) {
+        checkPosition(position);
+        return mStrings.get(mUrlPrefixes[position]).concat(mStrings.get(mUrlSuffixes[position]));
+    }
+
+    /**
+     * Returns true if the earthquake at the given position has the same magnitude, time,
+     * coordinates, location and url as the one at {@code otherPosition} in the other store.
+     */
+    public boolean contentEquals(int position, EarthquakeStore other, int otherPosition) {
+        checkPosition(position);
+        other.checkPosition(otherPosition);
+        return mMagnitudes[position] == other.mMagnitudes[otherPosition]
+                && mTimes[position] == other.mTimes[otherPosition]
+                // Compared as bits, so two unknown (NaN) coordinates are equal.
+                && Double.compare(mLatitudes[position], other.mLatitudes[otherPosition]) == 0
+                && Double.compare(mLongitudes[position], other.mLongitudes[otherPosition]) == 0
+                && Double.compare(mDepths[position], other.mDepths[otherPosition]) == 0
+                && sameString(mLocationOffsets[position], other,
+                        other.mLocationOffsets[otherPosition])
+                && sameString(mPrimaryLocations[position], other,
+                        other.mPrimaryLocations[otherPosition])
+                && sameString(mUrlPrefixes[position], other, other.mUrlPrefixes[otherPosition])
+                && sameString(mUrlSuffixes[position], other, other.mUrlSuffixes[otherPosition]);
+    }
+
+    /** Returns true if our pooled String and the other store's pooled String are equal */
+    private boolean sameString(int index, EarthquakeStore other, int otherIndex) {
+        if (index == NO_STRING || otherIndex == NO_STRING) {
+            return index == otherIndex;
+        }
+        return mStrings.get(index).equals(other.mStrings.get(otherIndex));
+    }
+
+    private int checkPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + mSize);
+        }
+        return position;
+    }
+
+    /** Returns the pool index of the String, adding it to the pool if needed */
+    private int intern(String string) {
+        Integer index = mStringIndices.get(string);
+        if (index == null) {
+            index = mStrings.size();
+            mStrings.add(string);
+            mStringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMagnitudes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mMagnitudes.length * 2);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mLocationOffsets = Arrays.copyOf(mLocationOffsets, newCapacity);
+        mPrimaryLocations = Arrays.copyOf(mPrimaryLocations, newCapacity);
+        mUrlPrefixes = Arrays.copyOf(mUrlPrefixes, newCapacity);
+        mUrlSuffixes = Arrays.copyOf(mUrlSuffixes, newCapacity);
+    }
+}
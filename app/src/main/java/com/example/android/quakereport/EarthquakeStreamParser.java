@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-style parser that reads {@link Earthquake}s straight off a USGS GeoJSON stream.
+ *
+ * Unlike {@link QueryUtils#extractFeatureFromJson(String)}, this never holds the whole response
+ * as a String or as a {@link org.json.JSONObject} tree. It walks "features[].properties" with a
+ * {@link JsonReader}, keeps only the fields we use (plus "geometry.coordinates") and skips
+ * everything else.
+ */
+public final class EarthquakeStreamParser {
+
+    /**
+     * Receives each {@link Earthquake} as soon as its feature has been parsed.
+     */
+    public interface Listener {
+        void onEarthquake(Earthquake earthquake);
+    }
+
+    /** Longitude, latitude and depth of a feature without a usable geometry */
+    private static final double[] NO_COORDINATES = {Double.NaN, Double.NaN, Double.NaN};
+
+    /** Status USGS gives an event it has deleted */
+    static final String STATUS_DELETED = "deleted";
+
+    private EarthquakeStreamParser() {
+    }
+
+    /**
+     * Parse the whole stream and return the list of {@link Earthquake}s it contains.
+     */
+    public static List<Earthquake> parse(InputStream inputStream) throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        parse(inputStream, new Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+    /**
+     * Parse the stream, handing every {@link Earthquake} to the listener as it is read.
+     *
+     * @return the number of earthquakes emitted
+     * @throws IOException if the stream cannot be read or is not a GeoJSON feature collection
+     */
+    public static int parse(InputStream inputStream, Listener listener) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            return readFeatureCollection(reader, listener);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader throws these when the JSON is not shaped as we expect, for example
+            // when the top level is an array, or a number turns out to be text.
+            throw new IOException("Unexpected JSON in the response", e);
+        }
+    }
+
+    /**
+     * Read the top-level object, handing every {@link Earthquake} of its "features" to the
+     * listener, and return how many there were.
+     */
+    private static int readFeatureCollection(JsonReader reader, Listener listener)
+            throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("features".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    // Stop soon after the load is cancelled.
+                    EarthquakeLoadExecutor.throwIfInterrupted();
+                    Earthquake earthquake = readFeature(reader);
+                    if (earthquake != null) {
+                        listener.onEarthquake(earthquake);
+                        count++;
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    /**
+     * Read a single feature object, returning null if it has no "properties".
+     */
+    private static Earthquake readFeature(JsonReader reader) throws IOException {
+        // USGS puts the "id" after the "properties", so collect everything before building
+        // the earthquake.
+        FeatureFields fields = null;
+        String id = "";
+        double[] coordinates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("properties".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                fields = readProperties(reader);
+            } else if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if ("geometry".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                coordinates = readCoordinates(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (fields == null) {
+            return null;
+        }
+        if (coordinates == null) {
+            coordinates = NO_COORDINATES;
+        }
+        // Share repeated places and url prefixes with the earthquakes read before.
+        return EarthquakeStringPool.getShared().newEarthquake(id, fields.magnitude,
+                fields.location, fields.time, fields.url, fields.updated, fields.deleted,
+                coordinates[1], coordinates[0], coordinates[2]);
+    }
+
+    /**
+     * Read the "properties" object of a feature, keeping only mag, place, time, url, updated
+     * and whether the status is "deleted".
+     */
+    private static FeatureFields readProperties(JsonReader reader) throws IOException {
+        FeatureFields fields = new FeatureFields();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("mag".equals(name)) {
+                fields.magnitude = reader.nextDouble();
+            } else if ("place".equals(name)) {
+                fields.location = reader.nextString();
+            } else if ("time".equals(name)) {
+                fields.time = reader.nextLong();
+            } else if ("url".equals(name)) {
+                fields.url = reader.nextString();
+            } else if ("updated".equals(name)) {
+                fields.updated = reader.nextLong();
+            } else if ("status".equals(name)) {
+                fields.deleted = STATUS_DELETED.equals(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    /**
+     * Read the "geometry" object of a feature and return its "coordinates" as longitude,
+     * latitude and depth (NaN where missing), or null if it has no coordinates.
+     */
+    private static double[] readCoordinates(JsonReader reader) throws IOException {
+        double[] coordinates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("coordinates".equals(reader.nextName())
+                    && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                coordinates = NO_COORDINATES.clone();
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i < coordinates.length && reader.peek() == JsonToken.NUMBER) {
+                        coordinates[i] = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return coordinates;
+    }
+
+    /**
+     * The fields of a feature we keep, while the rest of the feature is still being read.
+     */
+    private static class FeatureFields {
+        double magnitude;
+        String location = "";
+        long time;
+        String url = "";
+        long updated;
+        boolean deleted;
+    }
+}
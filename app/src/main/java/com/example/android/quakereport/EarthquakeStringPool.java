@@ -0,0 +1,114 @@
+package com.example.android.quakereport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link EarthquakeStringPool} makes the earthquakes read by the parsers share their repeated
+ * Strings. USGS places repeat a lot ("Fiji region", "Alaska", "5km N of ") and every url starts
+ * with "https://earthquake.usgs.gov/earthquakes/eventpage/", yet a parser hands out a new
+ * String for each of them in every feature.
+ *
+ * {@link #newEarthquake} splits the location into its offset and primary parts and the url
+ * into its prefix and the event id, then keeps one canonical copy of each offset, primary
+ * location and url prefix. The url suffix is the id String itself when they are equal, as
+ * they are for USGS. So a large catalogue holds each place name once, rather than once per
+ * earthquake.
+ *
+ * The pool keeps at most a given number of Strings. Once full it hands Strings back as they
+ * are, so a stream of unusual places cannot grow it without end. It is safe to use from
+ * several threads. This is plain Java, so it also runs on a desktop JVM.
+ */
+public final class EarthquakeStringPool {
+
+    /** Default largest number of Strings kept */
+    public static final int DEFAULT_MAX_SIZE = 8192;
+
+    /** Pool shared by the parsers */
+    private static final EarthquakeStringPool sShared = new EarthquakeStringPool(DEFAULT_MAX_SIZE);
+
+    /** Largest number of Strings kept */
+    private final int mMaxSize;
+
+    /** The canonical copy of every String kept, keyed by itself */
+    private final ConcurrentMap<String, String> mStrings = new ConcurrentHashMap<>();
+
+    /** Returns the pool shared by the parsers */
+    public static EarthquakeStringPool getShared() {
+        return sShared;
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param maxSize largest number of Strings kept
+     */
+    public EarthquakeStringPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The pool must hold at least one String");
+        }
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the canonical copy of the String: the one kept by the pool if it is equal, or
+     * else the String itself, which is kept if there is room. Returns null for null.
+     */
+    public String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        String canonical = mStrings.get(string);
+        if (canonical != null) {
+            return canonical;
+        }
+        // The size check races with other threads adding, which may overshoot the limit by a
+        // few Strings; that is fine for a bound meant to stop unbounded growth.
+        if (mStrings.size() >= mMaxSize) {
+            return string;
+        }
+        canonical = mStrings.putIfAbsent(string, string);
+        return canonical != null ? canonical : string;
+    }
+
+    /** Returns the number of Strings kept */
+    public int size() {
+        return mStrings.size();
+    }
+
+    /** Forget every String kept. Earthquakes already made keep the copies they share. */
+    public void clear() {
+        mStrings.clear();
+    }
+
+    /**
+     * Returns a new {@link Earthquake} holding its location and url as canonical parts. Takes
+     * the same arguments as the public {@link Earthquake} constructor.
+     */
+    public Earthquake newEarthquake(String id, double magnitude, String location,
+                                    long timeInMilliseconds, String url, long updatedTime,
+                                    boolean deleted, double latitude, double longitude,
+                                    double depth) {
+        String locationOffset = null;
+        String primaryLocation = null;
+        if (location != null) {
+            locationOffset = intern(EarthquakeFormatter.getLocationOffset(location));
+            primaryLocation = intern(EarthquakeFormatter.getPrimaryLocation(location));
+        }
+
+        String urlPrefix = null;
+        String urlSuffix = null;
+        if (url != null) {
+            int slash = url.lastIndexOf('/') + 1;
+            urlPrefix = intern(url.substring(0, slash));
+            // The event page url ends with the id, so share the id String rather than keeping
+            // a second copy of it.
+            boolean endsWithId = id != null && url.length() - slash == id.length()
+                    && url.startsWith(id, slash);
+            urlSuffix = endsWithId ? id : url.substring(slash);
+        }
+        return new Earthquake(id, magnitude, locationOffset, primaryLocation,
+                timeInMilliseconds, urlPrefix, urlSuffix, updatedTime, deleted, latitude,
+                longitude, depth);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EarthquakeSyncEngine} keeps a local copy of the earthquakes of an
+ * {@link EarthquakeQuery} up to date without downloading all of them on every refresh.
+ *
+ * The first sync fetches the whole query. After that, the engine remembers the latest
+ * "updated" time USGS reported (the high-water mark) and only asks for the events added,
+ * updated or deleted since then. Those are merged into the local copy by event id: a revision
+ * replaces the earthquake, a deletion removes it. A refresh with nothing new is a response with
+ * no features, however many earthquakes the query covers.
+ *
+ * The engine can follow a rolling time window ("the last 7 days"), in which case earthquakes
+ * that fall out of the window are dropped on every sync.
+ *
+ * The engine keeps {@link EarthquakeStatistics} of the local copy as it goes: a delta updates
+ * them earthquake by earthquake, and a full fetch rebuilds them.
+ */
+public class EarthquakeSyncEngine {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EarthquakeSyncEngine.class.getSimpleName();
+
+    /** The query to keep in sync; its time window is replaced if the window is rolling */
+    private final EarthquakeQuery mQuery;
+
+    /** Length of the rolling time window ending now, or 0 to use the query's own window */
+    private final long mRollingWindowMillis;
+
+    /** The local copy, by event id */
+    private final Map<String, Earthquake> mEarthquakesById = new HashMap<>();
+
+    /** Latest "updated" time seen in a response, or -1 before the first full fetch */
+    private long mHighWaterMark = -1;
+
+    /** The local copy, newest first, as returned by the last {@link #sync()} */
+    private List<Earthquake> mSorted = Collections.emptyList();
+
+    /** Statistics of the local copy */
+    private final EarthquakeStatistics mStatistics = new EarthquakeStatistics();
+
+    /**
+     * Create an engine that keeps the earthquakes of the query in sync.
+     */
+    public EarthquakeSyncEngine(EarthquakeQuery query) {
+        this(query, 0);
+    }
+
+    /**
+     * Create an engine that keeps the earthquakes of the last {@code windowMillis} milliseconds
+     * in sync, using the magnitude and location limits of the query (its time window is
+     * ignored).
+     */
+    public EarthquakeSyncEngine(EarthquakeQuery query, long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Window length must not be negative");
+        }
+        mQuery = query;
+        mRollingWindowMillis = windowMillis;
+    }
+
+    /**
+     * Bring the local copy up to date and return it, newest first. If the request fails, the
+     * local copy is returned as it was, or null if there has never been a successful sync.
+     * Call this on a background thread.
+     */
+    public List<Earthquake> sync() {
+        return sync(true);
+    }
+
+    /**
+     * Bring the local copy up to date and return it, newest first. Call this on a background
+     * thread.
+     *
+     * @param fallBackToLocalCopy whether to return the local copy as it was when the request
+     *                            fails, rather than null; a refresh scheduler wants null, so it
+     *                            backs off
+     */
+    public synchronized List<Earthquake> sync(boolean fallBackToLocalCopy) {
+        EarthquakeQuery query = currentQuery();
+        boolean full = mHighWaterMark < 0;
+        List<Earthquake> response = fetch(query, full);
+
+        // A delta that hit the USGS limit may be missing events, so start over.
+        if (!full && response != null
+                && response.size() >= EarthquakeQuery.MAX_EVENTS_PER_REQUEST) {
+            Log.i(LOG_TAG, "Too many changes for a delta, fetching everything again");
+            full = true;
+            response = fetch(query, true);
+        }
+        if (response == null) {
+            return fallBackToLocalCopy && mHighWaterMark >= 0 ? mSorted : null;
+        }
+
+        boolean changed = full;
+        if (full) {
+            mEarthquakesById.clear();
+        }
+        for (Earthquake earthquake : response) {
+            mHighWaterMark = Math.max(mHighWaterMark, earthquake.getUpdatedTime());
+            if (earthquake.getId().isEmpty()) {
+                // Without an id it cannot be matched by later deltas.
+                continue;
+            }
+            if (earthquake.isDeleted()) {
+                changed |= mEarthquakesById.remove(earthquake.getId()) != null;
+            } else {
+                mEarthquakesById.put(earthquake.getId(), earthquake);
+                changed = true;
+            }
+            if (!full) {
+                mStatistics.add(earthquake);
+            }
+        }
+        if (full && mHighWaterMark < 0) {
+            // Nothing matched the query: ask for anything updated since the window started.
+            mHighWaterMark = query.getStartTime();
+        }
+        changed |= dropOutsideWindow(query);
+        if (full) {
+            mStatistics.rebuild(new ArrayList<>(mEarthquakesById.values()));
+        }
+
+        if (changed) {
+            List<Earthquake> sorted = new ArrayList<>(mEarthquakesById.values());
+            Collections.sort(sorted, EarthquakeFetchEngine.NEWEST_FIRST);
+            mSorted = Collections.unmodifiableList(sorted);
+        }
+        return mSorted;
+    }
+
+    /**
+     * Returns the latest "updated" time (in milliseconds from the Epoch) seen so far, or -1 if
+     * there has not been a successful sync yet.
+     */
+    public synchronized long getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /**
+     * Returns the statistics of the local copy, kept up to date by {@link #sync()}.
+     */
+    public EarthquakeStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Forget the local copy, so the next {@link #sync()} fetches the whole query again.
+     */
+    public synchronized void reset() {
+        mEarthquakesById.clear();
+        mHighWaterMark = -1;
+        mSorted = Collections.emptyList();
+        mStatistics.clear();
+    }
+
+    /** Returns the query with the time window this sync should cover */
+    private EarthquakeQuery currentQuery() {
+        if (mRollingWindowMillis == 0) {
+            return mQuery;
+        }
+        long now = System.currentTimeMillis();
+        return mQuery.withTimeWindow(now - mRollingWindowMillis, now);
+    }
+
+    /** Fetch the whole query, or the changes since the high-water mark */
+    private List<Earthquake> fetch(EarthquakeQuery query, boolean full) {
+        String url = full ? query.toUrl()
+                : query.toDeltaUrl(mHighWaterMark, EarthquakeQuery.MAX_EVENTS_PER_REQUEST);
+        // Every delta URL is different, so there is no point in caching the responses.
+        return QueryUtils.fetchEarthquakeDataUncached(url);
+    }
+
+    /** Drop the earthquakes before the start of the window. Returns true if any were dropped */
+    private boolean dropOutsideWindow(EarthquakeQuery query) {
+        boolean dropped = false;
+        Iterator<Earthquake> iterator = mEarthquakesById.values().iterator();
+        while (iterator.hasNext()) {
+            Earthquake earthquake = iterator.next();
+            if (earthquake.getTimeInMilliseconds() < query.getStartTime()) {
+                iterator.remove();
+                mStatistics.remove(earthquake.getId());
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+}
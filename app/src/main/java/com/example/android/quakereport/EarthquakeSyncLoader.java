@@ -0,0 +1,78 @@
+package com.example.android.quakereport;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+/**
+ * Brings the stored earthquakes up to date through an {@link EarthquakeRefreshScheduler}.
+ *
+ * The download is written to the database by {@link QueryUtils}, and the list reads its pages
+ * from there, so the loader has nothing to hand over: it does not build a store or format any
+ * row, and only delivers whether the scheduler has the earthquakes of a successful refresh.
+ * A load before the next refresh is due downloads nothing, and loads that overlap with the
+ * scheduler's periodic refresh share its download.
+ */
+public class EarthquakeSyncLoader extends AsyncTaskLoader<Boolean> {
+
+    private final EarthquakeRefreshScheduler mRefreshScheduler;
+
+    /** The last result, delivered again straight away when the loader is restarted */
+    private Boolean mResult;
+
+    /**
+     * Constructs a new {@link EarthquakeSyncLoader}.
+     *
+     * @param context of the activity
+     * @param refreshScheduler deciding when USGS is asked again
+     */
+    public EarthquakeSyncLoader(Context context, EarthquakeRefreshScheduler refreshScheduler) {
+        super(context);
+        mRefreshScheduler = refreshScheduler;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mResult != null) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || mResult == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(Boolean data) {
+        if (isReset()) {
+            return;
+        }
+        mResult = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mResult = null;
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public Boolean loadInBackground() {
+        try {
+            return mRefreshScheduler.refreshIfDue(null) != null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
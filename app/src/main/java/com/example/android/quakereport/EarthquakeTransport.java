@@ -0,0 +1,41 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link EarthquakeTransport} performs the HTTP GET requests of {@link QueryUtils}, so the way
+ * earthquake data is transferred can be swapped out (for example to talk to a local server).
+ */
+public interface EarthquakeTransport {
+
+    /**
+     * Send a GET request for the URL with the given extra request headers.
+     * The caller must close the returned response.
+     */
+    Response get(URL url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * The response of a request: its status code, headers and body.
+     */
+    interface Response extends Closeable {
+
+        /** Returns the HTTP status code (i.e. 200) */
+        int getCode() throws IOException;
+
+        /** Returns the value of the response header, or null if it is missing */
+        String getHeader(String name);
+
+        /** Returns the response body, already decompressed */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Drop the connection, so a read blocked on it (on another thread) fails straight
+         * away. The connection cannot be reused afterwards. Safe to call from any thread.
+         */
+        void abort();
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Default {@link EarthquakeTransport}, built on {@link HttpURLConnection}.
+ *
+ * It asks for gzip-compressed responses and decompresses them while they are being read. It
+ * only calls {@link HttpURLConnection#disconnect()} to abort a response: closing a response
+ * returns its connection to the platform's keep-alive pool, so the next request to USGS skips
+ * the TCP and TLS handshakes.
+ *
+ * When {@link EarthquakeMetrics} is recording, it times the connection and the wait for the
+ * first byte, and counts the body bytes as they come off the network.
+ */
+public class HttpUrlConnectionTransport implements EarthquakeTransport {
+
+    /** Default time (in milliseconds) allowed to open a connection */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+
+    /** Default time (in milliseconds) allowed between two reads of the response */
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+
+    private final int mConnectTimeoutMs;
+    private final int mReadTimeoutMs;
+
+    /**
+     * Create a transport with the default timeouts.
+     */
+    public HttpUrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * Create a transport with the given timeouts, in milliseconds.
+     */
+    public HttpUrlConnectionTransport(int connectTimeoutMs, int readTimeoutMs) {
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        long start = EarthquakeMetrics.start();
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mConnectTimeoutMs);
+        urlConnection.setReadTimeout(mReadTimeoutMs);
+        urlConnection.setRequestMethod("GET");
+        // Setting this ourselves turns off any transparent decompression, so the body is
+        // unzipped in ConnectionResponse.getBody().
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        urlConnection.connect();
+        EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_CONNECT, start);
+        return new ConnectionResponse(urlConnection, start);
+    }
+
+    /**
+     * A response read from an {@link HttpURLConnection}.
+     */
+    private static class ConnectionResponse implements Response {
+
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+
+        /** When the request was started, or 0 once the first byte was timed (or not timed) */
+        private long mStartNanos;
+
+        ConnectionResponse(HttpURLConnection connection, long startNanos) {
+            mConnection = connection;
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public int getCode() throws IOException {
+            // The status is the first thing the server sends back, so the first call blocks
+            // until the first byte arrives.
+            int code = mConnection.getResponseCode();
+            EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_FIRST_BYTE, mStartNanos);
+            mStartNanos = 0;
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream body = getCode() < 400
+                        ? mConnection.getInputStream() : mConnection.getErrorStream();
+                if (body != null && EarthquakeMetrics.isEnabled()) {
+                    // Count the bytes as transferred, before they are unzipped.
+                    body = new CountingInputStream(body);
+                }
+                if (body != null && "gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    body = new GZIPInputStream(body);
+                }
+                mBody = body;
+            }
+            return mBody;
+        }
+
+        @Override
+        public void abort() {
+            // Closes the socket, which makes a blocked read throw.
+            mConnection.disconnect();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Close the body (even an unread one) rather than disconnecting, so the connection
+            // can go back to the keep-alive pool.
+            InputStream body = mBody;
+            if (body == null) {
+                body = getCode() < 400
+                        ? mConnection.getInputStream() : mConnection.getErrorStream();
+            }
+            if (body != null) {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the number of bytes read through it to {@link EarthquakeMetrics#COUNTER_BYTES_RECEIVED}.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_BYTES_RECEIVED, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_BYTES_RECEIVED, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_BYTES_RECEIVED, skipped);
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+
+/**
+ * An {@link Earthquake} read by {@link EarthquakeByteParser#parseLazily} that keeps its id,
+ * location and url as byte ranges of the response rather than as Strings. Each String is only
+ * decoded the first time it is asked for, so a large response costs String allocations only
+ * for the earthquakes that are looked at. The numbers are decoded up front, so sorting,
+ * filtering and skipping a revision the database has already never decode a location or url.
+ *
+ * The response buffer is shared by every earthquake read from it and stays in memory as long
+ * as any of them does.
+ */
+final class LazyEarthquake extends Earthquake {
+
+    private final byte[] mBuffer;
+
+    /**
+     * Byte ranges, between the quotes, of the JSON strings; {@link EarthquakeByteParser#MISSING}
+     * if absent
+     */
+    private final int mIdStart;
+    private final int mIdEnd;
+    private final int mLocationStart;
+    private final int mLocationEnd;
+    private final int mUrlStart;
+    private final int mUrlEnd;
+
+    /**
+     * Decoded Strings, null until first asked for. Two threads asking at once may both decode
+     * a String, which is harmless: Strings are immutable and equal either way.
+     */
+    private String mId;
+    private String mLocation;
+    private String mUrl;
+
+    LazyEarthquake(byte[] buffer, int idStart, int idEnd, double magnitude, int locationStart,
+                   int locationEnd, long timeInMilliseconds, int urlStart, int urlEnd,
+                   long updatedTime, boolean deleted, double latitude, double longitude,
+                   double depth) {
+        super(null, magnitude, null, timeInMilliseconds, null, updatedTime, deleted, latitude,
+                longitude, depth);
+        mBuffer = buffer;
+        mIdStart = idStart;
+        mIdEnd = idEnd;
+        mLocationStart = locationStart;
+        mLocationEnd = locationEnd;
+        mUrlStart = urlStart;
+        mUrlEnd = urlEnd;
+    }
+
+    @Override
+    public String getId() {
+        String id = mId;
+        if (id == null) {
+            id = decode(mIdStart, mIdEnd);
+            mId = id;
+        }
+        return id;
+    }
+
+    @Override
+    public String getLocation() {
+        String location = mLocation;
+        if (location == null) {
+            location = decode(mLocationStart, mLocationEnd);
+            mLocation = location;
+        }
+        return location;
+    }
+
+    @Override
+    public String getUrl() {
+        String url = mUrl;
+        if (url == null) {
+            url = decode(mUrlStart, mUrlEnd);
+            mUrl = url;
+        }
+        return url;
+    }
+
+    private String decode(int start, int end) {
+        try {
+            return EarthquakeByteParser.decode(mBuffer, start, end);
+        } catch (IOException e) {
+            // The parser checked the escapes before it made this earthquake.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,21 +1,21 @@
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -25,6 +25,21 @@ public final class QueryUtils {
     /** Tag for the log messages */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Transport used to send the HTTP requests */
+    private static volatile EarthquakeTransport sTransport = new HttpUrlConnectionTransport();
+
+    /** Disk cache for parsed responses, or null if responses are not cached */
+    private static volatile EarthquakeDiskCache sDiskCache;
+
+    /** Memory cache for parsed responses, shared by the whole process, or null if none */
+    private static volatile EarthquakeMemoryCache sMemoryCache;
+
+    /** Database every downloaded earthquake is written to, or null if none */
+    private static volatile EarthquakeDatabase sDatabase;
+
+    /** Number of threads a large response is parsed on */
+    private static volatile int sParseThreadCount = EarthquakeByteParser.DEFAULT_THREAD_COUNT;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -50,24 +65,204 @@ public final class QueryUtils {
      * Query the USGS dataset and return a list of {@link Earthquake} objects.
      */
     public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
+        return fetchEarthquakeData(requestUrl, null);
+    }
+
+    /**
+     * Query the USGS dataset and return a list of {@link Earthquake} objects, also handing each
+     * one to the given listener (if not null) as soon as it has been parsed.
+     *
+     * If a memory cache has been set, a fresh result from it is returned without touching the
+     * disk, the network or the parser, and a request for a URL that is already being fetched
+     * waits for that fetch rather than starting its own.
+     *
+     * If a disk cache has been set, a fresh cached result is returned without touching the
+     * network, a stale one is revalidated with a conditional request, and the cached result is
+     * also used when the request fails (for example when the device is offline).
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl,
+                                                       EarthquakeStreamParser.Listener listener) {
+        return fetchEarthquakeData(requestUrl, listener, true);
+    }
+
+    /**
+     * Like {@link #fetchEarthquakeData(String, EarthquakeStreamParser.Listener)}, but when
+     * {@code fallBackToCache} is false a failed request returns null instead of a stale cached
+     * result, so the caller can tell that the request failed (and back off, for example).
+     */
+    public static List<Earthquake> fetchEarthquakeData(final String requestUrl,
+                                                       final EarthquakeStreamParser.Listener listener,
+                                                       boolean fallBackToCache) {
+        EarthquakeMemoryCache memoryCache = sMemoryCache;
+        if (memoryCache == null) {
+            return fetchFromDiskOrNetwork(requestUrl, listener, fallBackToCache);
+        }
+
+        // Share the fetch with any other thread asking for the same URL. It never falls back on
+        // stale data itself, as not every caller wants that.
+        final boolean[] fetchedHere = new boolean[1];
+        List<Earthquake> earthquakes;
+        try {
+            earthquakes = memoryCache.getOrFetch(requestUrl, new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() {
+                    fetchedHere[0] = true;
+                    return fetchFromDiskOrNetwork(requestUrl, listener, false);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (earthquakes == null) {
+            List<Earthquake> stale = fallBackToCache ? getCachedEarthquakeData(requestUrl) : null;
+            return stale != null ? deliver(stale, listener) : null;
+        }
+        // The listener only saw the earthquakes being parsed if the fetch ran on this thread.
+        return fetchedHere[0] ? earthquakes : deliver(earthquakes, listener);
+    }
+
+    /**
+     * Fetch the earthquakes from the disk cache or the network, as described in
+     * {@link #fetchEarthquakeData(String, EarthquakeStreamParser.Listener)}.
+     */
+    private static List<Earthquake> fetchFromDiskOrNetwork(String requestUrl,
+                                                           EarthquakeStreamParser.Listener listener,
+                                                           boolean fallBackToCache) {
+        EarthquakeDiskCache cache = sDiskCache;
+        EarthquakeDiskCache.Entry cached = cache != null ? cache.get(requestUrl) : null;
+        if (cached != null && cache.isFresh(cached)) {
+            return deliver(cached.getEarthquakes(), listener);
+        }
+
         // Create URL object
         URL url = createUrl(requestUrl);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response as it streams in
+        List<Earthquake> earthquakes = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            earthquakes = makeHttpRequest(url, listener, requestUrl, cached, cache, false);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem making the HTTP request.", e);
         }
 
-        // Extract relevant fields from the JSON response and create a list of {@link Earthquake}s
-        List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
+        // If the request failed, fall back to whatever we have on disk, even if it is stale.
+        if (earthquakes == null && cached != null && fallBackToCache) {
+            return deliver(cached.getEarthquakes(), listener);
+        }
 
         // Return the list of {@link Earthquake}s
         return earthquakes;
     }
 
+    /**
+     * Query the USGS dataset and return a list of {@link Earthquake} objects, or null if the
+     * request failed. This always goes to the network and never touches the disk cache, which
+     * suits one-off requests such as the deltas of {@link EarthquakeSyncEngine}.
+     *
+     * The earthquakes are {@link LazyEarthquake}s: nothing here needs their Strings, and the
+     * database only asks for the location and url of the ones it writes, so a refresh that
+     * mostly brings revisions stored already decodes few of them.
+     */
+    public static List<Earthquake> fetchEarthquakeDataUncached(String requestUrl) {
+        try {
+            return makeHttpRequest(createUrl(requestUrl), null, requestUrl, null, null, true);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Set the disk cache used by {@link #fetchEarthquakeData(String)}, or null to disable it.
+     */
+    public static void setDiskCache(EarthquakeDiskCache cache) {
+        sDiskCache = cache;
+    }
+
+    /**
+     * Set the memory cache used by {@link #fetchEarthquakeData(String)}, or null to disable it.
+     */
+    public static void setMemoryCache(EarthquakeMemoryCache cache) {
+        sMemoryCache = cache;
+    }
+
+    /**
+     * Returns the memory cache used by {@link #fetchEarthquakeData(String)}, or null if none
+     * is set.
+     */
+    public static EarthquakeMemoryCache getMemoryCache() {
+        return sMemoryCache;
+    }
+
+    /**
+     * Set the database every downloaded earthquake is written to, or null to stop writing them.
+     */
+    public static void setDatabase(EarthquakeDatabase database) {
+        sDatabase = database;
+    }
+
+    /**
+     * Returns the database every downloaded earthquake is written to, or null if none is set.
+     */
+    public static EarthquakeDatabase getDatabase() {
+        return sDatabase;
+    }
+
+    /**
+     * Set the number of threads a large response is parsed on, 1 to parse every response on
+     * the loading thread only.
+     */
+    public static void setParseThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        sParseThreadCount = threadCount;
+    }
+
+    /**
+     * Set the transport used to send the HTTP requests, or null to go back to the default
+     * {@link HttpUrlConnectionTransport}.
+     */
+    public static void setTransport(EarthquakeTransport transport) {
+        sTransport = transport != null ? transport : new HttpUrlConnectionTransport();
+    }
+
+    /**
+     * Returns the disk cache used by {@link #fetchEarthquakeData(String)}, or null if none is set.
+     */
+    public static EarthquakeDiskCache getDiskCache() {
+        return sDiskCache;
+    }
+
+    /**
+     * Returns the earthquakes cached in memory or on disk for the given URL, however old they
+     * are, or null if nothing is cached. This never touches the network.
+     */
+    public static List<Earthquake> getCachedEarthquakeData(String requestUrl) {
+        EarthquakeMemoryCache memoryCache = sMemoryCache;
+        List<Earthquake> inMemory = memoryCache != null ? memoryCache.getAnyAge(requestUrl) : null;
+        if (inMemory != null) {
+            return inMemory;
+        }
+        EarthquakeDiskCache cache = sDiskCache;
+        EarthquakeDiskCache.Entry cached = cache != null ? cache.get(requestUrl) : null;
+        return cached != null ? cached.getEarthquakes() : null;
+    }
+
+    /**
+     * Hand every earthquake of the list to the listener (if not null) and return the list.
+     */
+    private static List<Earthquake> deliver(List<Earthquake> earthquakes,
+                                            EarthquakeStreamParser.Listener listener) {
+        if (listener != null) {
+            for (Earthquake earthquake : earthquakes) {
+                listener.onEarthquake(earthquake);
+            }
+        }
+        return earthquakes;
+    }
+
     /**
      * Add for Networking QUIZ
      * Returns new URL object from the given string URL.
@@ -83,73 +278,225 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the list of {@link Earthquake}s parsed
+     * from the response, or null if the request failed. The response is stored in the given
+     * cache, if not null. Without a listener, the earthquakes are parsed lazily if
+     * {@code parseLazily} is true (see {@link #readAndParse}).
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static List<Earthquake> makeHttpRequest(URL url,
+                                                    final EarthquakeStreamParser.Listener listener,
+                                                    String requestUrl,
+                                                    EarthquakeDiskCache.Entry cached,
+                                                    EarthquakeDiskCache cache,
+                                                    boolean parseLazily)
+            throws IOException {
+        List<Earthquake> earthquakes = null;
 
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return earthquakes;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        // If we already have a copy, only ask for the response body if it has changed.
+        Map<String, String> requestHeaders = new HashMap<>();
+        if (cached != null) {
+            if (cached.getETag() != null) {
+                requestHeaders.put("If-None-Match", cached.getETag());
+            }
+            if (cached.getLastModified() != null) {
+                requestHeaders.put("If-Modified-Since", cached.getLastModified());
+            }
+        }
+
+        EarthquakeTransport.Response response = null;
+        Closeable abort = null;
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_REQUESTS, 1);
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            response = sTransport.get(url, requestHeaders);
+            // A blocked socket read does not notice interrupts, so a cancelled load aborts
+            // the response to stop the download.
+            final EarthquakeTransport.Response inFlight = response;
+            abort = new Closeable() {
+                @Override
+                public void close() {
+                    inFlight.abort();
+                }
+            };
+            EarthquakeLoadExecutor.closeOnCancel(abort);
+
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null
+                    && cache != null) {
+                // Our copy is still current: remember that the server just confirmed it.
+                earthquakes = deliver(cached.getEarthquakes(), listener);
+                cache.put(requestUrl, new EarthquakeDiskCache.Entry(earthquakes,
+                        cached.getETag(), cached.getLastModified(), System.currentTimeMillis()));
+                // The list reads the database, which may not have our copy yet (it is empty the
+                // first time the app runs after an update). Unchanged rows are skipped.
+                writeToDatabase(earthquakes);
+            } else if (responseCode == 200) {
+                // If the request was successful (response code 200),
+                // then read the input stream and parse the response.
+                InputStream inputStream = response.getBody();
+                if (listener != null) {
+                    earthquakes = streamAndParse(inputStream, listener);
+                } else {
+                    // Nobody shows the earthquakes as they come in, so read the raw bytes in
+                    // one go and parse them on as many threads as allowed.
+                    earthquakes = readAndParse(inputStream, getContentLength(response),
+                            parseLazily);
+                }
+
+                if (cache != null) {
+                    cache.put(requestUrl, new EarthquakeDiskCache.Entry(earthquakes,
+                            response.getHeader("ETag"),
+                            response.getHeader("Last-Modified"),
+                            System.currentTimeMillis()));
+                }
+                writeToDatabase(earthquakes);
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_FAILED_REQUESTS, 1);
             }
         } catch (IOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // The load was cancelled, which is not a failure of the request.
+                Log.d(LOG_TAG, "Cancelled the request for " + requestUrl);
+                EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_CANCELLED_REQUESTS, 1);
+                return null;
+            }
             Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results.", e);
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_FAILED_REQUESTS, 1);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (abort != null) {
+                EarthquakeLoadExecutor.removeCloseOnCancel(abort);
             }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
+            if (response != null && Thread.currentThread().isInterrupted()) {
+                // Nobody wants the rest of the body: drop the connection rather than
+                // reading it to the end.
+                response.abort();
+            } else if (response != null) {
+                // Closing the response could throw an IOException, which is why
                 // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
-                inputStream.close();
+                // could be thrown. Closing (rather than disconnecting) lets the transport
+                // reuse the connection for the next request.
+                response.close();
             }
         }
-        return jsonResponse;
+        return earthquakes;
     }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Parse the features straight off the connection, handing each one to the listener as soon
+     * as it is read, without first building up the whole response as a String and a
+     * JSONObject tree.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
+    private static List<Earthquake> streamAndParse(InputStream inputStream,
+                                                   final EarthquakeStreamParser.Listener listener)
+            throws IOException {
+        final List<Earthquake> parsed = new ArrayList<>();
+        long start = EarthquakeMetrics.start();
+        EarthquakeStreamParser.parse(inputStream, new EarthquakeStreamParser.Listener() {
+            @Override
+            public void onEarthquake(Earthquake earthquake) {
+                parsed.add(earthquake);
+                listener.onEarthquake(earthquake);
             }
+        });
+        EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_STREAM_PARSE, start);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_FEATURES_PARSED, parsed.size());
+        return parsed;
+    }
+
+    /**
+     * Read the whole response into a pooled buffer, with no decoding or copying on the way,
+     * and parse its bytes with {@link EarthquakeByteParser}. The Strings are decoded straight
+     * away, so the buffer goes back to the pool for the next fetch.
+     *
+     * If {@code lazily} is true, the Strings are left to {@link LazyEarthquake} instead. The
+     * earthquakes then keep the bytes, so they get a copy of just the body and the pooled
+     * buffer still goes back: copying the bytes costs far less than decoding them.
+     */
+    private static List<Earthquake> readAndParse(InputStream inputStream, int expectedLength,
+                                                 boolean lazily) throws IOException {
+        EarthquakeBufferPool pool = EarthquakeBufferPool.getShared();
+        long start = EarthquakeMetrics.start();
+        ByteBuffer body = pool.readFully(inputStream, expectedLength);
+        EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_READ, start);
+        try {
+            List<Earthquake> parsed = new ArrayList<>();
+            start = EarthquakeMetrics.start();
+            if (lazily) {
+                byte[] bytes = Arrays.copyOfRange(body.array(), body.arrayOffset(),
+                        body.arrayOffset() + body.limit());
+                EarthquakeByteParser.parseLazily(bytes, 0, bytes.length, parsed,
+                        sParseThreadCount);
+            } else {
+                EarthquakeByteParser.parse(body.array(), body.arrayOffset(), body.limit(),
+                        parsed, sParseThreadCount, EarthquakeStringPool.getShared());
+            }
+            EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_PARSE, start);
+            EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_FEATURES_PARSED, parsed.size());
+            return parsed;
+        } finally {
+            pool.release(body);
         }
-        return output.toString();
     }
 
+    /**
+     * Returns the length of the response body from its headers, or -1 if unknown. The
+     * Content-Length of a gzipped response counts the compressed bytes, which says little
+     * about the length of the body once unzipped, so it is ignored.
+     */
+    private static int getContentLength(EarthquakeTransport.Response response) {
+        String contentLength = response.getHeader("Content-Length");
+        String contentEncoding = response.getHeader("Content-Encoding");
+        if (contentLength == null
+                || (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding))) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Write the earthquakes of a response to the database, if one is set, in one transaction.
+     * A failed write is only logged: the earthquakes are still returned to the caller.
+     */
+    private static void writeToDatabase(List<Earthquake> earthquakes) {
+        EarthquakeDatabase database = sDatabase;
+        if (database == null) {
+            return;
+        }
+        try {
+            database.upsert(earthquakes);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the earthquakes to the database.", e);
+        }
+    }
 
+    /**
+     * Convert the {@link InputStream} into a String which contains the
+     * whole JSON response from the server.
+     */
+    static String readFromStream(InputStream inputStream) throws IOException {
+        long start = EarthquakeMetrics.start();
+        String json = EarthquakeJson.readFromStream(inputStream);
+        EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_READ, start);
+        return json;
+    }
 
     /**
      * Return a list of {@link Earthquake} objects that has been built up from
      * parsing the given JSON response.
      * BEFORE "A JSON response".
+     *
+     * The network path now uses {@link EarthquakeStreamParser}; this DOM-based version is kept
+     * as the reference implementation for a JSON response that is already held as a String.
+     * The parsing itself lives in {@link EarthquakeJson}, which has no Android dependencies.
      */
 
     // Modify the extractEarthquakes() method that handles JSON parsing. I renamed it
@@ -159,108 +506,30 @@ public final class QueryUtils {
     //  accept a String input.
 
     // (B)public static ArrayList<Earthquake> extractEarthquakes() {
-    private static List<Earthquake> extractFeatureFromJson(String earthquakeJSON) {
+    static List<Earthquake> extractFeatureFromJson(String earthquakeJSON) {
         // If the JSON string is empty or null, then return early.
-        if (TextUtils.isEmpty(earthquakeJSON)) {
+        if (earthquakeJSON == null || earthquakeJSON.isEmpty()) {
             return null;
         }
         // Create an empty ArrayList that we can start adding earthquakes to
-        // (B) ArrayList<Earthquake> earthquakes = new ArrayList<>();
         List<Earthquake> earthquakes = new ArrayList<>();
-        // BEFORE >>> ArrayList<Earthquake> earthquakes = new ArrayList<>();
-
-        // (B) Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
 
         // Try to parse the JSON response string. If there's a problem with the way the JSON
         // is formatted, a JSONException exception object will be thrown.
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        long start = EarthquakeMetrics.start();
         try {
-
-            // Create a JSONObject from the JSON response string
-            JSONObject baseJsonResponse = new JSONObject(earthquakeJSON);
-
-            // Extract the JSONArray associated with the key called "features",
-            // which represents a list of features (or earthquakes).
-            JSONArray earthquakeArray = baseJsonResponse.getJSONArray("features");
-
-            // (IE)Now we begin creating a loop by initializing the counter variable i to be 0.
-            // Before each iteration of the loop we test that the condition. i is less than the
-            // length of the earthquakeArray is still true.
-            // If it is true, we can execute all the lines of code within the loop.
-            // At the end of one iteration, we increase the value of i by 1, indicated here by the
-            // i++ syntax.
-            // And then we can go ahead and loop around again.
-
-            // For each earthquake in the earthquakeArray, create an {@link Earthquake} object
-            for (int i = 0; i < earthquakeArray.length(); i++) {
-
-                // TODO: Get earthquake JSONObject at position i
-                // Get a single earthquake at position i within the list of earthquakes
-
-                // (IE) Next we can pull out the JSON object at the specified position of the earthquakeArray.
-                // We start with position 0, which is the initial value of the counter i variable.
-                JSONObject currentEarthquake = earthquakeArray.getJSONObject(i);
-
-
-                // TODO: Get “properties” JSONObject
-                // (IE) Once we have the current earthquake JSON object, we can extract out the JSON
-                // object associated with the properties key. Remember that this lists out many of
-                // the earthquakes' attributes. As you can see, these JSON objects are deeply nested
-                // within the overall response.
-
-                // For a given earthquake, extract the JSONObject associated with the
-                // key called "properties", which represents a list of all properties
-                // for that earthquake.
-                JSONObject properties = currentEarthquake.getJSONObject("properties");
-
-                // But finally, we're at the level where we can access the individual values of the
-                // properties JSONObject by referring to the key mag for magnitude, place for
-                // location, and time for the time in milliseconds that the earthquake happened.
-                //
-                // For now, we can extract all these values as strings, because we're just displaying
-                // them straight to the screen, and not doing any additional calculation or
-                // formatting on them.
-
-                // Extract the value for the key called "mag"
-                double magnitude = properties.getDouble("mag");
-
-                // Extract the value for the key called "place"
-                String location = properties.getString("place");
-
-                // Extract the value for the key called "time"
-                long time = properties.getLong("time");
-
-                // Extract the value for the key called "url"
-                String url = properties.getString("url");
-
-                // Create a new {@link Earthquake} object with the magnitude, location, time,
-                // and url from the JSON response.
-                Earthquake earthquake = new Earthquake(magnitude, location, time, url);
-
-                // TODO: Add earthquake to list of earthquakes
-                //Then we can create a new earthquake object from these three strings.
-
-                // Add the new {@link Earthquake} to the list of earthquakes.
-                earthquakes.add(earthquake);
-            }
-
+            EarthquakeJson.extractFeatures(earthquakeJSON, earthquakes);
         } catch (JSONException e) {
             // If an error is thrown when executing any of the above statements in the "try" block,
             // catch the exception here, so the app doesn't crash. Print a log message
             // with the message from the exception.
             Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
         }
+        EarthquakeMetrics.stop(EarthquakeMetrics.TIMER_PARSE, start);
+        EarthquakeMetrics.count(EarthquakeMetrics.COUNTER_FEATURES_PARSED, earthquakes.size());
 
-        // (IE) After the loop finishes executing once per each earthquake in the features array,
-        //  we will then build up a whole array list of earthquakes. Then we can return this list as
-        // the return value of the method.
-
-        // Return the list of earthquakes
+        // Return the list of earthquakes (the ones parsed before any error)
         return earthquakes;
     }
-
-
-
 }
-
-
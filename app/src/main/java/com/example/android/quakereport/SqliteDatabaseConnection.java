@@ -0,0 +1,236 @@
+package com.example.android.quakereport;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link SqliteDatabaseConnection} is the {@link EarthquakeDatabase.Connection} of the app: it
+ * runs the SQL on Android's own SQLite. The database file is opened (and created if needed) on
+ * first use rather than in the constructor, so the connection can be made on the main thread.
+ */
+public class SqliteDatabaseConnection implements EarthquakeDatabase.Connection {
+
+    /** The database file */
+    private final File mFile;
+
+    /** The open database, or null until first use */
+    private SQLiteDatabase mDatabase;
+
+    public SqliteDatabaseConnection(File file) {
+        mFile = file;
+    }
+
+    /** Returns the open database, opening it if needed */
+    private synchronized SQLiteDatabase getDatabase() throws IOException {
+        if (mDatabase == null) {
+            // The databases directory of the app does not exist until something creates it.
+            File directory = mFile.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            try {
+                mDatabase = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+            } catch (SQLException e) {
+                throw new IOException("Cannot open " + mFile, e);
+            }
+        }
+        return mDatabase;
+    }
+
+    @Override
+    public void execute(String sql) throws IOException {
+        try {
+            getDatabase().execSQL(sql);
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long queryLong(String sql, String[] args) throws IOException {
+        SQLiteStatement statement = null;
+        try {
+            statement = getDatabase().compileStatement(sql);
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    statement.bindString(i + 1, args[i]);
+                }
+            }
+            return statement.simpleQueryForLong();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    @Override
+    public void beginTransaction() throws IOException {
+        try {
+            getDatabase().beginTransaction();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() throws IOException {
+        try {
+            getDatabase().setTransactionSuccessful();
+        } catch (SQLException | IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void endTransaction() throws IOException {
+        try {
+            getDatabase().endTransaction();
+        } catch (SQLException | IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public EarthquakeDatabase.Statement compileStatement(String sql) throws IOException {
+        try {
+            return new SqliteStatement(getDatabase().compileStatement(sql));
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public EarthquakeDatabase.Rows query(String sql, String[] args) throws IOException {
+        try {
+            return new CursorRows(getDatabase().rawQuery(sql, args));
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mDatabase != null) {
+            mDatabase.close();
+            mDatabase = null;
+        }
+    }
+
+    /**
+     * A compiled {@link SQLiteStatement}.
+     */
+    private static class SqliteStatement implements EarthquakeDatabase.Statement {
+
+        private final SQLiteStatement mStatement;
+
+        SqliteStatement(SQLiteStatement statement) {
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+        @Override
+        public void execute() throws IOException {
+            try {
+                mStatement.execute();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public int executeUpdateDelete() throws IOException {
+            try {
+                return mStatement.executeUpdateDelete();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public long simpleQueryForLong() throws IOException {
+            try {
+                return mStatement.simpleQueryForLong();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            mStatement.close();
+        }
+    }
+
+    /**
+     * The rows of a {@link Cursor}.
+     */
+    private static class CursorRows implements EarthquakeDatabase.Rows {
+
+        private final Cursor mCursor;
+
+        CursorRows(Cursor cursor) {
+            mCursor = cursor;
+        }
+
+        @Override
+        public boolean moveToNext() throws IOException {
+            try {
+                return mCursor.moveToNext();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public String getString(int column) {
+            return mCursor.getString(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mCursor.getDouble(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mCursor.getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return mCursor.isNull(column);
+        }
+
+        @Override
+        public void close() {
+            mCursor.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakeDatabase}, on a JDBC SQLite driver and a database file, as the
+ * app uses it on a phone.
+ */
+public class EarthquakeDatabaseTest {
+
+    /** The goal for writing the largest USGS response */
+    private static final long MAX_UPSERT_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeDatabase mDatabase;
+
+    @Before
+    public void setUp() throws IOException {
+        mDatabase = new EarthquakeDatabase(JdbcConnection.open(mFolder.newFile("test.db")));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mDatabase.close();
+    }
+
+    @Test
+    public void upsert_thenQuery_newestFirst() throws IOException {
+        mDatabase.upsert(Arrays.asList(
+                earthquake("us1", 1000L, 1L, false),
+                earthquake("us3", 3000L, 1L, false),
+                earthquake("us2", 2000L, 1L, false)));
+
+        EarthquakeStore page = mDatabase.query(null, 0, 10);
+
+        assertEquals(3, page.size());
+        assertEquals("us3", page.get(0).getId());
+        assertEquals("us2", page.get(1).getId());
+        assertEquals("us1", page.get(2).getId());
+    }
+
+    @Test
+    public void query_keepsEveryColumn() throws Exception {
+        List<Earthquake> earthquakes = parse(Fixtures.readString(Fixtures.SIGNIFICANT_MONTH));
+        mDatabase.upsert(earthquakes);
+
+        EarthquakeStore page = mDatabase.query(null, 0, 10);
+
+        // The fixture is newest first already; the store does not keep the updated time.
+        assertEquals(earthquakes.size(), page.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake expected = earthquakes.get(i);
+            Earthquake actual = page.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+            assertEquals(expected.getLocation(), actual.getLocation());
+            assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+            assertEquals(expected.getDepth(), actual.getDepth(), 0);
+        }
+    }
+
+    @Test
+    public void upsert_keepsTheLatestRevision() throws IOException {
+        mDatabase.upsert(Collections.singletonList(earthquake("us1", 1000L, 20L, false)));
+        // An older copy, for example from a stale cached response, is ignored.
+        mDatabase.upsert(Collections.singletonList(
+                new Earthquake("us1", 2.0, "Old place", 1000L, "", 10L, false)));
+
+        assertEquals(5.0, mDatabase.query(null, 0, 10).get(0).getMagnitude(), 0);
+
+        mDatabase.upsert(Collections.singletonList(
+                new Earthquake("us1", 6.0, "New place", 1000L, "", 30L, false)));
+
+        assertEquals(1, mDatabase.count(null));
+        assertEquals(6.0, mDatabase.query(null, 0, 10).get(0).getMagnitude(), 0);
+    }
+
+    @Test
+    public void upsert_deletedEarthquake_isRemoved() throws IOException {
+        mDatabase.upsert(Arrays.asList(earthquake("us1", 1000L, 1L, false),
+                earthquake("us2", 2000L, 1L, false)));
+
+        mDatabase.upsert(Collections.singletonList(earthquake("us1", 1000L, 2L, true)));
+
+        assertEquals(1, mDatabase.count(null));
+        assertEquals("us2", mDatabase.query(null, 0, 10).get(0).getId());
+    }
+
+    @Test
+    public void upsert_notifiesListenersOfChangesOnly() throws IOException {
+        final AtomicInteger changes = new AtomicInteger();
+        mDatabase.addOnChangeListener(new EarthquakeDatabase.OnChangeListener() {
+            @Override
+            public void onDatabaseChanged(EarthquakeDatabase database) {
+                changes.incrementAndGet();
+            }
+        });
+
+        mDatabase.upsert(Collections.singletonList(earthquake("us1", 1000L, 2L, false)));
+        assertEquals(1, changes.get());
+
+        // The same revision again, an older one, a deletion of what is not stored, and
+        // nothing old enough to remove: no row changes, so nobody is told.
+        mDatabase.upsert(Collections.singletonList(earthquake("us1", 1000L, 2L, false)));
+        mDatabase.upsert(Collections.singletonList(earthquake("us1", 1000L, 1L, false)));
+        mDatabase.upsert(Collections.singletonList(earthquake("us2", 1000L, 1L, true)));
+        mDatabase.deleteOlderThan(1000L);
+        assertEquals(1, changes.get());
+
+        mDatabase.upsert(Collections.singletonList(earthquake("us1", 1000L, 3L, false)));
+        mDatabase.deleteOlderThan(2000L);
+
+        assertEquals(3, changes.get());
+        assertEquals(0, mDatabase.count(null));
+    }
+
+    @Test
+    public void upsert_storedRevision_neverAsksForStrings() throws IOException {
+        byte[] bytes = StubUsgsServer.featureCollection(100).getBytes(Fixtures.UTF_8);
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeByteParser.parseLazily(bytes, 0, bytes.length, earthquakes, 1);
+        mDatabase.upsert(earthquakes);
+
+        // A refresh that brings the same revisions only reads their ids and updated times, so
+        // a lazy earthquake never decodes its location or url.
+        List<Earthquake> unchanged = new ArrayList<>(earthquakes.size());
+        for (Earthquake earthquake : earthquakes) {
+            unchanged.add(withoutStrings(earthquake));
+        }
+        mDatabase.upsert(unchanged);
+
+        assertEquals(100, mDatabase.count(null));
+        assertEquals(earthquakes.get(0).getLocation(),
+                mDatabase.query(null, 0, 1).get(0).getLocation());
+    }
+
+    @Test
+    public void query_pagesAndFilters() throws Exception {
+        List<Earthquake> earthquakes = parse(StubUsgsServer.featureCollection(1000));
+        mDatabase.upsert(earthquakes);
+        long end = earthquakes.get(0).getTimeInMilliseconds() + 1;
+        EarthquakeQuery strong = new EarthquakeQuery(end - TimeUnit.DAYS.toMillis(30), end, 4.5,
+                Double.NaN);
+
+        int expectedStrong = 0;
+        for (Earthquake earthquake : earthquakes) {
+            if (earthquake.getMagnitude() >= 4.5) {
+                expectedStrong++;
+            }
+        }
+        assertEquals(1000, mDatabase.count(null));
+        assertEquals(expectedStrong, mDatabase.count(strong));
+
+        // Reading every page gives every earthquake once, newest first.
+        List<String> ids = new ArrayList<>();
+        long previousTime = Long.MAX_VALUE;
+        for (int offset = 0; offset < 1000; offset += 100) {
+            EarthquakeStore page = mDatabase.query(null, offset, 100);
+            assertEquals(100, page.size());
+            for (int i = 0; i < page.size(); i++) {
+                assertTrue(page.getTimeInMilliseconds(i) <= previousTime);
+                previousTime = page.getTimeInMilliseconds(i);
+                ids.add(page.get(i).getId());
+            }
+        }
+        assertEquals(1000, new HashSet<>(ids).size());
+        assertEquals(0, mDatabase.query(null, 1000, 100).size());
+    }
+
+    @Test
+    public void upsert_withoutUpdatedTime_alwaysWrites() throws IOException {
+        mDatabase.upsert(Collections.singletonList(
+                new Earthquake("us1", 2.0, "Somewhere", 1000L, "", 0L, false)));
+        mDatabase.upsert(Collections.singletonList(
+                new Earthquake("us1", 3.0, "Somewhere", 1000L, "", 0L, false)));
+
+        assertEquals(3.0, mDatabase.query(null, 0, 10).get(0).getMagnitude(), 0);
+    }
+
+    /**
+     * Writing the largest USGS response (20000 earthquakes) to a database file stays under a
+     * second: into an empty table, again with the same revisions (a refresh where nothing
+     * changed), and with every earthquake revised.
+     */
+    @Test
+    public void upsert_largestResponse_underASecond() throws Exception {
+        List<Earthquake> earthquakes = parse(
+                StubUsgsServer.featureCollection(EarthquakeQuery.MAX_EVENTS_PER_REQUEST));
+        List<Earthquake> revised = new ArrayList<>(earthquakes.size());
+        for (Earthquake earthquake : earthquakes) {
+            revised.add(new Earthquake(earthquake.getId(), earthquake.getMagnitude() + 0.1,
+                    earthquake.getLocation(), earthquake.getTimeInMilliseconds(),
+                    earthquake.getUrl(), earthquake.getUpdatedTime() + 1, false,
+                    earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepth()));
+        }
+
+        long insertMillis = timeUpsert(earthquakes);
+        long unchangedMillis = timeUpsert(earthquakes);
+        long revisedMillis = timeUpsert(revised);
+
+        assertEquals(EarthquakeQuery.MAX_EVENTS_PER_REQUEST, mDatabase.count(null));
+        assertEquals(revised.get(0).getMagnitude(),
+                mDatabase.query(null, 0, 1).get(0).getMagnitude(), 0);
+        assertTrue("Inserting took " + insertMillis + " ms", insertMillis < MAX_UPSERT_MILLIS);
+        assertTrue("Writing unchanged revisions took " + unchangedMillis + " ms",
+                unchangedMillis < MAX_UPSERT_MILLIS);
+        assertTrue("Writing new revisions took " + revisedMillis + " ms",
+                revisedMillis < MAX_UPSERT_MILLIS);
+    }
+
+    private long timeUpsert(List<Earthquake> earthquakes) throws IOException {
+        long start = System.nanoTime();
+        mDatabase.upsert(earthquakes);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static Earthquake earthquake(String id, long time, long updated, boolean deleted) {
+        return new Earthquake(id, 5.0, "5km N of Cairo, Egypt", time,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/" + id, updated, deleted);
+    }
+
+    /** Returns a copy of the earthquake that fails the test if asked for its location or url */
+    private static Earthquake withoutStrings(Earthquake earthquake) {
+        return new Earthquake(earthquake.getId(), earthquake.getMagnitude(), null,
+                earthquake.getTimeInMilliseconds(), null, earthquake.getUpdatedTime(),
+                earthquake.isDeleted(), earthquake.getLatitude(), earthquake.getLongitude(),
+                earthquake.getDepth()) {
+            @Override
+            public String getLocation() {
+                throw new AssertionError("Asked for the location of " + getId());
+            }
+
+            @Override
+            public String getUrl() {
+                throw new AssertionError("Asked for the url of " + getId());
+            }
+        };
+    }
+
+    private static List<Earthquake> parse(String geoJson) throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(geoJson, earthquakes);
+        return earthquakes;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakeMemoryCache}, in particular fetches shared by several threads.
+ */
+public class EarthquakeMemoryCacheTest {
+
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query"
+            + "?format=geojson&limit=10";
+
+    private static final List<Earthquake> EARTHQUAKES = Collections.singletonList(
+            new Earthquake("us1", 4.5, "5km N of Cairo, Egypt", 1000L, "https://example.com/us1"));
+
+    private final EarthquakeMemoryCache mCache = new EarthquakeMemoryCache(100, 60 * 1000);
+
+    @Test
+    public void getOrFetch_cachesTheResult() throws Exception {
+        CountingFetcher fetcher = new CountingFetcher();
+
+        mCache.getOrFetch(URL, fetcher);
+        List<Earthquake> again = mCache.getOrFetch(
+                "HTTPS://earthquake.usgs.gov/fdsnws/event/1/query?limit=10&format=geojson",
+                fetcher);
+
+        assertEquals(EARTHQUAKES, again);
+        assertEquals(1, fetcher.mCalls.get());
+    }
+
+    @Test
+    public void getOrFetch_failedFetchIsNotCached() throws Exception {
+        Callable<List<Earthquake>> failing = new Callable<List<Earthquake>>() {
+            @Override
+            public List<Earthquake> call() {
+                return null;
+            }
+        };
+
+        assertNull(mCache.getOrFetch(URL, failing));
+        assertNull(mCache.get(URL));
+    }
+
+    @Test
+    public void getOrFetch_waitersShareOneFetch() throws Exception {
+        BlockingFetcher owner = new BlockingFetcher();
+        Caller first = new Caller(owner);
+        first.start();
+        owner.mStarted.await();
+
+        CountingFetcher second = new CountingFetcher();
+        Caller waiter = new Caller(second);
+        waiter.start();
+        awaitWaiting(waiter);
+
+        owner.mRelease.countDown();
+        first.join();
+        waiter.join();
+
+        assertEquals(EARTHQUAKES, waiter.mResult.get());
+        assertEquals(0, second.mCalls.get());
+    }
+
+    @Test
+    public void getOrFetch_ownerCancelled_waiterFetchesAgain() throws Exception {
+        BlockingFetcher owner = new BlockingFetcher();
+        Caller first = new Caller(owner);
+        first.start();
+        owner.mStarted.await();
+
+        CountingFetcher second = new CountingFetcher();
+        Caller waiter = new Caller(second);
+        waiter.start();
+        awaitWaiting(waiter);
+
+        // Cancel the thread running the shared fetch.
+        first.interrupt();
+        first.join();
+        waiter.join();
+
+        assertTrue(first.mFailure.get() instanceof InterruptedException);
+        assertEquals(EARTHQUAKES, waiter.mResult.get());
+        assertEquals(1, second.mCalls.get());
+        assertEquals(EARTHQUAKES, mCache.get(URL));
+    }
+
+    @Test
+    public void getOrFetch_cancelledAlone_cachesNothing() throws Exception {
+        BlockingFetcher owner = new BlockingFetcher();
+        Caller first = new Caller(owner);
+        first.start();
+        owner.mStarted.await();
+
+        first.interrupt();
+        first.join();
+
+        assertTrue(first.mFailure.get() instanceof InterruptedException);
+        assertNull(mCache.get(URL));
+        // The next caller fetches again.
+        CountingFetcher next = new CountingFetcher();
+        assertEquals(EARTHQUAKES, mCache.getOrFetch(URL, next));
+        assertEquals(1, next.mCalls.get());
+    }
+
+    @Test
+    public void normalizeUrl_sortsParametersAndLowerCasesHost() {
+        assertEquals("https://earthquake.usgs.gov/query?a=1&b=2",
+                EarthquakeMemoryCache.normalizeUrl("HTTPS://Earthquake.USGS.gov/query?b=2&&a=1"));
+    }
+
+    /** Wait until the thread is blocked waiting for another thread's fetch */
+    static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    /** Returns {@link #EARTHQUAKES} and counts its calls */
+    private static class CountingFetcher implements Callable<List<Earthquake>> {
+
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        @Override
+        public List<Earthquake> call() {
+            mCalls.incrementAndGet();
+            return EARTHQUAKES;
+        }
+    }
+
+    /**
+     * Blocks until released, then returns {@link #EARTHQUAKES}. Like {@link QueryUtils}, it
+     * returns null when its thread is interrupted and leaves the thread interrupted.
+     */
+    private static class BlockingFetcher implements Callable<List<Earthquake>> {
+
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        @Override
+        public List<Earthquake> call() {
+            mStarted.countDown();
+            try {
+                mRelease.await();
+                return EARTHQUAKES;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /** Calls {@link EarthquakeMemoryCache#getOrFetch} on its own thread */
+    private class Caller extends Thread {
+
+        final AtomicReference<List<Earthquake>> mResult = new AtomicReference<>();
+        final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+        private final Callable<List<Earthquake>> mFetcher;
+
+        Caller(Callable<List<Earthquake>> fetcher) {
+            mFetcher = fetcher;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mResult.set(mCache.getOrFetch(URL, mFetcher));
+            } catch (Throwable e) {
+                mFailure.set(e);
+            }
+        }
+    }
+}
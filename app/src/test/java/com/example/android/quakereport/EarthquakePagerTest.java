@@ -0,0 +1,302 @@
+package com.example.android.quakereport;
+
+import android.app.LoaderManager;
+import android.content.Context;
+import android.content.Loader;
+import android.os.Bundle;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakePager}: the rows it reports added and removed always add up to
+ * its count, which is what keeps a RecyclerView showing it consistent, a page loaded again
+ * only reports the rows that changed, and binding a row that is in memory does not allocate.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class EarthquakePagerTest {
+
+    private static final int FIRST_LOADER_ID = 100;
+    private static final int PAGE_SIZE = 10;
+
+    /** Binds measured for allocations, enough that any per-bind allocation shows */
+    private static final int BIND_COUNT = 100000;
+
+    private FakeLoaderManager mLoaderManager;
+    private EarthquakePager mPager;
+
+    /** Row count as the list sees it, kept up to date from the listener */
+    private int mListCount;
+
+    /** Rows the listener was told were inserted or changed within a page loaded again */
+    private int mInsertedRows;
+    private int mChangedRows;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        mLoaderManager = new FakeLoaderManager();
+        mPager = new EarthquakePager(context, mLoaderManager, null, FIRST_LOADER_ID, PAGE_SIZE,
+                1);
+        mPager.setListener(new EarthquakePager.Listener() {
+            @Override
+            public void onRowsLoaded(int positionStart, int itemCount) {
+                assertTrue(positionStart + itemCount <= mListCount);
+            }
+
+            @Override
+            public void onPageChanged(int positionStart, EarthquakeDiff diff) {
+                diff.dispatchTo(new EarthquakeDiff.Callback() {
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        assertTrue(position + count <= mListCount);
+                        mListCount -= count;
+                    }
+
+                    @Override
+                    public void onInserted(int position, int count) {
+                        assertTrue(position <= mListCount);
+                        mListCount += count;
+                        mInsertedRows += count;
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count) {
+                        assertTrue(position + count <= mListCount);
+                        mChangedRows += count;
+                    }
+                }, positionStart);
+            }
+
+            @Override
+            public void onRowsAdded(int oldCount, int newCount) {
+                assertEquals(mListCount, oldCount);
+                assertTrue(newCount > oldCount);
+                mListCount = newCount;
+            }
+
+            @Override
+            public void onRowsRemoved(int oldCount, int newCount) {
+                assertEquals(mListCount, oldCount);
+                assertTrue(newCount < oldCount);
+                mListCount = newCount;
+            }
+        });
+        mPager.start();
+    }
+
+    @Test
+    public void growsPageByPageUntilShortPage() {
+        finish(0, PAGE_SIZE);
+        assertEquals(PAGE_SIZE, mPager.getCount());
+        assertFalse(mPager.hasReachedEnd());
+        assertTrue(mLoaderManager.mActive.contains(FIRST_LOADER_ID + 1));
+
+        finish(1, 4);
+        assertEquals(PAGE_SIZE + 4, mPager.getCount());
+        assertTrue(mPager.hasReachedEnd());
+        assertEquals(mPager.getCount(), mListCount);
+    }
+
+    @Test
+    public void reloadedPageComingBackShort_removesRows() {
+        finish(0, PAGE_SIZE);
+        finish(1, 6);
+        assertEquals(16, mListCount);
+
+        // The first page is loaded again (the stored earthquakes changed) with fewer rows.
+        finish(0, 3);
+
+        assertEquals(3, mPager.getCount());
+        assertEquals(3, mListCount);
+        assertTrue(mPager.hasReachedEnd());
+        assertFalse(mLoaderManager.mActive.contains(FIRST_LOADER_ID + 1));
+    }
+
+    @Test
+    public void lastPageReloadedFull_growsAgain() {
+        finish(0, 4);
+        assertTrue(mPager.hasReachedEnd());
+
+        finish(0, PAGE_SIZE);
+
+        assertEquals(PAGE_SIZE, mPager.getCount());
+        assertEquals(PAGE_SIZE, mListCount);
+        assertFalse(mPager.hasReachedEnd());
+        // The next page may exist now.
+        assertTrue(mLoaderManager.mActive.contains(FIRST_LOADER_ID + 1));
+    }
+
+    @Test
+    public void reloadedPage_onlyChangedRowsAreTold() {
+        finish(0, PAGE_SIZE);
+        finish(1, 6);
+
+        // The same rows again: nothing to tell.
+        finish(1, earthquakes(1, 6));
+        assertEquals(0, mInsertedRows + mChangedRows);
+
+        // A new earthquake on top of the page, and a revised magnitude further down.
+        List<Earthquake> earthquakes = earthquakes(1, 6);
+        earthquakes.add(0, new Earthquake("new", 6, "Somewhere", 2000L, ""));
+        Earthquake revised = earthquakes.get(3);
+        earthquakes.set(3, new Earthquake(revised.getId(), 7, "Somewhere",
+                revised.getTimeInMilliseconds(), ""));
+        finish(1, earthquakes);
+
+        assertEquals(1, mInsertedRows);
+        assertEquals(1, mChangedRows);
+        assertEquals(17, mPager.getCount());
+        assertEquals(17, mListCount);
+    }
+
+    @Test
+    public void emptyThenFilled_addsRows() {
+        finish(0, 0);
+        assertEquals(0, mListCount);
+
+        finish(0, 7);
+
+        assertEquals(7, mPager.getCount());
+        assertEquals(7, mListCount);
+    }
+
+    @Test
+    public void bindingLoadedRows_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        long threadId = Thread.currentThread().getId();
+
+        // Keep the page update queued, as it would be until the next frame; the binds after
+        // the first one then do not post it again.
+        ShadowLooper.pauseMainLooper();
+        // A page far enough down that boxing its number would allocate.
+        int page = 200;
+        int first = page * PAGE_SIZE;
+        mPager.onPositionShown(first);
+        finish(page, PAGE_SIZE);
+        int checksum = bind(first, PAGE_SIZE);
+        threads.getThreadAllocatedBytes(threadId);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += bind(first, BIND_COUNT);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum != 0);
+        // Less than a byte per bind: any object allocated per bind would be many times that.
+        assertTrue("Allocated " + allocated + " bytes in " + BIND_COUNT + " binds",
+                allocated < BIND_COUNT);
+    }
+
+    /**
+     * Do what onBindViewHolder does, short of the views, for the given number of binds over
+     * the page starting at the position. Returns a checksum so nothing is optimized away.
+     */
+    private int bind(int first, int bindCount) {
+        int checksum = 0;
+        for (int i = 0; i < bindCount; i++) {
+            int position = first + i % PAGE_SIZE;
+            mPager.onPositionShown(position);
+            EarthquakeRowModel row = mPager.getRow(position);
+            checksum += row.getMagnitudeText().length() + row.getMagnitudeColor()
+                    + row.getLocationOffsetText().length() + row.getPrimaryLocation().length()
+                    + row.getDateText().length() + row.getTimeText().length();
+        }
+        return checksum;
+    }
+
+    /** Deliver a page of the given number of rows */
+    private void finish(int page, int rowCount) {
+        finish(page, earthquakes(page, rowCount));
+    }
+
+    /** Returns the given number of earthquakes, with ids unique to the page */
+    private static List<Earthquake> earthquakes(int page, int rowCount) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < rowCount; i++) {
+            earthquakes.add(new Earthquake("id" + page + "_" + i, 5, "Somewhere", 1000L - i, ""));
+        }
+        return earthquakes;
+    }
+
+    /** Deliver a page of the earthquakes */
+    private void finish(int page, List<Earthquake> earthquakes) {
+        EarthquakeStore store = EarthquakeStore.from(earthquakes);
+        EarthquakeRowModel[] rows = new EarthquakeRowModel[store.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new EarthquakeRowModel("5.0", 0xFFF5A040, "Near the", "Somewhere",
+                    "Jan 1, 1970", "12:00 AM");
+        }
+        mPager.onLoadFinished(new FakeLoader(FIRST_LOADER_ID + page),
+                new EarthquakeDisplayModel(store, rows));
+    }
+
+    /** Loader that only knows its id; the pager is handed its results directly */
+    private static class FakeLoader extends Loader<EarthquakeDisplayModel> {
+
+        private final int mId;
+
+        FakeLoader(int id) {
+            super(RuntimeEnvironment.application);
+            mId = id;
+        }
+
+        @Override
+        public int getId() {
+            return mId;
+        }
+    }
+
+    /** Loader manager that only remembers which loaders are active */
+    private static class FakeLoaderManager extends LoaderManager {
+
+        final Set<Integer> mActive = new HashSet<>();
+
+        @Override
+        public <D> Loader<D> initLoader(int id, Bundle args, LoaderCallbacks<D> callback) {
+            mActive.add(id);
+            return null;
+        }
+
+        @Override
+        public <D> Loader<D> restartLoader(int id, Bundle args, LoaderCallbacks<D> callback) {
+            mActive.add(id);
+            return null;
+        }
+
+        @Override
+        public void destroyLoader(int id) {
+            mActive.remove(id);
+        }
+
+        @Override
+        public <D> Loader<D> getLoader(int id) {
+            return null;
+        }
+
+        @Override
+        public void dump(String prefix, FileDescriptor fd, PrintWriter writer,
+                         String[] args) {
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakeRefreshScheduler}, driven by a fake clock.
+ */
+public class EarthquakeRefreshSchedulerTest {
+
+    private static final long INTERVAL = 60 * 1000;
+    private static final long INITIAL_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 16 * 1000;
+
+    private static final List<Earthquake> EARTHQUAKES = Collections.singletonList(
+            new Earthquake("us1", 4.5, "5km N of Cairo, Egypt", 1000L, "https://example.com/us1"));
+
+    private final FakeClock mClock = new FakeClock();
+    private final FakeSource mSource = new FakeSource();
+
+    @Test
+    public void success_nextRefreshAfterInterval() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        assertTrue(scheduler.isDue());
+
+        assertEquals(EARTHQUAKES, scheduler.refreshIfDue(null));
+        assertEquals(INTERVAL, scheduler.getMillisUntilNextRefresh());
+
+        // Not due yet: the last result comes back without a download.
+        mClock.advance(INTERVAL - 1);
+        assertFalse(scheduler.isDue());
+        assertEquals(EARTHQUAKES, scheduler.refreshIfDue(null));
+        assertEquals(1, mSource.mCalls.get());
+
+        mClock.advance(1);
+        assertTrue(scheduler.isDue());
+        scheduler.refreshIfDue(null);
+        assertEquals(2, mSource.mCalls.get());
+        assertEquals(INTERVAL, scheduler.getMillisUntilNextRefresh());
+    }
+
+    @Test
+    public void concurrentRefreshes_shareOneDownload() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        mSource.mBlock = true;
+        Caller owner = new Caller(scheduler);
+        owner.start();
+        mSource.mStarted.await();
+
+        Caller waiter = new Caller(scheduler);
+        waiter.start();
+        EarthquakeMemoryCacheTest.awaitWaiting(waiter);
+        mSource.mRelease.countDown();
+        owner.join();
+        waiter.join();
+
+        assertEquals(1, mSource.mCalls.get());
+        assertSame(owner.mResult.get(), waiter.mResult.get());
+        assertEquals(EARTHQUAKES, waiter.mResult.get());
+    }
+
+    @Test
+    public void failures_backOffExponentiallyUpToMax() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        mSource.mFail = true;
+        long[] expected = {1000, 2000, 4000, 8000, 16000, 16000, 16000};
+        for (int i = 0; i < expected.length; i++) {
+            assertNull(scheduler.refreshIfDue(null));
+            assertEquals(i + 1, scheduler.getFailureCount());
+            assertEquals(expected[i], scheduler.getMillisUntilNextRefresh());
+
+            // Not due again before the backoff is over.
+            mClock.advance(expected[i] - 1);
+            assertFalse(scheduler.isDue());
+            mClock.advance(1);
+            assertTrue(scheduler.isDue());
+        }
+
+        // A success resets the backoff.
+        mSource.mFail = false;
+        assertEquals(EARTHQUAKES, scheduler.refreshIfDue(null));
+        assertEquals(0, scheduler.getFailureCount());
+        assertEquals(INTERVAL, scheduler.getMillisUntilNextRefresh());
+    }
+
+    @Test
+    public void failure_keepsLastResult() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        scheduler.refresh(null);
+        mSource.mFail = true;
+
+        assertEquals(EARTHQUAKES, scheduler.refresh(null));
+        assertEquals(1, scheduler.getFailureCount());
+        assertEquals(INITIAL_BACKOFF, scheduler.getMillisUntilNextRefresh());
+    }
+
+    @Test
+    public void jitter_staysWithinFractionOfDelay() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0.1);
+        Set<Long> delays = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            scheduler.refresh(null);
+            long delay = scheduler.getMillisUntilNextRefresh();
+            assertTrue("Delay " + delay, delay >= INTERVAL * 0.9 && delay <= INTERVAL * 1.1);
+            delays.add(delay);
+        }
+        // The delays are spread out rather than all the same.
+        assertTrue(delays.size() > 10);
+
+        mSource.mFail = true;
+        for (int i = 0; i < 50; i++) {
+            scheduler.refresh(null);
+            long delay = scheduler.getMillisUntilNextRefresh();
+            long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(i, 30));
+            assertTrue("Delay " + delay, delay >= backoff * 0.9 && delay <= backoff * 1.1);
+        }
+    }
+
+    @Test
+    public void periodicRefresh_sourceThrowing_backsOffAndTellsListener() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        mSource.mThrow = true;
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        final AtomicReference<Boolean> succeeded = new AtomicReference<>();
+        scheduler.setOnRefreshListener(new EarthquakeRefreshScheduler.OnRefreshListener() {
+            @Override
+            public void onRefreshed(List<Earthquake> earthquakes, boolean ok) {
+                succeeded.set(ok);
+                refreshed.countDown();
+            }
+        });
+
+        // Due right away, so the first tick runs straight after starting.
+        scheduler.start();
+        try {
+            assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.stop();
+        }
+
+        assertFalse(succeeded.get());
+        assertEquals(1, scheduler.getFailureCount());
+        assertEquals(INITIAL_BACKOFF, scheduler.getMillisUntilNextRefresh());
+    }
+
+    @Test
+    public void stop_dropsScheduledTick() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        scheduler.refresh(null);
+        // Due again in 200 ms, so starting schedules the first tick for then.
+        mClock.advance(INTERVAL - 200);
+        scheduler.start();
+        scheduler.stop();
+
+        // Let the time of the tick come and go.
+        mClock.advance(200);
+        Thread.sleep(500);
+        assertEquals(1, mSource.mCalls.get());
+    }
+
+    @Test
+    public void cancelledRefresh_doesNotBackOff() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        mSource.mBlock = true;
+        Caller owner = new Caller(scheduler);
+        owner.start();
+        mSource.mStarted.await();
+
+        owner.interrupt();
+        owner.join();
+
+        assertTrue(owner.mFailure.get() instanceof InterruptedException);
+        assertEquals(0, scheduler.getFailureCount());
+        assertTrue(scheduler.isDue());
+        assertNull(scheduler.getLastResult());
+    }
+
+    @Test
+    public void cancelledRefresh_waiterRefreshesAgain() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        mSource.mBlock = true;
+        Caller owner = new Caller(scheduler);
+        owner.start();
+        mSource.mStarted.await();
+
+        Caller waiter = new Caller(scheduler);
+        waiter.start();
+        EarthquakeMemoryCacheTest.awaitWaiting(waiter);
+
+        // Only the owner's fetch blocks; the waiter's own refresh goes through.
+        mSource.mBlock = false;
+        owner.interrupt();
+        owner.join();
+        waiter.join();
+
+        assertTrue(owner.mFailure.get() instanceof InterruptedException);
+        assertEquals(EARTHQUAKES, waiter.mResult.get());
+        assertEquals(2, mSource.mCalls.get());
+        assertEquals(0, scheduler.getFailureCount());
+        assertEquals(INTERVAL, scheduler.getMillisUntilNextRefresh());
+    }
+
+    @Test
+    public void sourceThrowingCancellation_doesNotBackOff() throws Exception {
+        EarthquakeRefreshScheduler scheduler = newScheduler(0);
+        mSource.mCancel = true;
+        try {
+            scheduler.refresh(null);
+        } catch (InterruptedException expected) {
+        }
+        assertEquals(0, scheduler.getFailureCount());
+        assertTrue(scheduler.isDue());
+    }
+
+    private EarthquakeRefreshScheduler newScheduler(double jitter) {
+        return new EarthquakeRefreshScheduler(mSource, INTERVAL, INITIAL_BACKOFF, MAX_BACKOFF,
+                jitter, mClock, new Random(42));
+    }
+
+    /** Clock that only moves when told to */
+    static class FakeClock implements EarthquakeRefreshScheduler.Clock {
+
+        private long mNow = 1000;
+
+        @Override
+        public synchronized long currentTimeMillis() {
+            return mNow;
+        }
+
+        synchronized void advance(long millis) {
+            mNow += millis;
+        }
+    }
+
+    /**
+     * Source returning {@link #EARTHQUAKES}, or null while {@link #mFail} is set. It can block
+     * until {@link #mRelease} is counted down or its thread is interrupted, returning null then
+     * like {@link QueryUtils} does.
+     */
+    private static class FakeSource implements EarthquakeRefreshScheduler.Source {
+
+        final AtomicInteger mCalls = new AtomicInteger();
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        volatile boolean mFail;
+        volatile boolean mThrow;
+        volatile boolean mBlock;
+        volatile boolean mCancel;
+
+        @Override
+        public List<Earthquake> fetch(EarthquakeStreamParser.Listener listener) {
+            mCalls.incrementAndGet();
+            if (mCancel) {
+                throw new CancellationException();
+            }
+            if (mThrow) {
+                throw new IllegalStateException("Broken source");
+            }
+            if (mBlock) {
+                mStarted.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return mFail ? null : EARTHQUAKES;
+        }
+    }
+
+    /** Calls {@link EarthquakeRefreshScheduler#refresh} on its own thread */
+    private static class Caller extends Thread {
+
+        final AtomicReference<List<Earthquake>> mResult = new AtomicReference<>();
+        final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+        private final EarthquakeRefreshScheduler mScheduler;
+
+        Caller(EarthquakeRefreshScheduler scheduler) {
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mResult.set(mScheduler.refresh(null));
+            } catch (Throwable e) {
+                mFailure.set(e);
+            }
+        }
+    }
+}
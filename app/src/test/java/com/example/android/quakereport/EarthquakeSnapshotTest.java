@@ -0,0 +1,178 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link EarthquakeSnapshot}: every field survives a round trip, and a damaged
+ * snapshot only ever fails with an {@link IOException}.
+ */
+public class EarthquakeSnapshotTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_keepsEveryField() throws Exception {
+        for (String fixture : Arrays.asList(Fixtures.SIGNIFICANT_MONTH, Fixtures.EDGE_CASES)) {
+            List<Earthquake> earthquakes = parse(Fixtures.readString(fixture));
+            Fixtures.assertSameEarthquakes(earthquakes, read(write(earthquakes)));
+        }
+    }
+
+    @Test
+    public void roundTrip_keepsUpdatedTimeAndDeleted() throws IOException {
+        List<Earthquake> earthquakes = Arrays.asList(
+                new Earthquake("us1", 4.5, "5km N of Cairo, Egypt", 1000L,
+                        "https://earthquake.usgs.gov/earthquakes/eventpage/us1", 2000L, true,
+                        30.1, 31.2, 10),
+                new Earthquake("us2", 2.5, "Fiji region", 3000L, "", 4000L, false,
+                        Double.NaN, Double.NaN, Double.NaN));
+
+        List<Earthquake> restored = read(write(earthquakes));
+
+        Fixtures.assertSameEarthquakes(earthquakes, restored);
+        assertEquals(2000L, restored.get(0).getUpdatedTime());
+        assertTrue(restored.get(0).isDeleted());
+    }
+
+    @Test
+    public void roundTrip_throughFile() throws Exception {
+        List<Earthquake> earthquakes = parse(StubUsgsServer.featureCollection(1000));
+        File file = mFolder.newFile("earthquakes.snapshot");
+
+        EarthquakeSnapshot.writeToFile(earthquakes, file);
+
+        Fixtures.assertSameEarthquakes(earthquakes, EarthquakeSnapshot.readFromFile(file));
+    }
+
+    @Test
+    public void roundTrip_empty() throws IOException {
+        List<Earthquake> empty = Collections.emptyList();
+        assertEquals(0, read(write(empty)).size());
+    }
+
+    @Test
+    public void read_truncatedAnywhere_throwsIOException() throws Exception {
+        byte[] snapshot = write(parse(Fixtures.readString(Fixtures.SIGNIFICANT_MONTH)));
+        for (int length = 0; length < snapshot.length; length++) {
+            try {
+                EarthquakeSnapshot.read(ByteBuffer.wrap(snapshot, 0, length));
+                fail("Read a snapshot truncated to " + length + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void read_hugeStringCount_throwsIOException() throws IOException {
+        byte[] snapshot = write(Collections.<Earthquake>emptyList());
+        // The string count follows the magic and the version.
+        for (int count : new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, -1, 1000}) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot.clone());
+            buffer.putInt(8, count);
+            try {
+                EarthquakeSnapshot.read(buffer);
+                fail("Read a snapshot with " + count + " strings");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void read_hugeRecordCount_throwsIOException() throws IOException {
+        byte[] snapshot = write(Collections.<Earthquake>emptyList());
+        // No strings, so the record count follows the string count.
+        for (int count : new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, -1, 1}) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot.clone());
+            buffer.putInt(12, count);
+            try {
+                EarthquakeSnapshot.read(buffer);
+                fail("Read a snapshot with " + count + " records");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void read_oldVersion_throwsIOException() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(write(Collections.<Earthquake>emptyList()));
+        buffer.putInt(4, EarthquakeSnapshot.FORMAT_VERSION - 1);
+        try {
+            EarthquakeSnapshot.read(buffer);
+            fail("Read a snapshot of an older version");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void read_corruptBytes_onlyThrowsIOException() throws Exception {
+        byte[] snapshot = write(parse(Fixtures.readString(Fixtures.EDGE_CASES)));
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            byte[] corrupt = snapshot.clone();
+            // Flip a few bytes past the magic and version, so the damage reaches the parser.
+            for (int flips = 1 + random.nextInt(3); flips > 0; flips--) {
+                corrupt[8 + random.nextInt(corrupt.length - 8)] ^= 1 << random.nextInt(8);
+            }
+            try {
+                EarthquakeSnapshot.read(ByteBuffer.wrap(corrupt));
+            } catch (IOException expected) {
+                // Either the damage is detected, or it only changed a value.
+            }
+        }
+    }
+
+    /**
+     * The point of the snapshot: it is smaller than the GeoJSON it was parsed from. How much
+     * faster it is to read is measured by SnapshotBenchmark in the benchmark module.
+     */
+    @Test
+    public void snapshot_isSmallerThanGeoJson() throws Exception {
+        String geoJson = StubUsgsServer.featureCollection(20000);
+        int geoJsonSize = geoJson.getBytes(Fixtures.UTF_8).length;
+
+        int snapshotSize = write(parse(geoJson)).length;
+
+        assertTrue("Snapshot of " + snapshotSize + " bytes for " + geoJsonSize
+                + " bytes of GeoJSON", snapshotSize * 4 < geoJsonSize);
+    }
+
+    private static List<Earthquake> parse(String geoJson) throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(geoJson, earthquakes);
+        return earthquakes;
+    }
+
+    private static byte[] write(List<Earthquake> earthquakes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        EarthquakeSnapshot.write(earthquakes, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<Earthquake> read(byte[] snapshot) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+        List<Earthquake> earthquakes = EarthquakeSnapshot.read(buffer);
+        assertEquals("Bytes left after the snapshot", 0, buffer.remaining());
+        return earthquakes;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link EarthquakeStreamParser} and {@link EarthquakeByteParser} read the fixtures
+ * exactly the way the DOM-based {@link QueryUtils#extractFeatureFromJson(String)} does.
+ *
+ * The stream parser reads with {@link android.util.JsonReader}, which only works under
+ * Robolectric on a desktop JVM.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class EarthquakeStreamParserTest {
+
+    @Test
+    public void significantMonth_matchesDomParser() throws IOException {
+        List<Earthquake> earthquakes = assertParsersAgree(Fixtures.SIGNIFICANT_MONTH);
+
+        assertEquals(4, earthquakes.size());
+        Earthquake first = earthquakes.get(0);
+        assertEquals("us20006ab1", first.getId());
+        assertEquals(6.2, first.getMagnitude(), 0);
+        assertEquals("74km NW of Rumoi, Japan", first.getLocation());
+        assertEquals(1466093910000L, first.getTimeInMilliseconds());
+        assertEquals(44.4517, first.getLatitude(), 0);
+        assertEquals(141.0351, first.getLongitude(), 0);
+        assertEquals(10, first.getDepth(), 0);
+        // Escaped slashes and non-ASCII text
+        assertEquals("45km SSE of Cañete, Peru", earthquakes.get(3).getLocation());
+        assertEquals("http://earthquake.usgs.gov/earthquakes/eventpage/us200069vj",
+                earthquakes.get(3).getUrl());
+    }
+
+    @Test
+    public void edgeCases_matchDomParser() throws IOException {
+        List<Earthquake> earthquakes = assertParsersAgree(Fixtures.EDGE_CASES);
+
+        // The feature without properties is skipped.
+        assertEquals(6, earthquakes.size());
+
+        // A null "mag" reads as 0, a null "updated" as 0.
+        Earthquake nullMagnitude = earthquakes.get(0);
+        assertEquals(0, nullMagnitude.getMagnitude(), 0);
+        assertEquals(0, nullMagnitude.getUpdatedTime());
+        assertEquals("41km SW of \"Anchor Point\", Alaska", nullMagnitude.getLocation());
+        assertFalse(nullMagnitude.isDeleted());
+
+        // A null "place" or "url" reads as "".
+        Earthquake deleted = earthquakes.get(1);
+        assertEquals("", deleted.getLocation());
+        assertEquals("", deleted.getUrl());
+        assertTrue(deleted.isDeleted());
+
+        // Without geometry the coordinates are not known.
+        assertTrue(Double.isNaN(earthquakes.get(2).getLatitude()));
+        assertEquals(0, earthquakes.get(2).getTimeInMilliseconds());
+        assertTrue(Double.isNaN(earthquakes.get(3).getDepth()));
+        assertEquals("Tab\there and back\\slash", earthquakes.get(3).getLocation());
+
+        // A missing id reads as "", a missing depth as NaN.
+        assertEquals("", earthquakes.get(4).getId());
+        assertEquals(-0.3, earthquakes.get(4).getMagnitude(), 0);
+        assertTrue(Double.isNaN(earthquakes.get(4).getDepth()));
+
+        assertEquals(3.1, earthquakes.get(5).getMagnitude(), 0);
+    }
+
+    @Test
+    public void byteParser_malformedEscape_throwsIOException() {
+        // Truncated, not hex, and not an escape at all.
+        String[] places = {"Cut short \\u12", "Not hex \\uZZZZ", "Unknown \\q"};
+        for (String place : places) {
+            byte[] bytes = featureCollection(place).getBytes(Fixtures.UTF_8);
+            try {
+                EarthquakeByteParser.parse(bytes, 0, bytes.length);
+                fail("Expected an IOException for " + place);
+            } catch (IOException expected) {
+                // Malformed input is reported like any other bad response.
+            }
+            try {
+                EarthquakeByteParser.parseLazily(bytes, 0, bytes.length,
+                        new ArrayList<Earthquake>(), 1);
+                fail("Expected the lazy parse to throw an IOException for " + place);
+            } catch (IOException expected) {
+                // Checked while parsing, not when the place is first asked for.
+            }
+        }
+    }
+
+    @Test
+    public void notAFeatureCollection_throwsIOException() {
+        // An error page from a proxy, and JSON that is not an object at all.
+        String[] bodies = {"<html><body>Service Unavailable</body></html>", "[1, 2, 3]"};
+        for (String body : bodies) {
+            byte[] bytes = body.getBytes(Fixtures.UTF_8);
+            try {
+                EarthquakeStreamParser.parse(new ByteArrayInputStream(bytes));
+                fail("Expected the stream parser to throw an IOException for " + body);
+            } catch (IOException expected) {
+                // Reported like a failed download.
+            }
+            try {
+                EarthquakeByteParser.parse(bytes, 0, bytes.length);
+                fail("Expected the byte parser to throw an IOException for " + body);
+            } catch (IOException expected) {
+                // Same for the byte parser.
+            }
+        }
+    }
+
+    /** Returns a response with one earthquake, whose raw place is the given JSON text */
+    private static String featureCollection(String rawPlace) {
+        return "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\","
+                + "\"properties\":{\"mag\":5.1,\"place\":\"" + rawPlace + "\","
+                + "\"time\":1466093910000},\"id\":\"us1\"}]}";
+    }
+
+    /**
+     * Parse the fixture with all three parsers, and the byte parser lazily too, assert they
+     * agree and return the earthquakes.
+     */
+    private static List<Earthquake> assertParsersAgree(String fixture) throws IOException {
+        byte[] bytes = Fixtures.readBytes(fixture);
+        List<Earthquake> expected = QueryUtils.extractFeatureFromJson(
+                new String(bytes, Fixtures.UTF_8));
+
+        List<Earthquake> streamed = EarthquakeStreamParser.parse(new ByteArrayInputStream(bytes));
+        Fixtures.assertSameEarthquakes(expected, streamed);
+
+        List<Earthquake> scanned = EarthquakeByteParser.parse(bytes, 0, bytes.length);
+        Fixtures.assertSameEarthquakes(expected, scanned);
+
+        List<Earthquake> lazy = new ArrayList<>();
+        EarthquakeByteParser.parseLazily(bytes, 0, bytes.length, lazy, 1);
+        for (Earthquake earthquake : lazy) {
+            assertTrue(earthquake instanceof LazyEarthquake);
+        }
+        Fixtures.assertSameEarthquakes(expected, lazy);
+        return expected;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EarthquakeStringPool}: parsed earthquakes share their repeated Strings, and
+ * a large catalogue keeps far less heap alive than one holding a String per earthquake.
+ */
+public class EarthquakeStringPoolTest {
+
+    /** Features in each catalogue */
+    private static final int FEATURE_COUNT = 20000;
+
+    /**
+     * Catalogues held at once while the heap is read. A full collection may leave a few
+     * megabytes of garbage behind, so one catalogue of a few megabytes is not enough to tell.
+     */
+    private static final int COPIES = 4;
+
+    /**
+     * Most heap the pooled catalogue may keep, as a fraction of what the same earthquakes
+     * holding whole Strings keep. About 0.55 is measured on a 64-bit desktop JVM; without the
+     * pool it would be 1.
+     */
+    private static final double MAX_RETAINED_RATIO = 0.65;
+
+    /**
+     * Times the catalogues are measured. A reading may still be a few megabytes off either
+     * way, so the middle one is kept.
+     */
+    private static final int ATTEMPTS = 3;
+
+    private final EarthquakeStringPool mPool = EarthquakeStringPool.getShared();
+
+    @Before
+    public void setUp() {
+        mPool.clear();
+    }
+
+    @Test
+    public void parsedEarthquakes_shareRepeatedStrings() throws JSONException {
+        List<Earthquake> earthquakes = parse(StubUsgsServer.featureCollection(2000));
+
+        // The made-up catalogue repeats a handful of places.
+        Earthquake first = null;
+        Earthquake sameRegion = null;
+        for (Earthquake earthquake : earthquakes) {
+            if (first == null) {
+                first = earthquake;
+            } else if (sameRegion == null
+                    && earthquake.getPrimaryLocation().equals(first.getPrimaryLocation())) {
+                sameRegion = earthquake;
+            }
+        }
+        assertTrue(sameRegion != null);
+        assertSame(first.getPrimaryLocation(), sameRegion.getPrimaryLocation());
+        assertSame(first.getUrlPrefix(), sameRegion.getUrlPrefix());
+        // Only the few hundred distinct offsets, places and url prefixes are kept.
+        assertTrue(mPool.size() < earthquakes.size() / 4);
+    }
+
+    @Test
+    public void retainedHeap_wellBelowWholeStrings() throws Exception {
+        final String response = StubUsgsServer.featureCollection(FEATURE_COUNT);
+
+        long wholeBytes = retainedBytes(new Catalogue() {
+            @Override
+            List<Earthquake> make() throws JSONException {
+                List<Earthquake> earthquakes = parseWithWholeStrings(response);
+                mPool.clear();
+                return earthquakes;
+            }
+        });
+        // The pooled Strings are counted with the list, as the pool starts empty.
+        long pooledBytes = retainedBytes(new Catalogue() {
+            @Override
+            List<Earthquake> make() throws JSONException {
+                return parse(response);
+            }
+        });
+
+        assertTrue("Pooled catalogue keeps " + pooledBytes + " bytes, whole Strings "
+                        + wholeBytes + " bytes",
+                pooledBytes <= wholeBytes * MAX_RETAINED_RATIO);
+    }
+
+    /** Makes a catalogue of {@link #FEATURE_COUNT} earthquakes */
+    private abstract static class Catalogue {
+        abstract List<Earthquake> make() throws JSONException;
+    }
+
+    /**
+     * Returns how much the used heap grows while {@link #COPIES} catalogues are held, each made
+     * with an empty pool, from just before they were made. Returns the middle one of
+     * {@link #ATTEMPTS} readings.
+     */
+    private long retainedBytes(Catalogue catalogue) throws Exception {
+        long[] readings = new long[ATTEMPTS];
+        for (int i = 0; i < ATTEMPTS; i++) {
+            List<List<Earthquake>> catalogues = new ArrayList<>();
+            long base = usedHeap();
+            for (int copy = 0; copy < COPIES; copy++) {
+                mPool.clear();
+                catalogues.add(catalogue.make());
+            }
+            readings[i] = usedHeap() - base;
+            assertEquals(FEATURE_COUNT, catalogues.get(0).size());
+            // Let go of them before the next reading of the heap they are measured from.
+            catalogues = null;
+        }
+        Arrays.sort(readings);
+        return readings[ATTEMPTS / 2];
+    }
+
+    private static List<Earthquake> parse(String response) throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(response, earthquakes);
+        return earthquakes;
+    }
+
+    /**
+     * Returns the earthquakes of the response holding a new location and url String each, as
+     * a parser without a pool makes them.
+     */
+    private static List<Earthquake> parseWithWholeStrings(String response)
+            throws JSONException {
+        List<Earthquake> parsed = parse(response);
+        List<Earthquake> earthquakes = new ArrayList<>(parsed.size());
+        for (Earthquake earthquake : parsed) {
+            earthquakes.add(new Earthquake(earthquake.getId(), earthquake.getMagnitude(),
+                    earthquake.getLocation(), earthquake.getTimeInMilliseconds(),
+                    earthquake.getUrl(), earthquake.getUpdatedTime(), earthquake.isDeleted(),
+                    earthquake.getLatitude(), earthquake.getLongitude(),
+                    earthquake.getDepth()));
+        }
+        return earthquakes;
+    }
+
+    /** Returns the used heap after running the collector until it stops shrinking */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(50);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link EarthquakeSyncEngine} syncing from a {@link StubUsgsServer}, on its own and
+ * behind an {@link EarthquakeRefreshScheduler}.
+ *
+ * {@link QueryUtils} logs failed requests with {@link android.util.Log}, which only works under
+ * Robolectric on a desktop JVM.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class EarthquakeSyncEngineTest {
+
+    private static final int FEATURE_COUNT = 10;
+
+    private static final long INTERVAL = 60 * 1000;
+    private static final long INITIAL_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 16 * 1000;
+
+    /** Covers every earthquake of {@link StubUsgsServer#featureCollection(int)} */
+    private static final EarthquakeQuery QUERY = new EarthquakeQuery(0, 1462295443001L);
+
+    private StubUsgsServer mServer;
+    private StubTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubUsgsServer(StubUsgsServer.featureCollection(FEATURE_COUNT));
+        mTransport = new StubTransport();
+        QueryUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        QueryUtils.setTransport(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void failedSync_fallsBackToLocalCopyOnlyWhenAsked() {
+        EarthquakeSyncEngine engine = new EarthquakeSyncEngine(QUERY);
+        List<Earthquake> synced = engine.sync();
+        assertEquals(FEATURE_COUNT, synced.size());
+
+        mTransport.mFail = true;
+        assertSame(synced, engine.sync());
+        assertNull(engine.sync(false));
+    }
+
+    @Test
+    public void failedSyncAfterSuccess_schedulerBacksOff() throws Exception {
+        EarthquakeRefreshSchedulerTest.FakeClock clock =
+                new EarthquakeRefreshSchedulerTest.FakeClock();
+        EarthquakeRefreshScheduler scheduler = new EarthquakeRefreshScheduler(
+                EarthquakeRefreshScheduler.forSyncEngine(new EarthquakeSyncEngine(QUERY)),
+                INTERVAL, INITIAL_BACKOFF, MAX_BACKOFF, 0, clock, new Random(42));
+        List<Earthquake> synced = scheduler.refresh(null);
+        assertEquals(FEATURE_COUNT, synced.size());
+        assertEquals(INTERVAL, scheduler.getMillisUntilNextRefresh());
+
+        mTransport.mFail = true;
+        clock.advance(INTERVAL);
+        // The list keeps the last earthquakes, but the next try comes after the backoff.
+        assertSame(synced, scheduler.refreshIfDue(null));
+        assertEquals(1, scheduler.getFailureCount());
+        assertEquals(INITIAL_BACKOFF, scheduler.getMillisUntilNextRefresh());
+    }
+
+    /**
+     * Sends the USGS requests to {@link #mServer} instead, or fails them while {@link #mFail}
+     * is set, as when the device is offline.
+     */
+    private class StubTransport implements EarthquakeTransport {
+
+        private final HttpUrlConnectionTransport mTransport = new HttpUrlConnectionTransport();
+
+        volatile boolean mFail;
+
+        @Override
+        public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+            if (mFail) {
+                throw new IOException("Network is unreachable");
+            }
+            return mTransport.get(new URL(mServer.getUrl(url.getFile())), requestHeaders);
+        }
+    }
+}
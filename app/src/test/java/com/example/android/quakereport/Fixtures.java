@@ -0,0 +1,73 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Helpers for the tests: reading the GeoJSON fixtures of src/test/resources/fixtures and
+ * comparing parsed earthquakes field by field.
+ *
+ * The fixtures are written by hand in the shape of the USGS summary feeds, including the odd
+ * values the feeds do send (a null "mag", a null "place", a feature without geometry).
+ */
+final class Fixtures {
+
+    static final String SIGNIFICANT_MONTH = "significant_month.geojson";
+    static final String EDGE_CASES = "edge_cases.geojson";
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Fixtures() {
+    }
+
+    /** Returns the bytes of the fixture with the given file name */
+    static byte[] readBytes(String name) throws IOException {
+        InputStream inputStream = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        assertNotNull("Missing fixture " + name, inputStream);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = inputStream.read(chunk)) >= 0) {
+                output.write(chunk, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /** Returns the text of the fixture with the given file name */
+    static String readString(String name) throws IOException {
+        return new String(readBytes(name), UTF_8);
+    }
+
+    /** Asserts both lists hold the same earthquakes, in the same order */
+    static void assertSameEarthquakes(List<Earthquake> expected, List<Earthquake> actual) {
+        assertEquals("Number of earthquakes", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameEarthquake("Earthquake " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    /** Asserts every field of the two earthquakes is the same */
+    static void assertSameEarthquake(String message, Earthquake expected, Earthquake actual) {
+        assertEquals(message + " id", expected.getId(), actual.getId());
+        assertEquals(message + " magnitude", expected.getMagnitude(), actual.getMagnitude(), 0);
+        assertEquals(message + " location", expected.getLocation(), actual.getLocation());
+        assertEquals(message + " time", expected.getTimeInMilliseconds(),
+                actual.getTimeInMilliseconds());
+        assertEquals(message + " url", expected.getUrl(), actual.getUrl());
+        assertEquals(message + " updated", expected.getUpdatedTime(), actual.getUpdatedTime());
+        assertEquals(message + " deleted", expected.isDeleted(), actual.isDeleted());
+        assertEquals(message + " latitude", expected.getLatitude(), actual.getLatitude(), 0);
+        assertEquals(message + " longitude", expected.getLongitude(), actual.getLongitude(), 0);
+        assertEquals(message + " depth", expected.getDepth(), actual.getDepth(), 0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link HttpUrlConnectionTransport} against a {@link StubUsgsServer}: it asks for
+ * gzip and unzips the body, reuses its connection once a response is closed, and gives up
+ * after its read timeout.
+ */
+public class HttpUrlConnectionTransportTest {
+
+    private static final int FEATURE_COUNT = 100;
+
+    private String mGeoJson;
+    private StubUsgsServer mServer;
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mGeoJson = StubUsgsServer.featureCollection(FEATURE_COUNT);
+        mServer = new StubUsgsServer(mGeoJson);
+        mUrl = new URL(mServer.getUrl("/fdsnws/event/1/query?format=geojson"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void get_gzippedBody_isUnzipped() throws IOException {
+        byte[] body;
+        EarthquakeTransport.Response response = new HttpUrlConnectionTransport().get(mUrl, null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+            body = readAll(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertArrayEquals(mGeoJson.getBytes(Fixtures.UTF_8), body);
+        // What went over the wire was the compressed body.
+        assertTrue(mServer.getBodyBytesSent() < body.length / 2);
+    }
+
+    @Test
+    public void get_afterClose_reusesConnection() throws IOException {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+        for (int i = 0; i < 3; i++) {
+            EarthquakeTransport.Response response = transport.get(mUrl, null);
+            try {
+                assertEquals(200, response.getCode());
+                readAll(response.getBody());
+            } finally {
+                response.close();
+            }
+        }
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void get_unreadBodyClosed_stillAnswersNextRequest() throws IOException {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+        EarthquakeTransport.Response response = transport.get(mUrl,
+                Collections.singletonMap("If-None-Match", mServer.getETag()));
+        try {
+            assertEquals(304, response.getCode());
+        } finally {
+            response.close();
+        }
+
+        response = transport.get(mUrl, null);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(mGeoJson, new String(readAll(response.getBody()), Fixtures.UTF_8));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void get_slowServer_timesOut() throws IOException {
+        mServer.setLatencyMillis(5000);
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport(1000, 200);
+
+        long start = System.nanoTime();
+        EarthquakeTransport.Response response = transport.get(mUrl, null);
+        try {
+            response.getCode();
+            fail("Expected the read to time out");
+        } catch (SocketTimeoutException expected) {
+            // The wait is bounded by the read timeout, not by the server.
+        } finally {
+            response.abort();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < 2500);
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
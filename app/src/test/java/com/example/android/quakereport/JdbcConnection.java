@@ -0,0 +1,293 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An {@link EarthquakeDatabase.Connection} over a JDBC SQLite driver, so the database code of
+ * the app runs on a desktop JVM, in the unit tests and the benchmarks. JDBC numbers columns
+ * from 1, so row columns are shifted by one to match Android's cursors.
+ */
+public class JdbcConnection implements EarthquakeDatabase.Connection {
+
+    private final Connection mConnection;
+
+    /** True once the current transaction was marked successful */
+    private boolean mTransactionSuccessful;
+
+    private JdbcConnection(Connection connection) {
+        mConnection = connection;
+    }
+
+    /** Open (and create if needed) the SQLite database in the file */
+    public static JdbcConnection open(File file) throws IOException {
+        try {
+            return new JdbcConnection(
+                    DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath()));
+        } catch (SQLException e) {
+            throw new IOException("Cannot open " + file, e);
+        }
+    }
+
+    @Override
+    public void execute(String sql) throws IOException {
+        try {
+            Statement statement = mConnection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long queryLong(String sql, String[] args) throws IOException {
+        try {
+            PreparedStatement statement = mConnection.prepareStatement(sql);
+            try {
+                if (args != null) {
+                    for (int i = 0; i < args.length; i++) {
+                        statement.setString(i + 1, args[i]);
+                    }
+                }
+                ResultSet resultSet = statement.executeQuery();
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void beginTransaction() throws IOException {
+        try {
+            mConnection.setAutoCommit(false);
+            mTransactionSuccessful = false;
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        mTransactionSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() throws IOException {
+        try {
+            if (mTransactionSuccessful) {
+                mConnection.commit();
+            } else {
+                mConnection.rollback();
+            }
+            mConnection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public EarthquakeDatabase.Statement compileStatement(String sql) throws IOException {
+        try {
+            return new JdbcStatement(mConnection.prepareStatement(sql));
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public EarthquakeDatabase.Rows query(String sql, String[] args) throws IOException {
+        try {
+            PreparedStatement statement = mConnection.prepareStatement(sql);
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    statement.setString(i + 1, args[i]);
+                }
+            }
+            return new ResultSetRows(statement, statement.executeQuery());
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mConnection.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A {@link PreparedStatement}.
+     */
+    private static class JdbcStatement implements EarthquakeDatabase.Statement {
+
+        private final PreparedStatement mStatement;
+
+        JdbcStatement(PreparedStatement statement) {
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindString(int index, String value) throws IOException {
+            try {
+                mStatement.setString(index, value);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void bindDouble(int index, double value) throws IOException {
+            try {
+                mStatement.setDouble(index, value);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void bindLong(int index, long value) throws IOException {
+            try {
+                mStatement.setLong(index, value);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void bindNull(int index) throws IOException {
+            try {
+                mStatement.setNull(index, java.sql.Types.NULL);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void execute() throws IOException {
+            try {
+                mStatement.executeUpdate();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public int executeUpdateDelete() throws IOException {
+            try {
+                return mStatement.executeUpdate();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public long simpleQueryForLong() throws IOException {
+            try {
+                ResultSet resultSet = mStatement.executeQuery();
+                try {
+                    if (!resultSet.next()) {
+                        throw new IOException("The query returned no rows");
+                    }
+                    return resultSet.getLong(1);
+                } finally {
+                    resultSet.close();
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mStatement.close();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * The rows of a {@link ResultSet}, closing its statement with it.
+     */
+    private static class ResultSetRows implements EarthquakeDatabase.Rows {
+
+        private final PreparedStatement mStatement;
+        private final ResultSet mResultSet;
+
+        ResultSetRows(PreparedStatement statement, ResultSet resultSet) {
+            mStatement = statement;
+            mResultSet = resultSet;
+        }
+
+        @Override
+        public boolean moveToNext() throws IOException {
+            try {
+                return mResultSet.next();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public String getString(int column) throws IOException {
+            try {
+                return mResultSet.getString(column + 1);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public double getDouble(int column) throws IOException {
+            try {
+                return mResultSet.getDouble(column + 1);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public long getLong(int column) throws IOException {
+            try {
+                return mResultSet.getLong(column + 1);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) throws IOException {
+            try {
+                return mResultSet.getObject(column + 1) == null;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                mStatement.close();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.android.quakereport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the USGS event service, for exercising {@link EarthquakeTransport}s
+ * and {@link QueryUtils} without a network.
+ *
+ * It answers every GET with the same GeoJSON body, speaks HTTP/1.1 keep-alive, gzips the body
+ * when the client accepts it, answers 304 when the client already has the current ETag, and can
+ * add a fixed latency before each response. It counts connections, requests and body bytes
+ * sent, so connection reuse and transfer size can be measured.
+ */
+public class StubUsgsServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ServerSocket mServerSocket;
+    private final byte[] mBody;
+    private final byte[] mGzippedBody;
+    private final String mETag;
+    private volatile long mLatencyMillis;
+
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBodyBytesSent = new AtomicLong();
+
+    /**
+     * Start a server on a free local port that serves the given GeoJSON.
+     */
+    public StubUsgsServer(String geoJson) throws IOException {
+        mBody = geoJson.getBytes(UTF_8);
+        mGzippedBody = gzip(mBody);
+        mETag = "\"" + Integer.toHexString(geoJson.hashCode()) + "\"";
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StubUsgsServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Returns a GeoJSON feature collection of {@code count} made-up earthquakes shaped like
+     * the USGS ones.
+     */
+    public static String featureCollection(int count) {
+        StringBuilder json = new StringBuilder(count * 700 + 200);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1462295443000,")
+                .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.2\",")
+                .append("\"count\":").append(count).append("},\"features\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String id = "us" + (10000000 + i);
+            String place = (i % 4 == 0) ? "Fiji region"
+                    : (i % 97) + "km " + (i % 2 == 0 ? "SSW" : "NE") + " of Town " + (i % 50)
+                    + ", Alaska";
+            json.append("{\"type\":\"Feature\",\"properties\":{")
+                    .append("\"mag\":").append(String.format(Locale.US, "%.1f", (i % 90) / 10.0))
+                    .append(",\"place\":\"").append(place).append('"')
+                    .append(",\"time\":").append(1462295443000L - i * 60000L)
+                    .append(",\"updated\":").append(1462295443000L)
+                    .append(",\"tz\":-480")
+                    .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/")
+                    .append(id).append('"')
+                    .append(",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?")
+                    .append("eventid=").append(id).append("&format=geojson\"")
+                    .append(",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null")
+                    .append(",\"status\":\"reviewed\",\"tsunami\":0,\"sig\":").append(i % 1000)
+                    .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2)).append('"')
+                    .append(",\"ids\":\",").append(id).append(",\"")
+                    .append(",\"sources\":\",us,\",\"types\":\",origin,phase-data,\"")
+                    .append(",\"nst\":null,\"dmin\":1.2,\"rms\":0.9,\"gap\":45")
+                    .append(",\"magType\":\"mb\",\"type\":\"earthquake\"")
+                    .append(",\"title\":\"M ").append(i % 9).append(" - ").append(place)
+                    .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(-179.0 + (i * 7) % 358).append(',')
+                    .append(-89.0 + (i * 3) % 178).append(',')
+                    .append(10 + i % 600).append("]},\"id\":\"").append(id).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /** Returns the URL of the given path (and query) on this server */
+    public String getUrl(String pathAndQuery) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + pathAndQuery;
+    }
+
+    /** Delay every response by the given number of milliseconds */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /** Returns the ETag of the served body */
+    public String getETag() {
+        return mETag;
+    }
+
+    /** Returns the number of TCP connections accepted so far */
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /** Returns the number of requests answered so far */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /** Returns the number of response body bytes sent so far (after compression) */
+    public long getBodyBytesSent() {
+        return mBodyBytesSent.get();
+    }
+
+    /** Stop accepting connections */
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "StubUsgsServer connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    /** Answer requests on the connection until the client closes it */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            Map<String, String> headers = new HashMap<>();
+            while (readRequest(in, headers)) {
+                if (mLatencyMillis > 0) {
+                    Thread.sleep(mLatencyMillis);
+                }
+                mRequestCount.incrementAndGet();
+                writeResponse(out, headers);
+                headers.clear();
+            }
+        } catch (SocketException e) {
+            // The client went away.
+        } catch (IOException | InterruptedException e) {
+            // Nothing to report to in a stub.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    /**
+     * Read a request line and its headers (lower-cased names). Returns false at end of stream.
+     */
+    private static boolean readRequest(InputStream in, Map<String, String> headers)
+            throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return false;
+        }
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return true;
+    }
+
+    private void writeResponse(OutputStream out, Map<String, String> headers)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        byte[] body;
+        if (mETag.equals(headers.get("if-none-match"))) {
+            head.append("HTTP/1.1 304 Not Modified\r\n");
+            body = new byte[0];
+        } else {
+            head.append("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n");
+            String acceptEncoding = headers.get("accept-encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                head.append("Content-Encoding: gzip\r\n");
+                body = mGzippedBody;
+            } else {
+                body = mBody;
+            }
+        }
+        head.append("ETag: ").append(mETag).append("\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n")
+                .append("Connection: keep-alive\r\n\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+        out.write(body);
+        out.flush();
+        mBodyBytesSent.addAndGet(body.length);
+    }
+
+    /** Read a CRLF-terminated line, or return null at end of stream */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, UTF_8);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString("UTF-8") : null;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(bytes);
+        gzip.close();
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeFormatter;
+import com.example.android.quakereport.EarthquakeJson;
+import com.example.android.quakereport.EarthquakeStore;
+import com.example.android.quakereport.StubUsgsServer;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what binding one row of the earthquake list costs without the views: reading the
+ * row from the {@link EarthquakeStore} and producing every text and color it shows, as
+ * EarthquakeAdapter does the first time a row is shown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindBenchmark {
+
+    /** Rows in the store, a power of two so the next position is a mask away */
+    private static final int ROW_COUNT = 1024;
+
+    private final EarthquakeFormatter mFormatter = new EarthquakeFormatter();
+    private EarthquakeStore mStore;
+    private EarthquakeStore.Row mRow;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(StubUsgsServer.featureCollection(ROW_COUNT), earthquakes);
+        mStore = EarthquakeStore.from(earthquakes);
+        mRow = mStore.row(0);
+    }
+
+    @Benchmark
+    public void bindRow(Blackhole blackhole) {
+        mNext = (mNext + 1) & (ROW_COUNT - 1);
+        EarthquakeStore.Row row = mRow.moveTo(mNext);
+        blackhole.consume(mFormatter.formatMagnitude(row.getMagnitude()));
+        blackhole.consume(EarthquakeFormatter.getMagnitudeColorIndex(row.getMagnitude()));
+        blackhole.consume(row.getLocationOffset());
+        blackhole.consume(row.getPrimaryLocation());
+        blackhole.consume(mFormatter.formatDate(row.getTimeInMilliseconds()));
+        blackhole.consume(mFormatter.formatTime(row.getTimeInMilliseconds()));
+    }
+}
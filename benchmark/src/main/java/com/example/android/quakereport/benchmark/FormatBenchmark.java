@@ -0,0 +1,81 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-row formatting done when a list row is bound: magnitude, date and time
+ * texts, magnitude color and splitting the location. Each operation formats the next of a
+ * fixed set of made-up values, so caches inside the formatters do not flatter the numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    /** Number of made-up values, a power of two so the next index is a mask away */
+    private static final int VALUE_COUNT = 1024;
+
+    private final EarthquakeFormatter mFormatter = new EarthquakeFormatter();
+    private final double[] mMagnitudes = new double[VALUE_COUNT];
+    private final long[] mTimes = new long[VALUE_COUNT];
+    private final String[] mLocations = new String[VALUE_COUNT];
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            mMagnitudes[i] = (i % 100) / 10.0;
+            mTimes[i] = 1462295443000L - i * 3600000L;
+            mLocations[i] = (i % 4 == 0) ? "Pacific-Antarctic Ridge"
+                    : (i % 97) + "km NE of Town " + (i % 50) + ", Alaska";
+        }
+    }
+
+    private int next() {
+        return mNext = (mNext + 1) & (VALUE_COUNT - 1);
+    }
+
+    @Benchmark
+    public String formatMagnitude() {
+        return mFormatter.formatMagnitude(mMagnitudes[next()]);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return mFormatter.formatDate(mTimes[next()]);
+    }
+
+    @Benchmark
+    public String formatTime() {
+        return mFormatter.formatTime(mTimes[next()]);
+    }
+
+    @Benchmark
+    public int magnitudeColorIndex() {
+        return EarthquakeFormatter.getMagnitudeColorIndex(mMagnitudes[next()]);
+    }
+
+    @Benchmark
+    public void splitLocation(Blackhole blackhole) {
+        String location = mLocations[next()];
+        blackhole.consume(EarthquakeFormatter.getLocationOffset(location));
+        blackhole.consume(EarthquakeFormatter.getPrimaryLocation(location));
+    }
+}
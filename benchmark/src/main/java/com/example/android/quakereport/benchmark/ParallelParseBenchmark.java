@@ -0,0 +1,65 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeByteParser;
+import com.example.android.quakereport.StubUsgsServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a large response with {@link EarthquakeByteParser} on 1 to 8 threads, next
+ * to the sequential parse. The speedup is the sequential time over the parallel time; it
+ * cannot go past the number of cores of the machine running the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelParseBenchmark {
+
+    @Param({"20000"})
+    public int featureCount;
+
+    @Param({"1", "2", "3", "4", "6", "8"})
+    public int threadCount;
+
+    private byte[] mResponseBytes;
+
+    @Setup
+    public void setUp() {
+        mResponseBytes = StubUsgsServer.featureCollection(featureCount)
+                .getBytes(Charset.forName("UTF-8"));
+    }
+
+    /** The sequential parse, the same for every thread count */
+    @Benchmark
+    public List<Earthquake> sequential() throws IOException {
+        return EarthquakeByteParser.parse(mResponseBytes, 0, mResponseBytes.length);
+    }
+
+    @Benchmark
+    public List<Earthquake> parallel() throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeByteParser.parse(mResponseBytes, 0, mResponseBytes.length, earthquakes,
+                threadCount);
+        return earthquakes;
+    }
+}
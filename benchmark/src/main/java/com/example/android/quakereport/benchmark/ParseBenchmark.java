@@ -0,0 +1,145 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeBufferPool;
+import com.example.android.quakereport.EarthquakeByteParser;
+import com.example.android.quakereport.EarthquakeJson;
+import com.example.android.quakereport.EarthquakeStringPool;
+import com.example.android.quakereport.StubUsgsServer;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a USGS response into a String and parsing it into {@link Earthquake}s, for
+ * responses of 10, 1000 and 20000 (the most USGS returns at once) features, against parsing
+ * the response bytes with {@link EarthquakeByteParser}, decoding the Strings or leaving them to
+ * {@code LazyEarthquake}. Reading a response into a pooled buffer, and parsing it from there
+ * so the buffer can be reused, is measured as well.
+ *
+ * The responses come from {@link StubUsgsServer#featureCollection(int)}, which has the same
+ * shape and field sizes as a real USGS response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    /** Rows on screen at once */
+    private static final int VISIBLE_ROWS = 10;
+
+    @Param({"10", "1000", "20000"})
+    public int featureCount;
+
+    private byte[] mResponseBytes;
+    private String mResponse;
+
+    @Setup
+    public void setUp() {
+        mResponse = StubUsgsServer.featureCollection(featureCount);
+        mResponseBytes = mResponse.getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public String readFromStream() throws IOException {
+        return EarthquakeJson.readFromStream(new ByteArrayInputStream(mResponseBytes));
+    }
+
+    @Benchmark
+    public List<Earthquake> extractFeatures() throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(mResponse, earthquakes);
+        return earthquakes;
+    }
+
+    /** What a fetch costs after the network: both of the above */
+    @Benchmark
+    public List<Earthquake> readAndExtract() throws IOException, JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(
+                EarthquakeJson.readFromStream(new ByteArrayInputStream(mResponseBytes)),
+                earthquakes);
+        return earthquakes;
+    }
+
+    /** The byte-level parse, on the calling thread */
+    @Benchmark
+    public List<Earthquake> parseBytes() throws IOException {
+        return EarthquakeByteParser.parse(mResponseBytes, 0, mResponseBytes.length);
+    }
+
+    /** The byte-level parse leaving the Strings undecoded, as the sync engine fetches */
+    @Benchmark
+    public List<Earthquake> parseBytesLazily() throws IOException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        EarthquakeByteParser.parseLazily(mResponseBytes, 0, mResponseBytes.length, earthquakes,
+                1);
+        return earthquakes;
+    }
+
+    /**
+     * The lazy byte-level parse, then decoding the Strings of a screenful of rows, which is
+     * what a refresh costs when only that many earthquakes are new to the database.
+     */
+    @Benchmark
+    public List<Earthquake> parseBytesLazilyAndDecodeVisible() throws IOException {
+        List<Earthquake> earthquakes = parseBytesLazily();
+        for (int i = 0; i < Math.min(VISIBLE_ROWS, earthquakes.size()); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            earthquake.getLocation();
+            earthquake.getUrl();
+        }
+        return earthquakes;
+    }
+
+    /** Reading a whole response into a pooled buffer and handing it back */
+    @Benchmark
+    public int readIntoPooledBuffer() throws IOException {
+        EarthquakeBufferPool pool = EarthquakeBufferPool.getShared();
+        ByteBuffer buffer = pool.readFully(new ByteArrayInputStream(mResponseBytes),
+                mResponseBytes.length);
+        int length = buffer.limit();
+        pool.release(buffer);
+        return length;
+    }
+
+    /**
+     * What a fetch without a listener costs after the network: reading into a pooled buffer,
+     * then the byte-level parse, and handing the buffer back.
+     */
+    @Benchmark
+    public List<Earthquake> readAndParseBytes() throws IOException {
+        EarthquakeBufferPool pool = EarthquakeBufferPool.getShared();
+        ByteBuffer buffer = pool.readFully(new ByteArrayInputStream(mResponseBytes),
+                mResponseBytes.length);
+        try {
+            List<Earthquake> earthquakes = new ArrayList<>();
+            EarthquakeByteParser.parse(buffer.array(), buffer.arrayOffset(), buffer.limit(),
+                    earthquakes, 1, EarthquakeStringPool.getShared());
+            return earthquakes;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeByteParser;
+import com.example.android.quakereport.EarthquakeSnapshot;
+import com.example.android.quakereport.StubUsgsServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures restoring earthquakes from an {@link EarthquakeSnapshot} against parsing the GeoJSON
+ * they came from with {@link EarthquakeByteParser}, the fastest of the JSON parsers. Writing a
+ * snapshot is measured too. The sizes of both are printed once at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({"1000", "20000"})
+    public int featureCount;
+
+    private byte[] mResponseBytes;
+    private List<Earthquake> mEarthquakes;
+    private byte[] mSnapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        mResponseBytes = StubUsgsServer.featureCollection(featureCount)
+                .getBytes(Charset.forName("UTF-8"));
+        mEarthquakes = EarthquakeByteParser.parse(mResponseBytes, 0, mResponseBytes.length);
+        mSnapshot = writeSnapshot();
+        System.out.println(featureCount + " earthquakes: " + mResponseBytes.length
+                + " bytes of GeoJSON, " + mSnapshot.length + " bytes of snapshot");
+    }
+
+    @Benchmark
+    public List<Earthquake> parseGeoJson() throws IOException {
+        return EarthquakeByteParser.parse(mResponseBytes, 0, mResponseBytes.length);
+    }
+
+    @Benchmark
+    public List<Earthquake> readSnapshot() throws IOException {
+        return EarthquakeSnapshot.read(ByteBuffer.wrap(mSnapshot));
+    }
+
+    @Benchmark
+    public byte[] writeSnapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        EarthquakeSnapshot.write(mEarthquakes, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeSpatialIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares radius, rectangle and nearest lookups through {@link EarthquakeSpatialIndex} with a
+ * linear scan over every earthquake.
+ *
+ * Two thirds of the made-up epicenters are clustered around a few hot spots, like real
+ * seismicity, and the rest are spread evenly over the globe. Every operation queries around
+ * the next of a fixed set of points, half of them near a hot spot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+    /** Number of query points, a power of two so the next index is a mask away */
+    private static final int QUERY_COUNT = 256;
+
+    /** Latitude and longitude of the hot spots */
+    private static final double[][] HOT_SPOTS = {
+            {35.7, 139.7}, {36.0, -118.0}, {-33.4, -70.6}, {-6.2, 106.8}, {61.2, -149.9}
+    };
+
+    @Param({"10000", "50000"})
+    public int earthquakeCount;
+
+    @Param({"50", "500"})
+    public double radiusKm;
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mQueryLatitudes;
+    private double[] mQueryLongitudes;
+    private EarthquakeSpatialIndex mIndex;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mLatitudes = new double[earthquakeCount];
+        mLongitudes = new double[earthquakeCount];
+        for (int i = 0; i < earthquakeCount; i++) {
+            placeRandomly(random, i % 3 != 0, mLatitudes, mLongitudes, i);
+        }
+        mQueryLatitudes = new double[QUERY_COUNT];
+        mQueryLongitudes = new double[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            placeRandomly(random, i % 2 == 0, mQueryLatitudes, mQueryLongitudes, i);
+        }
+        mIndex = new EarthquakeSpatialIndex(mLatitudes, mLongitudes, earthquakeCount);
+    }
+
+    private static void placeRandomly(Random random, boolean nearHotSpot, double[] latitudes,
+                                      double[] longitudes, int i) {
+        if (nearHotSpot) {
+            double[] hotSpot = HOT_SPOTS[random.nextInt(HOT_SPOTS.length)];
+            latitudes[i] = Math.max(-90, Math.min(90, hotSpot[0] + random.nextGaussian() * 2));
+            longitudes[i] = hotSpot[1] + random.nextGaussian() * 2;
+        } else {
+            latitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            longitudes[i] = 360 * random.nextDouble() - 180;
+        }
+    }
+
+    private int next() {
+        return mNext = (mNext + 1) & (QUERY_COUNT - 1);
+    }
+
+    @Benchmark
+    public EarthquakeSpatialIndex build() {
+        return new EarthquakeSpatialIndex(mLatitudes, mLongitudes, earthquakeCount);
+    }
+
+    @Benchmark
+    public int[] radiusIndexed() {
+        int i = next();
+        return mIndex.queryRadius(mQueryLatitudes[i], mQueryLongitudes[i], radiusKm);
+    }
+
+    @Benchmark
+    public int[] radiusLinearScan() {
+        int i = next();
+        int[] result = new int[16];
+        int count = 0;
+        for (int j = 0; j < earthquakeCount; j++) {
+            if (EarthquakeSpatialIndex.distanceKm(mQueryLatitudes[i], mQueryLongitudes[i],
+                    mLatitudes[j], mLongitudes[j]) <= radiusKm) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = j;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** A viewport of roughly the radius around the query point */
+    @Benchmark
+    public int[] boxIndexed() {
+        int i = next();
+        double halfDegrees = radiusKm / 111.2;
+        return mIndex.queryBox(mQueryLatitudes[i] - halfDegrees, mQueryLatitudes[i] + halfDegrees,
+                mQueryLongitudes[i] - halfDegrees, mQueryLongitudes[i] + halfDegrees);
+    }
+
+    @Benchmark
+    public int[] boxLinearScan() {
+        int i = next();
+        double halfDegrees = radiusKm / 111.2;
+        double south = mQueryLatitudes[i] - halfDegrees;
+        double north = mQueryLatitudes[i] + halfDegrees;
+        double west = mQueryLongitudes[i] - halfDegrees;
+        double east = mQueryLongitudes[i] + halfDegrees;
+        int[] result = new int[16];
+        int count = 0;
+        for (int j = 0; j < earthquakeCount; j++) {
+            if (mLatitudes[j] >= south && mLatitudes[j] <= north
+                    && mLongitudes[j] >= west && mLongitudes[j] <= east) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = j;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    @Benchmark
+    public int nearestIndexed() {
+        int i = next();
+        return mIndex.nearest(mQueryLatitudes[i], mQueryLongitudes[i]);
+    }
+
+    @Benchmark
+    public int nearestLinearScan() {
+        int i = next();
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int j = 0; j < earthquakeCount; j++) {
+            double distance = EarthquakeSpatialIndex.distanceKm(mQueryLatitudes[i],
+                    mQueryLongitudes[i], mLatitudes[j], mLongitudes[j]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = j;
+            }
+        }
+        return best;
+    }
+}
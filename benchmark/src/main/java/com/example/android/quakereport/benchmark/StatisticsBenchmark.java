@@ -0,0 +1,108 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.Earthquake;
+import com.example.android.quakereport.EarthquakeFormatter;
+import com.example.android.quakereport.EarthquakeJson;
+import com.example.android.quakereport.EarthquakeStatistics;
+import com.example.android.quakereport.StubUsgsServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EarthquakeStatistics}: revising one earthquake, reading a dashboard (the
+ * magnitude histogram, the hourly counts and the strongest earthquake of a region), and
+ * rebuilding everything with one shard per thread. Reading the same dashboard by walking the
+ * whole list is measured next to it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+    /** Region of a quarter of the made-up earthquakes */
+    private static final String REGION = "Fiji region";
+
+    @Param({"20000"})
+    public int featureCount;
+
+    @Param({"1", "2", "4"})
+    public int shardCount;
+
+    private List<Earthquake> mEarthquakes;
+    private EarthquakeStatistics mStatistics;
+    private long mEndTime;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws Exception {
+        mEarthquakes = new ArrayList<>();
+        EarthquakeJson.extractFeatures(StubUsgsServer.featureCollection(featureCount),
+                mEarthquakes);
+        mStatistics = new EarthquakeStatistics(shardCount,
+                EarthquakeStatistics.DEFAULT_HOUR_COUNT, EarthquakeStatistics.DEFAULT_DAY_COUNT);
+        mStatistics.rebuild(mEarthquakes);
+        mEndTime = mEarthquakes.get(0).getTimeInMilliseconds();
+    }
+
+    /** A delta revising one earthquake */
+    @Benchmark
+    public EarthquakeStatistics revise() {
+        mNext = (mNext + 1) % featureCount;
+        mStatistics.add(mEarthquakes.get(mNext));
+        return mStatistics;
+    }
+
+    @Benchmark
+    public double readDashboard() {
+        int[] magnitudeCounts = mStatistics.getMagnitudeCounts();
+        int[] hourlyCounts = mStatistics.getHourlyCounts(mEndTime);
+        return magnitudeCounts[5] + hourlyCounts[hourlyCounts.length - 1]
+                + mStatistics.getMaxMagnitude(REGION);
+    }
+
+    /** The same dashboard, walking the whole list */
+    @Benchmark
+    public double readDashboardByWalking() {
+        int[] magnitudeCounts = new int[EarthquakeStatistics.MAGNITUDE_BUCKET_COUNT];
+        int[] hourlyCounts = new int[EarthquakeStatistics.DEFAULT_HOUR_COUNT];
+        long endHour = mEndTime / TimeUnit.HOURS.toMillis(1);
+        double max = Double.NaN;
+        for (Earthquake earthquake : mEarthquakes) {
+            magnitudeCounts[EarthquakeFormatter.getMagnitudeColorIndex(
+                    earthquake.getMagnitude())]++;
+            long age = endHour - earthquake.getTimeInMilliseconds() / TimeUnit.HOURS.toMillis(1);
+            if (age >= 0 && age < hourlyCounts.length) {
+                hourlyCounts[hourlyCounts.length - 1 - (int) age]++;
+            }
+            if (REGION.equals(EarthquakeFormatter.getRegion(earthquake.getPrimaryLocation()))
+                    && (Double.isNaN(max) || earthquake.getMagnitude() > max)) {
+                max = earthquake.getMagnitude();
+            }
+        }
+        return magnitudeCounts[5] + hourlyCounts[hourlyCounts.length - 1] + max;
+    }
+
+    /** A full fetch, rebuilding every shard at the same time */
+    @Benchmark
+    public EarthquakeStatistics rebuild() {
+        mStatistics.rebuild(mEarthquakes);
+        return mStatistics;
+    }
+}